@@ -0,0 +1,124 @@
+package jumpcloud;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Fixed, seeded sequences of action names for the benchmarks, so every run and every fork measures the same keys
+ */
+class ActionKeys
+{
+	/**
+	 * The length of every sequence; a power of 2 so a cursor can be masked
+	 */
+	static final int SEQUENCE_LENGTH = 1 << 16;
+	
+	static final int SEQUENCE_MASK = SEQUENCE_LENGTH - 1;
+	
+	private static final long SEED = 0x5EEDL;
+	
+	
+	/**
+	 * @param cardinality : the positive number of distinct action names
+	 * @return the distinct action names
+	 */
+	static String[] names ( int cardinality )
+	{
+		String[] names = new String[ cardinality ];
+		
+		for ( int i = 0; i < cardinality; ++i )
+		{
+			names[i] = "action-" + i;
+		}
+		
+		return names;
+	}
+	
+	/**
+	 * @param cardinality : the positive number of distinct action names
+	 * @param skew : "uniform", or "zipf" for a Zipf distribution with exponent 1, where the most frequent name is 
+	 * 				drawn about twice as often as the second
+	 * @return SEQUENCE_LENGTH indexes into names( cardinality )
+	 */
+	static int[] sequence ( int cardinality, String skew )
+	{
+		Random random = new Random( SEED );
+		int[] sequence = new int[ SEQUENCE_LENGTH ];
+		
+		if ( "uniform".equals( skew ) )
+		{
+			for ( int i = 0; i < sequence.length; ++i )
+			{
+				sequence[i] = random.nextInt( cardinality );
+			}
+			
+			return sequence;
+		}
+		
+		if ( ! "zipf".equals( skew ) )
+		{
+			throw new IllegalArgumentException( "unknown skew: " + skew );
+		}
+		
+		double[] cumulative = new double[ cardinality ];
+		double sum = 0;
+		for ( int i = 0; i < cardinality; ++i )
+		{
+			sum += 1.0 / ( i + 1 );
+			cumulative[i] = sum;
+		}
+		
+		for ( int i = 0; i < sequence.length; ++i )
+		{
+			int index = Arrays.binarySearch( cumulative, random.nextDouble() * sum );
+			sequence[i] = Math.min( index < 0 ? -index - 1 : index, cardinality - 1 );
+		}
+		
+		return sequence;
+	}
+	
+	/**
+	 * @return SEQUENCE_LENGTH non-negative int times drawn from a fixed seed, in the range the demo uses
+	 */
+	static int[] times ()
+	{
+		Random random = new Random( SEED + 1 );
+		int[] times = new int[ SEQUENCE_LENGTH ];
+		
+		for ( int i = 0; i < times.length; ++i )
+		{
+			times[i] = random.nextInt( Integer.MAX_VALUE );
+		}
+		
+		return times;
+	}
+	
+	/**
+	 * @param mode : "synchronized", "concurrent", "striped" (concurrent with one stripe per available processor),
+	 * 				"histograms" (concurrent with histograms enabled), "buffered" (concurrent with thread-local buffers of
+	 * 				up to 4096 actions merged at least every 100ms), or "async" (concurrent with one consumer per
+	 * 				available processor, each with a queue of 65536 actions that blocks producers when full)
+	 * @return a new, empty tracker in the given mode
+	 */
+	static AddActionAssignment tracker ( String mode )
+	{
+		switch ( mode )
+		{
+			case "synchronized":
+				return new AddActionAssignment( false );
+			case "concurrent":
+				return new AddActionAssignment( true );
+			case "striped":
+				return new AddActionAssignment( true, Runtime.getRuntime().availableProcessors() );
+			case "histograms":
+				return new AddActionAssignment( new AddActionOptions().concurrentMap( true ).histograms( true ) );
+			case "buffered":
+				return new AddActionAssignment( new AddActionOptions().concurrentMap( true ).threadLocalBuffers( 4096, 100 ) );
+			case "async":
+				return new AddActionAssignment( new AddActionOptions().concurrentMap( true )
+													.async( Runtime.getRuntime().availableProcessors(), 1 << 16, AddActionOptions.Backpressure.BLOCK ) );
+			default:
+				throw new IllegalArgumentException( "unknown mode: " + mode );
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package jumpcloud;
+
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Throughput of the addAction variants by map mode, key cardinality and key skew; 
+ * thread count is set with JMH's -t option (see BenchmarkSuite).
+ * 
+ * Inputs are pre-built from fixed seeds (see ActionKeys), so only the addAction call itself is measured.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" } )
+@State( Scope.Benchmark )
+public class AddActionBenchmark
+{
+	@Param( { "synchronized", "concurrent", "striped", "histograms", "buffered", "async" } )
+	public String mode;
+	
+	@Param( { "1", "1000", "100000" } )
+	public int cardinality;
+	
+	@Param( { "uniform", "zipf" } )
+	public String skew;
+	
+	private AddActionAssignment tracker;
+	
+	// indexed by position in the key sequence
+	private String[] names;
+	private int[] ids;
+	private int[] times;
+	private String[] jsonStrings;
+	private JSONObject[] jsonObjects;
+	
+	
+	@Setup( Level.Trial )
+	public void setup ()
+	{
+		this.tracker = ActionKeys.tracker( this.mode );
+		
+		String[] distinctNames = ActionKeys.names( this.cardinality );
+		int[] sequence = ActionKeys.sequence( this.cardinality, this.skew );
+		
+		this.times = ActionKeys.times();
+		this.names = new String[ sequence.length ];
+		this.ids = new int[ sequence.length ];
+		this.jsonStrings = new String[ sequence.length ];
+		this.jsonObjects = new JSONObject[ sequence.length ];
+		
+		for ( int i = 0; i < sequence.length; ++i )
+		{
+			this.names[i] = distinctNames[ sequence[i] ];
+			this.ids[i] = this.tracker.getActionId( this.names[i] );
+			this.jsonStrings[i] = "{'action':'" + this.names[i] + "', 'time':" + this.times[i] + "}";
+			this.jsonObjects[i] = new JSONObject( this.jsonStrings[i] );
+		}
+		
+		// every name is seen before measurement, so the steady state of lookups is measured rather than first-inserts
+		for ( String name : distinctNames )
+		{
+			this.tracker.addAction( name, 1 );
+		}
+	}
+	
+	/**
+	 * Stops the threads of the buffered and async modes, applying what they still hold
+	 */
+	@TearDown( Level.Trial )
+	public void tearDown ()
+	{
+		this.tracker.close();
+	}
+	
+	/**
+	 * Each thread's position in the key sequence; threads start at different offsets so they do not move in lockstep
+	 */
+	@State( Scope.Thread )
+	public static class Cursor
+	{
+		private int next;
+		
+		@Setup( Level.Trial )
+		public void setup ( ThreadParams threadParams )
+		{
+			this.next = threadParams.getThreadIndex() * 7919;
+		}
+		
+		int next ()
+		{
+			return this.next++ & ActionKeys.SEQUENCE_MASK;
+		}
+	}
+	
+	
+	@Benchmark
+	public void addActionString ( Cursor cursor )
+	{
+		this.tracker.addAction( this.jsonStrings[ cursor.next() ] );
+	}
+	
+	@Benchmark
+	public void addActionJSONObject ( Cursor cursor )
+	{
+		this.tracker.addAction( this.jsonObjects[ cursor.next() ] );
+	}
+	
+	@Benchmark
+	public void addActionNameTime ( Cursor cursor )
+	{
+		int i = cursor.next();
+		
+		this.tracker.addAction( this.names[i], this.times[i] );
+	}
+	
+	@Benchmark
+	public void addActionId ( Cursor cursor )
+	{
+		int i = cursor.next();
+		
+		this.tracker.addAction( this.ids[i], this.times[i] );
+	}
+}
@@ -0,0 +1,132 @@
+package jumpcloud;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * Measures ingestion throughput against batch size: one addAction(JSONObject) call per action against 
+ * addActions(Iterable) over the same JSONObjects, and one addAction(String) call per NDJSON line against
+ * addActions(InputStream) over the same lines.
+ * 
+ * Usage: BatchBenchmark [number of distinct action names]
+ */
+public class BatchBenchmark
+{
+	private static final int[] BATCH_SIZES = { 1, 10, 100, 1000, 10000 };
+	
+	private static final int NUM_ACTIONS = 1000000;
+	
+	
+	public static void main ( String[] args ) throws Exception
+	{
+		int numNames = args.length > 0 ? Integer.parseInt( args[0] ) : 100;
+		
+		List<JSONObject> actions = new ArrayList<JSONObject>( NUM_ACTIONS );
+		List<String> lines = new ArrayList<String>( NUM_ACTIONS );
+		StringBuilder ndjson = new StringBuilder();
+		for ( int i = 0; i < NUM_ACTIONS; ++i )
+		{
+			String name = "action" + ( i * 7919 % numNames );
+			int time = i % 1000;
+			
+			actions.add( new JSONObject().put( AddActionAssignment.ACTION_NAME_JSON_FLD, name )
+											.put( AddActionAssignment.TIME_JSON_FLD, time ) );
+			lines.add( "{\"action\":\"" + name + "\",\"time\":" + time + "}" );
+			ndjson.append( lines.get( i ) ).append( '\n' );
+		}
+		byte[] ndjsonBytes = ndjson.toString().getBytes( StandardCharsets.UTF_8 );
+		
+		// warm up every path once
+		single( actions );
+		singleLines( lines );
+		batched( actions, 100 );
+		streamed( ndjsonBytes, 100 );
+		
+		System.out.println( "actions/s:" );
+		System.out.println( "batch size  addAction(JSONObject)  addActions(Iterable)  addAction(String)  addActions(InputStream)" );
+		
+		for ( int batchSize : BATCH_SIZES )
+		{
+			System.out.printf( "%10d  %19d  %20d  %17d  %23d%n", batchSize,
+								single( actions ), batched( actions, batchSize ), 
+								singleLines( lines ), streamed( ndjsonBytes, batchSize ) );
+		}
+	}
+	
+	private static long single ( List<JSONObject> actions )
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		long start = System.nanoTime();
+		
+		for ( JSONObject action : actions )
+		{
+			tracker.addAction( action );
+		}
+		
+		return perSecond( actions.size(), start );
+	}
+	
+	private static long singleLines ( List<String> lines )
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		long start = System.nanoTime();
+		
+		for ( String line : lines )
+		{
+			tracker.addAction( line );
+		}
+		
+		return perSecond( lines.size(), start );
+	}
+	
+	private static long batched ( List<JSONObject> actions, int batchSize )
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		long start = System.nanoTime();
+		
+		for ( int i = 0; i < actions.size(); i += batchSize )
+		{
+			tracker.addActions( actions.subList( i, Math.min( i + batchSize, actions.size() ) ) );
+		}
+		
+		return perSecond( actions.size(), start );
+	}
+	
+	private static long streamed ( byte[] ndjson, int batchSize ) throws Exception
+	{
+		// split the NDJSON into batchSize-line chunks before timing
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		int chunkStart = 0;
+		int lines = 0;
+		for ( int i = 0; i < ndjson.length; ++i )
+		{
+			if ( ndjson[i] == '\n' && ++lines % batchSize == 0 )
+			{
+				chunks.add( java.util.Arrays.copyOfRange( ndjson, chunkStart, i + 1 ) );
+				chunkStart = i + 1;
+			}
+		}
+		if ( chunkStart < ndjson.length )
+		{
+			chunks.add( java.util.Arrays.copyOfRange( ndjson, chunkStart, ndjson.length ) );
+		}
+		
+		AddActionAssignment tracker = new AddActionAssignment();
+		long start = System.nanoTime();
+		
+		for ( byte[] chunk : chunks )
+		{
+			tracker.addActions( new ByteArrayInputStream( chunk ) );
+		}
+		
+		return perSecond( lines, start );
+	}
+	
+	private static long perSecond ( long numActions, long startNanos )
+	{
+		return numActions * 1000000000L / Math.max( 1, System.nanoTime() - startNanos );
+	}
+}
@@ -0,0 +1,39 @@
+package jumpcloud;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the whole suite at 1, 4 and 16 threads, writing machine-readable results so runs can be compared
+ * (e.g. with a JMH results visualizer, or by diffing the score of each benchmark/param combination).
+ * 
+ * Usage: BenchmarkSuite [results file prefix, default "jmh-results"]
+ * 
+ * Writes one JSON results file per thread count: <prefix>-<threads>t.json
+ */
+public class BenchmarkSuite
+{
+	private static final int[] THREAD_COUNTS = { 1, 4, 16 };
+	
+	
+	public static void main ( String[] args ) throws Exception
+	{
+		String prefix = args.length > 0 ? args[0] : "jmh-results";
+		
+		for ( int threads : THREAD_COUNTS )
+		{
+			Options options = new OptionsBuilder()
+									.include( AddActionBenchmark.class.getSimpleName() )
+									.include( StatsBenchmark.class.getSimpleName() )
+									.include( ShardedBenchmark.class.getSimpleName() )
+									.threads( threads )
+									.resultFormat( ResultFormatType.JSON )
+									.result( prefix + "-" + threads + "t.json" )
+									.build();
+			
+			new Runner( options ).run();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package jumpcloud;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares addAction(String, int) throughput of the synchronized HashMap path with the ConcurrentHashMap path
+ * at 1, 8, 32 and 128 ingesting threads.
+ * 
+ * Two workloads are measured: "lookup", where every thread cycles over a fixed set of already-seen action names,
+ * and "insert", where every call uses a previously unseen action name.
+ * 
+ * Usage: ContentionBenchmark [seconds per run]
+ */
+public class ContentionBenchmark
+{
+	private static final int[] THREAD_COUNTS = { 1, 8, 32, 128 };
+	
+	private static final int NUM_ACTION_NAMES = 1024;   // power of 2 so the name index can be masked
+	
+	
+	public static void main ( String[] args ) throws Exception
+	{
+		long runMillis = ( args.length > 0 ? Long.parseLong( args[0] ) : 2 ) * 1000;
+		
+		final String[] names = new String[ NUM_ACTION_NAMES ];
+		for ( int i = 0; i < names.length; ++i )
+		{
+			names[i] = "action" + i;
+		}
+		
+		// warm up both paths so the first measured run is not paying for JIT compilation
+		run( false, 8, names, false, 1000 );
+		run( true, 8, names, false, 1000 );
+		
+		System.out.println( "workload  threads  synchronized HashMap (ops/s)  ConcurrentHashMap (ops/s)" );
+		
+		for ( boolean insert : new boolean[] { false, true } )
+		{
+			for ( int numThreads : THREAD_COUNTS )
+			{
+				long syncOps = run( false, numThreads, names, insert, runMillis );
+				long concurrentOps = run( true, numThreads, names, insert, runMillis );
+				
+				System.out.printf( "%-8s  %7d  %28d  %25d%n",
+									insert ? "insert" : "lookup", numThreads,
+									syncOps * 1000 / runMillis, concurrentOps * 1000 / runMillis );
+			}
+		}
+	}
+	
+	/**
+	 * Runs numThreads threads calling addAction for runMillis and returns the total number of calls made
+	 */
+	private static long run ( boolean concurrentMap, int numThreads, final String[] names, final boolean insert, 
+								final long runMillis ) throws InterruptedException
+	{
+		final AddActionAssignment tracker = new AddActionAssignment( concurrentMap );
+		final LongAdder ops = new LongAdder();
+		final CountDownLatch start = new CountDownLatch( 1 );
+		
+		// seed the lookup names so the lookup workload measures lookups only
+		for ( String name : names )
+		{
+			tracker.addAction( name, 1 );
+		}
+		
+		Thread[] threads = new Thread[ numThreads ];
+		for ( int t = 0; t < numThreads; ++t )
+		{
+			final String prefix = "t" + t + "-";
+			final int offset = t * 31;
+			
+			threads[t] = new Thread( new Runnable () {
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch ( InterruptedException e )
+					{
+						return;
+					}
+					
+					long deadline = System.currentTimeMillis() + runMillis;
+					long count = 0;
+					
+					while ( System.currentTimeMillis() < deadline )
+					{
+						for ( int i = 0; i < 256; ++i, ++count )   // check the clock only every 256 calls
+						{
+							String name = insert ? prefix + count : names[ (int) ( count + offset ) & ( NUM_ACTION_NAMES - 1 ) ];
+							tracker.addAction( name, (int) count );
+						}
+					}
+					
+					ops.add( count );
+				}
+			} );
+			threads[t].start();
+		}
+		
+		start.countDown();
+		
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+		
+		return ops.sum();
+	}
+}
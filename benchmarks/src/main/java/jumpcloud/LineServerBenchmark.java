@@ -0,0 +1,169 @@
+package jumpcloud;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures LineProtocolServer: opens a number of idle TCP connections and reports the heap they take, then with those
+ * still open reports the records per second added from 1, 4 and 16 TCP senders each writing back to back, and from a
+ * UDP sender. Client and server run in this process, so each connection takes two file descriptors here; raise
+ * ulimit -n to above twice the number of idle connections.
+ * 
+ * Usage: LineServerBenchmark [idle connections] [seconds per run] [reactors]
+ */
+public class LineServerBenchmark
+{
+	private static final int[] SENDER_COUNTS = { 1, 4, 16 };
+	
+	private static final int NUM_ACTION_NAMES = 1024;
+	
+	
+	public static void main ( String[] args ) throws Exception
+	{
+		int idleConnections = args.length > 0 ? Integer.parseInt( args[0] ) : 5000;
+		long runMillis = ( args.length > 1 ? Long.parseLong( args[1] ) : 2 ) * 1000;
+		int numReactors = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+		
+		final LineProtocolServer server = new LineProtocolServer( new AddActionAssignment( new AddActionOptions().concurrentMap( true ) ),
+																	new InetSocketAddress( "127.0.0.1", 0 ),
+																	new InetSocketAddress( "127.0.0.1", 0 ), numReactors );
+		server.start();
+		
+		final InetSocketAddress tcp = new InetSocketAddress( "127.0.0.1", server.getTcpPort() );
+		final InetSocketAddress udp = new InetSocketAddress( "127.0.0.1", server.getUdpPort() );
+		final byte[] records = records();
+		
+		long heapBefore = usedHeap();
+		SocketChannel[] idle = new SocketChannel[ idleConnections ];
+		
+		for ( int i = 0; i < idleConnections; ++i )
+		{
+			idle[i] = SocketChannel.open( tcp );
+		}
+		
+		while ( server.getConnections() < idleConnections )
+		{
+			Thread.sleep( 10 );
+		}
+		
+		System.out.println( "reactors: " + numReactors + ", idle connections: " + server.getConnections() + ", heap per connection (client and server): "
+							+ ( usedHeap() - heapBefore ) / Math.max( 1, idleConnections ) + " bytes" );
+		System.out.println( "senders  protocol  records/s" );
+		
+		for ( int numSenders : SENDER_COUNTS )
+		{
+			System.out.println( run( server, numSenders, runMillis, () -> {
+				try ( SocketChannel channel = SocketChannel.open( tcp ) )
+				{
+					ByteBuffer buffer = ByteBuffer.allocateDirect( records.length ).put( records );
+					
+					while ( ! Thread.currentThread().isInterrupted() )
+					{
+						buffer.flip();
+						while ( buffer.hasRemaining() )
+						{
+							channel.write( buffer );
+						}
+					}
+				}
+				catch ( Exception e )
+				{
+					// interrupted, closing the channel
+				}
+			}, "tcp" ) );
+		}
+		
+		System.out.println( run( server, 1, runMillis, () -> {
+			try ( DatagramChannel channel = DatagramChannel.open() )
+			{
+				ByteBuffer buffer = ByteBuffer.allocateDirect( 1400 );   // records up to a typical MTU per datagram
+				int pos = 0;
+				
+				while ( ! Thread.currentThread().isInterrupted() )
+				{
+					int end = pos + 1300;
+					
+					while ( records[ end - 1 ] != '\n' )
+					{
+						--end;
+					}
+					
+					buffer.clear();
+					buffer.put( records, pos, end - pos ).flip();
+					channel.send( buffer, udp );
+					pos = end + 1400 > records.length ? 0 : end;
+				}
+			}
+			catch ( Exception e )
+			{
+				// interrupted, closing the channel
+			}
+		}, "udp" ) );
+		
+		for ( SocketChannel channel : idle )
+		{
+			channel.close();
+		}
+		
+		server.close();
+	}
+	
+	/**
+	 * Runs numSenders threads running sender for runMillis
+	 * 
+	 * @return a line of results
+	 */
+	private static String run ( LineProtocolServer server, int numSenders, long runMillis, Runnable sender, String protocol )
+			throws InterruptedException
+	{
+		Thread[] threads = new Thread[ numSenders ];
+		for ( int i = 0; i < numSenders; ++i )
+		{
+			threads[i] = new Thread( sender );
+			threads[i].start();
+		}
+		
+		Thread.sleep( 200 );   // let the senders connect
+		
+		long start = server.getRecords();
+		
+		Thread.sleep( runMillis );
+		
+		long added = server.getRecords() - start;
+		
+		for ( Thread thread : threads )
+		{
+			thread.interrupt();
+			thread.join();
+		}
+		
+		return String.format( "%7d  %8s  %9d", numSenders, protocol, added * 1000 / runMillis );
+	}
+	
+	/**
+	 * @return about 64 KiB of records over NUM_ACTION_NAMES names, each ending in a newline
+	 */
+	private static byte[] records ()
+	{
+		StringBuilder records = new StringBuilder();
+		
+		for ( int i = 0; records.length() < 64 * 1024 - 64; ++i )
+		{
+			records.append( "/api/v1/endpoint" ).append( i & ( NUM_ACTION_NAMES - 1 ) ).append( ':' ).append( i % 1000 ).append( "|ms\n" );
+		}
+		
+		return records.toString().getBytes( StandardCharsets.UTF_8 );
+	}
+	
+	private static long usedHeap ()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		
+		System.gc();
+		
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,134 @@
+package jumpcloud;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares addAction(String, int) throughput without a write-ahead log and with one (see AddActionOptions.log), at 1,
+ * 4 and 16 ingesting threads: with a sync interval of 10 ms, where adds return once buffered, and with an interval of 0,
+ * where every add waits for the group commit that forces its action. Also reports the log bytes written per action and
+ * that replaying the log rebuilds the same stats.
+ * 
+ * The log is written to a temporary directory on the default file system, so the numbers depend on its device.
+ * 
+ * Usage: LogBenchmark [seconds per run] [batch size]
+ */
+public class LogBenchmark
+{
+	private static final int[] THREAD_COUNTS = { 1, 4, 16 };
+	
+	private static final long[] SYNC_INTERVALS = { -1, 10, 0 };   // -1: no log
+	
+	private static final int NUM_ACTION_NAMES = 1024;   // power of 2 so the name index can be masked
+	
+	
+	public static void main ( String[] args ) throws Exception
+	{
+		long runMillis = ( args.length > 0 ? Long.parseLong( args[0] ) : 2 ) * 1000;
+		int batchSize = args.length > 1 ? Integer.parseInt( args[1] ) : 4096;
+		Path directory = Files.createTempDirectory( "action-log" );
+		
+		final String[] names = new String[ NUM_ACTION_NAMES ];
+		for ( int i = 0; i < names.length; ++i )
+		{
+			names[i] = "/api/v1/endpoint" + i;
+		}
+		
+		run( directory, 10, batchSize, 4, names, 1000 );   // warm up
+		
+		System.out.println( "threads  sync interval (ms)   ops/s  log B/action  replay ok" );
+		
+		for ( int numThreads : THREAD_COUNTS )
+		{
+			for ( long syncIntervalMillis : SYNC_INTERVALS )
+			{
+				System.out.println( run( directory, syncIntervalMillis, batchSize, numThreads, names, runMillis ) );
+			}
+		}
+	}
+	
+	/**
+	 * Runs numThreads threads calling addAction for runMillis against a tracker logging with the given interval, or not
+	 * logging if it is negative
+	 * 
+	 * @return a line of results
+	 */
+	private static String run ( Path directory, long syncIntervalMillis, int batchSize, int numThreads, final String[] names,
+								final long runMillis ) throws Exception
+	{
+		Path file = directory.resolve( "actions.log" );
+		Files.deleteIfExists( file );
+		
+		AddActionOptions options = new AddActionOptions().concurrentMap( true );
+		if ( syncIntervalMillis >= 0 )
+		{
+			options.log( file, batchSize, syncIntervalMillis );
+		}
+		
+		final AddActionAssignment tracker = new AddActionAssignment( options );
+		final LongAdder ops = new LongAdder();
+		final CountDownLatch start = new CountDownLatch( 1 );
+		
+		Thread[] threads = new Thread[ numThreads ];
+		for ( int t = 0; t < numThreads; ++t )
+		{
+			final int offset = t * 31;
+			
+			threads[t] = new Thread( new Runnable () {
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch ( InterruptedException e )
+					{
+						return;
+					}
+					
+					long deadline = System.currentTimeMillis() + runMillis;
+					long count = 0;
+					
+					while ( System.currentTimeMillis() < deadline )
+					{
+						for ( int i = 0; i < 64; ++i, ++count )   // check the clock only every 64 calls
+						{
+							tracker.addAction( names[ (int) ( count + offset ) & ( NUM_ACTION_NAMES - 1 ) ], (int) count & 1023 );
+						}
+					}
+					
+					ops.add( count );
+				}
+			} );
+			threads[t].start();
+		}
+		
+		start.countDown();
+		
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+		
+		tracker.close();
+		
+		String bytesPerAction = "-";
+		String replayed = "-";
+		
+		if ( syncIntervalMillis >= 0 )
+		{
+			bytesPerAction = String.valueOf( Files.size( file ) / Math.max( 1, ops.sum() ) );
+			
+			AddActionAssignment replay = new AddActionAssignment( new AddActionOptions().log( file, batchSize, syncIntervalMillis ) );
+			replayed = String.valueOf( replay.getStatsAsMap().equals( tracker.getStatsAsMap() ) );
+			replay.close();
+		}
+		
+		Files.deleteIfExists( file );
+		
+		return String.format( "%7d  %18s  %7d  %12s  %9s", numThreads, syncIntervalMillis < 0 ? "no log" : String.valueOf( syncIntervalMillis ),
+								ops.sum() * 1000 / runMillis, bytesPerAction, replayed );
+	}
+}
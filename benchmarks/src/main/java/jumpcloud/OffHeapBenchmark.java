@@ -0,0 +1,138 @@
+package jumpcloud;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the memory per action and the garbage collection pauses of the on-heap map of AverageCalcData with the
+ * off-heap table (see AddActionOptions.offHeap), each holding the same number of distinct action names.
+ * 
+ * For each store: the heap retained and the direct memory used per action, measured after a full collection; the
+ * duration of a full collection with the store live; and the collection count and time while ingesting to existing
+ * actions through addAction(String), whose parsing garbage keeps the young collector busy.
+ * 
+ * Run each store in its own JVM for clean numbers, e.g. with -Xmx4g -XX:MaxDirectMemorySize=4g.
+ * 
+ * Usage: OffHeapBenchmark [number of action names] [seconds of ingestion] [heap|offheap|both]
+ */
+public class OffHeapBenchmark
+{
+	public static void main ( String[] args ) throws Exception
+	{
+		int numNames = args.length > 0 ? Integer.parseInt( args[0] ) : 2000000;
+		long ingestMillis = ( args.length > 1 ? Long.parseLong( args[1] ) : 5 ) * 1000;
+		String stores = args.length > 2 ? args[2] : "both";
+		
+		System.out.println( "store    actions  heap B/action  direct B/action  full GC (ms)  ingest ops/s  GCs  GC time (ms)" );
+		
+		if ( ! stores.equals( "offheap" ) )
+		{
+			run( false, numNames, ingestMillis );
+		}
+		if ( ! stores.equals( "heap" ) )
+		{
+			run( true, numNames, ingestMillis );
+		}
+	}
+	
+	private static void run ( boolean offHeap, int numNames, long ingestMillis )
+	{
+		long heapBefore = usedHeapAfterGc();
+		long directBefore = directMemoryUsed();
+		
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().offHeap( offHeap ) );
+		
+		for ( int i = 0; i < numNames; ++i )
+		{
+			tracker.addAction( name( i ), i & 1023 );
+		}
+		
+		long heapPerAction = ( usedHeapAfterGc() - heapBefore ) / numNames;
+		long directPerAction = ( directMemoryUsed() - directBefore ) / numNames;
+		
+		long fullGcStart = System.nanoTime();
+		System.gc();
+		long fullGcMillis = ( System.nanoTime() - fullGcStart ) / 1000000;
+		
+		long gcCountBefore = gcCount();
+		long gcMillisBefore = gcMillis();
+		long deadline = System.currentTimeMillis() + ingestMillis;
+		long ops = 0;
+		
+		while ( System.currentTimeMillis() < deadline )
+		{
+			for ( int i = 0; i < 1024; ++i, ++ops )   // check the clock only every 1024 calls
+			{
+				int n = (int) ( ( ops * 0x9E3779B97F4A7C15L ) >>> 33 ) % numNames;
+				tracker.addAction( "{\"action\":\"" + name( n ) + "\",\"time\":" + ( n & 1023 ) + "}" );
+			}
+		}
+		
+		System.out.printf( "%-7s  %7d  %13d  %15d  %12d  %12d  %3d  %12d%n",
+							offHeap ? "offheap" : "heap", numNames, heapPerAction, directPerAction, fullGcMillis,
+							ops * 1000 / ingestMillis, gcCount() - gcCountBefore, gcMillis() - gcMillisBefore );
+		
+		if ( tracker.getStatsAsMap().size() != numNames )   // also keeps tracker reachable until measured
+		{
+			throw new IllegalStateException( "lost actions" );
+		}
+	}
+	
+	/**
+	 * @return a name of the endpoint+tenant form with many distinct values
+	 */
+	private static String name ( int i )
+	{
+		return "/api/v1/endpoint" + ( i % 997 ) + "?tenant=" + i;
+	}
+	
+	private static long usedHeapAfterGc ()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		
+		for ( int i = 0; i < 3; ++i )
+		{
+			System.gc();
+		}
+		
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	private static long directMemoryUsed ()
+	{
+		for ( BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans( BufferPoolMXBean.class ) )
+		{
+			if ( pool.getName().equals( "direct" ) )
+			{
+				return pool.getMemoryUsed();
+			}
+		}
+		
+		return 0;
+	}
+	
+	private static long gcCount ()
+	{
+		long count = 0;
+		
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+		{
+			count += Math.max( 0, gc.getCollectionCount() );
+		}
+		
+		return count;
+	}
+	
+	private static long gcMillis ()
+	{
+		long millis = 0;
+		
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+		{
+			millis += Math.max( 0, gc.getCollectionTime() );
+		}
+		
+		return millis;
+	}
+}
@@ -0,0 +1,200 @@
+package jumpcloud;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load test of AddActionServer: for 1, 16, 64 and 256 concurrent clients, each sending POST /actions requests back to
+ * back, reports requests per second, actions per second and the 50th and 99th percentile request latency, first with a
+ * single action per request and then with batches of 100. Finally checks that GET /stats answers.
+ * 
+ * With no URL a server is started on a free local port in this process, so client and server share the machine and
+ * the numbers are a lower bound on what a dedicated server sustains. The local server keeps up to 10000 idle
+ * connections and sets TCP_NODELAY (see AddActionServer) unless the system properties say otherwise.
+ * 
+ * Usage: ServerLoadTest [seconds per run] [base URL, e.g. http://host:8080]
+ */
+public class ServerLoadTest
+{
+	private static final int[] CLIENT_COUNTS = { 1, 16, 64, 256 };
+	
+	private static final int[] BATCH_SIZES = { 1, 100 };
+	
+	private static final int NUM_ACTION_NAMES = 1024;   // power of 2 so the name index can be masked
+	
+	
+	public static void main ( String[] args ) throws Exception
+	{
+		long runMillis = ( args.length > 0 ? Long.parseLong( args[0] ) : 5 ) * 1000;
+		AddActionServer server = null;
+		String baseUrl;
+		
+		if ( args.length > 1 )
+		{
+			baseUrl = args[1];
+		}
+		else
+		{
+			if ( System.getProperty( "sun.net.httpserver.maxIdleConnections" ) == null )
+			{
+				System.setProperty( "sun.net.httpserver.maxIdleConnections", "10000" );
+			}
+			if ( System.getProperty( "sun.net.httpserver.nodelay" ) == null )
+			{
+				System.setProperty( "sun.net.httpserver.nodelay", "true" );
+			}
+			
+			server = new AddActionServer( new AddActionAssignment( new AddActionOptions().concurrentMap( true ) ),
+											new InetSocketAddress( "127.0.0.1", 0 ), 1024 );
+			server.start();
+			baseUrl = "http://127.0.0.1:" + server.getPort();
+			
+			System.out.println( "local server on " + ( server.isUsingVirtualThreads() ? "virtual threads" : "a cached thread pool" ) );
+		}
+		
+		HttpClient client = HttpClient.newBuilder().version( HttpClient.Version.HTTP_1_1 ).build();
+		URI actions = URI.create( baseUrl + AddActionServer.ACTIONS_PATH );
+		
+		run( client, actions, 4, 1, 1000 );   // warm up
+		
+		System.out.println( "clients  actions/request  requests/s  actions/s  p50 (ms)  p99 (ms)  errors" );
+		
+		for ( int batchSize : BATCH_SIZES )
+		{
+			for ( int numClients : CLIENT_COUNTS )
+			{
+				System.out.println( run( client, actions, numClients, batchSize, runMillis ) );
+			}
+		}
+		
+		HttpResponse<String> stats = client.send( HttpRequest.newBuilder( URI.create( baseUrl + AddActionServer.STATS_PATH ) ).build(),
+													HttpResponse.BodyHandlers.ofString() );
+		System.out.println( "GET " + AddActionServer.STATS_PATH + ": " + stats.statusCode() + ", " + stats.body().length() + " characters" );
+		
+		if ( server != null )
+		{
+			server.stop( 0 );
+		}
+	}
+	
+	/**
+	 * Runs numClients threads posting requests of batchSize actions for runMillis
+	 * 
+	 * @return a line of results
+	 */
+	private static String run ( final HttpClient client, final URI actions, int numClients, final int batchSize, final long runMillis )
+			throws Exception
+	{
+		final long[][] latencies = new long[ numClients ][];
+		final int[] counts = new int[ numClients ];
+		final int[] errors = new int[ numClients ];
+		final CountDownLatch start = new CountDownLatch( 1 );
+		
+		Thread[] threads = new Thread[ numClients ];
+		for ( int t = 0; t < numClients; ++t )
+		{
+			final int index = t;
+			
+			threads[t] = new Thread( new Runnable () {
+				public void run()
+				{
+					HttpRequest[] requests = new HttpRequest[ 16 ];   // a few distinct bodies, built before timing
+					for ( int r = 0; r < requests.length; ++r )
+					{
+						requests[r] = HttpRequest.newBuilder( actions )
+											.POST( HttpRequest.BodyPublishers.ofString( body( index * 31 + r * batchSize, batchSize ) ) )
+											.build();
+					}
+					
+					long[] nanos = new long[ 1024 ];
+					int count = 0;
+					
+					try
+					{
+						start.await();
+						
+						long deadline = System.currentTimeMillis() + runMillis;
+						
+						while ( System.currentTimeMillis() < deadline )
+						{
+							long begin = System.nanoTime();
+							HttpResponse<Void> response = client.send( requests[ count & ( requests.length - 1 ) ],
+																		HttpResponse.BodyHandlers.discarding() );
+							
+							if ( response.statusCode() != 204 )
+							{
+								++errors[index];
+							}
+							
+							if ( count == nanos.length )
+							{
+								nanos = Arrays.copyOf( nanos, count * 2 );
+							}
+							nanos[ count++ ] = System.nanoTime() - begin;
+						}
+					}
+					catch ( Exception e )
+					{
+						++errors[index];
+					}
+					
+					latencies[index] = nanos;
+					counts[index] = count;
+				}
+			} );
+			threads[t].start();
+		}
+		
+		start.countDown();
+		
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+		
+		int total = Arrays.stream( counts ).sum();
+		long[] all = new long[ total ];
+		
+		for ( int t = 0, pos = 0; t < numClients; pos += counts[t], ++t )
+		{
+			System.arraycopy( latencies[t], 0, all, pos, counts[t] );
+		}
+		
+		Arrays.sort( all );
+		
+		return String.format( "%7d  %15d  %10d  %9d  %8.2f  %8.2f  %6d", numClients, batchSize, total * 1000L / runMillis,
+								total * 1000L * batchSize / runMillis, percentile( all, 0.50 ), percentile( all, 0.99 ),
+								Arrays.stream( errors ).sum() );
+	}
+	
+	/**
+	 * @return a body of batchSize actions: a single JSON object, or a JSON array of them
+	 */
+	private static String body ( int first, int batchSize )
+	{
+		StringBuilder body = new StringBuilder();
+		
+		for ( int i = 0; i < batchSize; ++i )
+		{
+			body.append( i == 0 ? ( batchSize > 1 ? "[" : "" ) : "," );
+			body.append( "{\"action\":\"/api/v1/endpoint" ).append( ( first + i ) & ( NUM_ACTION_NAMES - 1 ) )
+				.append( "\",\"time\":" ).append( ( first + i ) % 1000 ).append( '}' );
+		}
+		
+		return body.append( batchSize > 1 ? "]" : "" ).toString();
+	}
+	
+	/**
+	 * @param sorted : latencies in nanoseconds, in ascending order
+	 * @return the latency at the given quantile, in milliseconds
+	 */
+	private static double percentile ( long[] sorted, double quantile )
+	{
+		return sorted.length == 0 ? 0 : sorted[ (int) Math.min( sorted.length - 1, (long) ( quantile * sorted.length ) ) ] / 1e6;
+	}
+}
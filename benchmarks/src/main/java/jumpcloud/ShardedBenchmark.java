@@ -0,0 +1,177 @@
+package jumpcloud;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Throughput of ShardedAddActionAssignment by shard count, against a single concurrent-map AddActionAssignment
+ * (shards = "single"); thread count is set with JMH's -t option (see BenchmarkSuite). "processors" is the default shard
+ * count, one per available processor.
+ * 
+ * addActionNameTime and addActionString add names that are all already known, measuring lookups; addNewActionName
+ * adds a name never seen before on every call, measuring inserts and the resizes they cause, against a tracker emptied
+ * at each iteration.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" } )
+@State( Scope.Benchmark )
+public class ShardedBenchmark
+{
+	/**
+	 * The number of distinct new names for addNewActionName; a power of 2 so a cursor can be masked
+	 */
+	private static final int NEW_NAMES = 1 << 21;
+	
+	@Param( { "single", "1", "4", "16", "processors" } )
+	public String shards;
+	
+	@Param( { "1000", "100000" } )
+	public int cardinality;
+	
+	private AddActionAssignment single;
+	private ShardedAddActionAssignment sharded;
+	
+	// indexed by position in the key sequence
+	private String[] names;
+	private int[] times;
+	private String[] jsonStrings;
+	
+	private String[] newNames;
+	
+	
+	@Setup( Level.Trial )
+	public void setup ()
+	{
+		String[] distinctNames = ActionKeys.names( this.cardinality );
+		int[] sequence = ActionKeys.sequence( this.cardinality, "uniform" );
+		
+		this.times = ActionKeys.times();
+		this.names = new String[ sequence.length ];
+		this.jsonStrings = new String[ sequence.length ];
+		
+		for ( int i = 0; i < sequence.length; ++i )
+		{
+			this.names[i] = distinctNames[ sequence[i] ];
+			this.jsonStrings[i] = "{'action':'" + this.names[i] + "', 'time':" + this.times[i] + "}";
+		}
+		
+		this.newNames = new String[ NEW_NAMES ];
+		for ( int i = 0; i < NEW_NAMES; ++i )
+		{
+			this.newNames[i] = "new-action-" + i;
+		}
+	}
+	
+	@Setup( Level.Iteration )
+	public void newTracker ()
+	{
+		if ( "single".equals( this.shards ) )
+		{
+			this.single = new AddActionAssignment( true );
+			this.sharded = null;
+		}
+		else
+		{
+			int count = "processors".equals( this.shards ) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt( this.shards );
+			
+			this.single = null;
+			this.sharded = new ShardedAddActionAssignment( new AddActionOptions().concurrentMap( true ), count );
+		}
+		
+		// every name is seen before measurement, so addActionNameTime measures the steady state of lookups
+		for ( String name : ActionKeys.names( this.cardinality ) )
+		{
+			this.addAction( name, 1 );
+		}
+	}
+	
+	/**
+	 * Each thread's position in the key sequences; threads start at different offsets so they do not move in lockstep,
+	 * and add disjoint new names
+	 */
+	@State( Scope.Thread )
+	public static class Cursor
+	{
+		private int next;
+		private int nextNew;
+		private int newStride;
+		
+		@Setup( Level.Trial )
+		public void setup ( ThreadParams threadParams )
+		{
+			this.next = threadParams.getThreadIndex() * 7919;
+			this.nextNew = threadParams.getThreadIndex();
+			this.newStride = threadParams.getThreadCount();
+		}
+		
+		int next ()
+		{
+			return this.next++ & ActionKeys.SEQUENCE_MASK;
+		}
+		
+		int nextNew ()
+		{
+			int next = this.nextNew & ( NEW_NAMES - 1 );
+			
+			this.nextNew += this.newStride;
+			return next;
+		}
+	}
+	
+	
+	@Benchmark
+	public void addActionNameTime ( Cursor cursor )
+	{
+		int i = cursor.next();
+		
+		this.addAction( this.names[i], this.times[i] );
+	}
+	
+	@Benchmark
+	public void addActionString ( Cursor cursor )
+	{
+		String json = this.jsonStrings[ cursor.next() ];
+		
+		if ( this.single != null )
+		{
+			this.single.addAction( json );
+		}
+		else
+		{
+			this.sharded.addAction( json );
+		}
+	}
+	
+	@Benchmark
+	public void addNewActionName ( Cursor cursor )
+	{
+		this.addAction( this.newNames[ cursor.nextNew() ], 1 );
+	}
+	
+	private void addAction ( String name, int time )
+	{
+		if ( this.single != null )
+		{
+			this.single.addAction( name, time );
+		}
+		else
+		{
+			this.sharded.addAction( name, time );
+		}
+	}
+}
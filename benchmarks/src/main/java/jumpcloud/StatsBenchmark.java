@@ -0,0 +1,115 @@
+package jumpcloud;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Average time of the stats read methods by map mode and number of actions held
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" } )
+@State( Scope.Benchmark )
+public class StatsBenchmark
+{
+	@Param( { "synchronized", "concurrent" } )
+	public String mode;
+	
+	@Param( { "1000", "100000" } )
+	public int cardinality;
+	
+	private AddActionAssignment tracker;
+	
+	
+	@Setup( Level.Trial )
+	public void setup ()
+	{
+		this.tracker = ActionKeys.tracker( this.mode );
+		
+		String[] names = ActionKeys.names( this.cardinality );
+		int[] times = ActionKeys.times();
+		
+		for ( int i = 0; i < names.length * 4; ++i )
+		{
+			this.tracker.addAction( names[ i % names.length ], times[ i & ActionKeys.SEQUENCE_MASK ] );
+		}
+	}
+	
+	
+	@Benchmark
+	public String getStats ()
+	{
+		return this.tracker.getStats();
+	}
+	
+	@Benchmark
+	public Map<String, Integer> getStatsAsMap ()
+	{
+		return this.tracker.getStatsAsMap();
+	}
+	
+	/**
+	 * The cached path with nothing changed between calls: the cost of revalidating and copying every action
+	 */
+	@Benchmark
+	public String getStatsCached ()
+	{
+		return this.tracker.getStats( 0 );
+	}
+	
+	@Benchmark
+	public void writeStats () throws IOException
+	{
+		this.tracker.writeStats( NullWriter.INSTANCE );
+	}
+	
+	
+	/**
+	 * Discards everything written, so writeStats is measured without the cost of a destination
+	 */
+	private static class NullWriter extends Writer
+	{
+		static final NullWriter INSTANCE = new NullWriter();
+		
+		@Override
+		public void write ( char[] chars, int offset, int length )
+		{
+		}
+		
+		@Override
+		public void write ( String str, int offset, int length )
+		{
+		}
+		
+		@Override
+		public void write ( int c )
+		{
+		}
+		
+		@Override
+		public void flush ()
+		{
+		}
+		
+		@Override
+		public void close ()
+		{
+		}
+	}
+}
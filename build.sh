@@ -1 +0,0 @@
-javac -cp lib/* -d bin src/jumpcloud/*
@@ -0,0 +1,136 @@
+package jumpcloud;
+
+import java.math.BigInteger;
+
+/**
+ * Demonstrates and checks AddActionAssignment, printing expected against actual output for each test.
+ * 
+ * Lives in the jumpcloud package so Test 4 can reach the package-private 128-bit division directly.
+ */
+public class AddActionAssignmentDemo
+{
+	/**
+	 * Main method for demo'ing/testing AddActionAssignment
+	 * 
+	 */
+	public static void main ( String[] args ) throws Exception
+	{
+		System.out.println( "* * * * * * * * * * * * * * * * * * * * * * * * ");
+		
+		AddActionAssignment test = new AddActionAssignment();
+		
+		// 1. basic test
+		test.addAction("{'action':'foo', 'time':10}");
+		test.addAction("{'action':'foo', 'time':20}");
+		
+		System.out.println( "Test 1" );
+		System.out.println( "expected output: [{'avg':15, 'action':'foo'}]");
+		System.out.println( "actual output: " + test.getStats() );
+		
+		System.out.println();
+		
+		// 2. larger test with two actions
+		test = new AddActionAssignment();
+		BigInteger foototal = BigInteger.valueOf( 0 );
+		BigInteger bartotal = BigInteger.valueOf( 0 );
+		int N = 1000;
+		for ( int i = 0; i < N; ++i )
+		{
+			int time = (int) (Math.random() * Integer.MAX_VALUE);
+			
+			String actionName = null;
+			if ( i % 2 == 0 )
+			{
+				actionName = "foo";
+				foototal = foototal.add( BigInteger.valueOf(time) );
+			}
+			else
+			{
+				actionName = "bar";
+				bartotal = bartotal.add( BigInteger.valueOf(time) );
+			}
+			
+			String json = "{'action':'" + actionName + "', 'time':" + time + "}";
+			
+			test.addAction( json );
+			
+		}
+		
+		int fooaverage = foototal.divide( BigInteger.valueOf( N / 2 ) ).intValue();
+		int baraverage = bartotal.divide( BigInteger.valueOf( N / 2 ) ).intValue();
+		
+		System.out.println( "Test 2" );
+		System.out.println( "expected output: [{'avg':" + baraverage + ", 'action':'bar'}, {'avg':" + fooaverage + ", 'action':'foo'}]");
+		System.out.println( "actual output: " + test.getStats() );
+
+		System.out.println();
+		
+		// 3. multithreaded test with two actions
+		final AddActionAssignment mttest = new AddActionAssignment();
+		N = 10000;
+		foototal = BigInteger.valueOf( 0 );
+		bartotal = BigInteger.valueOf( 0 );
+		int numThreads = 100;
+		java.util.concurrent.ScheduledThreadPoolExecutor executor = 
+				new java.util.concurrent.ScheduledThreadPoolExecutor( numThreads ); 
+		for ( int i = 0; i < N; ++i )
+		{
+			int time = (int) (Math.random() * Integer.MAX_VALUE);
+			
+			String action = null;
+			if ( i % 2 == 0 )
+			{
+				action = "foo";
+				foototal = foototal.add( BigInteger.valueOf(time) );
+			}
+			else
+			{
+				action = "bar";
+				bartotal = bartotal.add( BigInteger.valueOf(time) );
+			}
+			
+			String json = "{'action':'" + action + "', 'time':" + time + "}";
+			executor.execute( 
+								new Runnable () {
+									public void run() { mttest.addAction( json ); }
+								}
+					 ); 
+		}
+		
+		executor.shutdown();
+		executor.awaitTermination( 10, java.util.concurrent.TimeUnit.SECONDS);
+		
+		fooaverage = foototal.divide( BigInteger.valueOf( N / 2 ) ).intValue();
+		baraverage = bartotal.divide( BigInteger.valueOf( N / 2 ) ).intValue();
+		
+		System.out.println( "Test 3" );
+		System.out.println( "expected output: [{'avg':" + baraverage + ", 'action':'bar'}, {'avg':" + fooaverage + ", 'action':'foo'}]");
+		System.out.println( "actual output: " + mttest.getStats() );
+
+		System.out.println();
+		
+		// 4. 128-bit total division against BigInteger, for totals beyond Long.MAX_VALUE
+		int mismatches = 0;
+		java.util.Random random = new java.util.Random();
+		for ( int i = 0; i < 100000; ++i )
+		{
+			long count = 1 + ( random.nextLong() >>> 1 ) % ( 1L << 40 );
+			BigInteger total = BigInteger.valueOf( count ).multiply( BigInteger.valueOf( random.nextInt() ) )
+									.add( BigInteger.valueOf( random.nextLong() ).mod( BigInteger.valueOf( count ) ) );
+			
+			long actual = AverageCalcData.divide( total.shiftRight( 64 ).longValue(), total.longValue(), count );
+			
+			if ( actual != total.divide( BigInteger.valueOf( count ) ).longValue() )
+			{
+				++mismatches;
+			}
+		}
+		
+		System.out.println( "Test 4" );
+		System.out.println( "expected mismatches: 0" );
+		System.out.println( "actual mismatches: " + mismatches );
+		
+		System.out.println();
+	}
+	
+}
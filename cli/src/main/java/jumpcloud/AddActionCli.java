@@ -0,0 +1,48 @@
+package jumpcloud;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Command line entry point: reads actions as line-delimited JSON (NDJSON), one object per line as for 
+ * AddActionAssignment.addAction(String), from the named files or else from standard input, and writes the average 
+ * time of each action to standard output in the same JSON format as AddActionAssignment.getStats().
+ * 
+ * Usage: AddActionCli [--demo | file ...]
+ * 	--demo : runs AddActionAssignmentDemo instead
+ */
+public class AddActionCli
+{
+	public static void main ( String[] args ) throws Exception
+	{
+		if ( args.length == 1 && "--demo".equals( args[0] ) )
+		{
+			AddActionAssignmentDemo.main( new String[0] );
+			return;
+		}
+		
+		AddActionAssignment tracker = new AddActionAssignment( true );
+		
+		if ( args.length == 0 )
+		{
+			tracker.addActions( System.in );
+		}
+		
+		for ( String fileName : args )
+		{
+			try ( InputStream in = new FileInputStream( fileName ) )
+			{
+				tracker.addActions( in );
+			}
+			catch ( IOException e )
+			{
+				System.err.println( "cannot read " + fileName + ": " + e.getMessage() );
+				System.exit( 1 );
+			}
+		}
+		
+		tracker.writeStats( System.out );
+		System.out.println();
+	}
+}
@@ -0,0 +1,63 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AddActionCliTest
+{
+	@Test
+	void averagesActionsFromFiles ( @TempDir Path directory ) throws Exception
+	{
+		Path first = Files.write( directory.resolve( "first.ndjson" ),
+									"{\"action\":\"foo\",\"time\":10}\n{\"action\":\"bar\",\"time\":1}\n".getBytes( StandardCharsets.UTF_8 ) );
+		Path second = Files.write( directory.resolve( "second.ndjson" ),
+									"{\"action\":\"foo\",\"time\":20}\n".getBytes( StandardCharsets.UTF_8 ) );
+		
+		JSONArray stats = new JSONArray( run( first.toString(), second.toString() ) );
+		AddActionAssignment expected = new AddActionAssignment();
+		
+		expected.addAction( "foo", 10 );
+		expected.addAction( "bar", 1 );
+		expected.addAction( "foo", 20 );
+		
+		assertTrue( expected.getStatsAsJSONArray().similar( stats ), stats.toString() );
+	}
+	
+	@Test
+	void demoRuns () throws Exception
+	{
+		String output = run( "--demo" );
+		
+		assertTrue( output.contains( "actual mismatches: 0" ), output );
+	}
+	
+	/**
+	 * @return what AddActionCli.main writes to standard output given args
+	 */
+	private static String run ( String... args ) throws Exception
+	{
+		PrintStream out = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		
+		System.setOut( new PrintStream( captured, true, "UTF-8" ) );
+		
+		try
+		{
+			AddActionCli.main( args );
+		}
+		finally
+		{
+			System.setOut( out );
+		}
+		
+		return captured.toString( "UTF-8" );
+	}
+}
@@ -0,0 +1,249 @@
+package jumpcloud;
+
+import java.util.Arrays;
+
+/**
+ * Used internally by AddActionAssignment's batch methods to total a batch of actions locally, per action name, 
+ * so that the batch is merged into the shared action data once per distinct name rather than once per action.
+ * 
+ * Action names are resolved to ids in a dictionary of the batch's own, so a name parsed from the input is totalled 
+ * without a String being created for it; the names are kept between merges, as a stream tends to repeat them. The
+ * consumers of async mode and the thread-local buffers instead use the tracker's dictionary, whose ids they are given,
+ * so the totals are kept in a small hash table by id rather than an array indexed by it.
+ * 
+ * Not thread-safe; an instance belongs to the thread adding the batch.
+ */
+class ActionBatch
+{
+	/**
+	 * The number of actions after which add reports the batch as full, so an unbounded stream is merged in parts;
+	 * small enough that a total of int times cannot overflow a long
+	 */
+	static final int MAX_ACTIONS = 1 << 16;
+	
+	private static final int INITIAL_SLOTS = 64;   // a power of 2
+	private static final int SHRINK_AFTER_MERGES = 64;
+	
+	/**
+	 * The ids of the action names in the batch
+	 */
+	private final ActionDictionary names;
+	
+	/**
+	 * The total time and count of each action within the batch, in an open-addressing (linear probing) hash table keyed
+	 * by id, so its size follows the number of distinct actions in a batch rather than the number of ids in the
+	 * dictionary, which may be shared with the tracker and every other batch. ids[slot] is -1 for an empty slot.
+	 */
+	private int[] ids = newIds( INITIAL_SLOTS );
+	private long[] totals = new long[ INITIAL_SLOTS ];
+	private long[] counts = new long[ INITIAL_SLOTS ];
+	private int[][] times;   // the first count entries are the time of each action, if keepTimes
+	
+	/**
+	 * The slots in use since the last merge, in the order their ids were first added, in [0, addedCount); only these
+	 * are cleared by a merge
+	 */
+	private int[] added = new int[ INITIAL_SLOTS ];
+	private int addedCount;
+	
+	/**
+	 * The number of merges in a row that used under 1/16 of the table
+	 */
+	private int oversizedMerges;
+	
+	/**
+	 * The number of actions added since the last merge
+	 */
+	private int size;
+	
+	/**
+	 * true if the time of every action is kept, for the tracker's histograms
+	 */
+	private final boolean keepTimes;
+	
+	
+	/**
+	 * @param keepTimes : true to keep the time of every action as well as the totals, as needed when the tracker 
+	 * 					has histograms enabled
+	 */
+	ActionBatch ( boolean keepTimes )
+	{
+		this( keepTimes, new ActionDictionary() );
+	}
+	
+	/**
+	 * @param keepTimes : as for ActionBatch(boolean)
+	 * @param names : the dictionary the ids passed to add(int, int) are in
+	 */
+	ActionBatch ( boolean keepTimes, ActionDictionary names )
+	{
+		this.keepTimes = keepTimes;
+		this.names = names;
+		this.times = keepTimes ? new int[ INITIAL_SLOTS ][] : null;
+	}
+	
+	
+	/**
+	 * @param actionName : a non-null name for the action
+	 * @param time : the amount of time the action took
+	 * @return true if the batch is full and should be merged
+	 */
+	boolean add ( String actionName, int time )
+	{
+		return this.add( this.names.getId( actionName, 0, actionName.length() ), time );
+	}
+	
+	/**
+	 * @param parser : a parser whose last parse succeeded
+	 * @return true if the batch is full and should be merged
+	 */
+	boolean add ( ActionJsonParser parser )
+	{
+		return this.add( parser.getActionId( this.names ), parser.time );
+	}
+	
+	/**
+	 * @param id : the id of the action name in the batch's dictionary
+	 * @param time : the amount of time the action took
+	 * @return true if the batch is full and should be merged
+	 */
+	boolean add ( int id, int time )
+	{
+		int slot = this.slot( id );
+		
+		if ( this.ids[ slot ] != id )
+		{
+			if ( ( this.addedCount + 1 ) * 4 > this.ids.length * 3 )   // keep the table at most 3/4 full
+			{
+				this.rehash( this.ids.length * 2 );
+				slot = this.slot( id );
+			}
+			
+			this.ids[ slot ] = id;
+			
+			if ( this.addedCount == this.added.length )
+			{
+				this.added = Arrays.copyOf( this.added, this.added.length * 2 );
+			}
+			this.added[ this.addedCount++ ] = slot;
+		}
+		
+		if ( this.keepTimes )
+		{
+			int[] times = this.times[ slot ];
+			int count = (int) this.counts[ slot ];
+			
+			if ( times == null || count == times.length )
+			{
+				times = times == null ? new int[ 8 ] : Arrays.copyOf( times, times.length * 2 );
+				this.times[ slot ] = times;
+			}
+			times[ count ] = time;
+		}
+		
+		this.totals[ slot ] += time;
+		++this.counts[ slot ];
+		
+		return ++this.size >= MAX_ACTIONS;
+	}
+	
+	/**
+	 * @return the number of actions added since the last merge
+	 */
+	int size ()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Adds the batch's totals to the given tracker and empties the batch, clearing only the slots it used
+	 */
+	void mergeInto ( AddActionAssignment tracker )
+	{
+		for ( int i = 0; i < this.addedCount; ++i )
+		{
+			int slot = this.added[i];
+			
+			tracker.addToTotal( this.names.getNameBytes( this.ids[ slot ] ), this.totals[ slot ], this.counts[ slot ],
+								this.keepTimes ? this.times[ slot ] : null );
+			
+			this.ids[ slot ] = -1;
+			this.totals[ slot ] = 0;
+			this.counts[ slot ] = 0;
+		}
+		
+		// a burst of distinct actions leaves a large table; give it back once batches have long stopped needing it
+		this.oversizedMerges = this.ids.length > INITIAL_SLOTS && this.addedCount * 16 < this.ids.length ? this.oversizedMerges + 1 : 0;
+		
+		if ( this.oversizedMerges >= SHRINK_AFTER_MERGES )
+		{
+			this.oversizedMerges = 0;
+			this.ids = newIds( INITIAL_SLOTS );
+			this.totals = new long[ INITIAL_SLOTS ];
+			this.counts = new long[ INITIAL_SLOTS ];
+			this.times = this.keepTimes ? new int[ INITIAL_SLOTS ][] : null;
+			this.added = new int[ INITIAL_SLOTS ];
+		}
+		
+		this.addedCount = 0;
+		this.size = 0;
+	}
+	
+	/**
+	 * @return the slot holding id, or the empty slot it would be inserted at
+	 */
+	private int slot ( int id )
+	{
+		int mask = this.ids.length - 1;
+		int hash = id * 0x9E3779B9;   // ids are dense, so spread them over the table
+		int slot = ( hash ^ ( hash >>> 16 ) ) & mask;
+		
+		while ( this.ids[ slot ] != id && this.ids[ slot ] != -1 )
+		{
+			slot = ( slot + 1 ) & mask;
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * Moves every slot in use into a table of the given number of slots, a power of 2
+	 */
+	private void rehash ( int capacity )
+	{
+		int[] ids = this.ids;
+		long[] totals = this.totals;
+		long[] counts = this.counts;
+		int[][] times = this.times;
+		
+		this.ids = newIds( capacity );
+		this.totals = new long[ capacity ];
+		this.counts = new long[ capacity ];
+		this.times = this.keepTimes ? new int[ capacity ][] : null;
+		
+		for ( int i = 0; i < this.addedCount; ++i )
+		{
+			int old = this.added[i];
+			int slot = this.slot( ids[ old ] );
+			
+			this.ids[ slot ] = ids[ old ];
+			this.totals[ slot ] = totals[ old ];
+			this.counts[ slot ] = counts[ old ];
+			
+			if ( this.keepTimes )
+			{
+				this.times[ slot ] = times[ old ];
+			}
+			
+			this.added[i] = slot;
+		}
+	}
+	
+	private static int[] newIds ( int capacity )
+	{
+		int[] ids = new int[ capacity ];
+		
+		Arrays.fill( ids, -1 );
+		return ids;
+	}
+}
@@ -0,0 +1,196 @@
+package jumpcloud;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Used internally by AddActionAssignment when thread-local buffers are enabled (see AddActionOptions.threadLocalBuffers):
+ * a buffer per thread adding actions, totalling them per action until they are added to the tracker.
+ * 
+ * Each buffer is an ActionBatch over the tracker's dictionary, so a buffered action is a probe of a small hash table
+ * keyed by the action's id and two additions to fields only its own thread writes between flushes; the shared action
+ * data is updated once per distinct action when the buffer is merged. The table holds only the actions buffered since
+ * the last merge, at most maxActions of them, so the buffers take memory in proportion to the threads and the actions
+ * each adds between merges, not to every action name the tracker has seen. A buffer is guarded by its own monitor,
+ * which only its thread takes as it adds, so the lock stays in that thread's cache; other threads take it only to merge
+ * the buffer, when a read needs every action added so far or when the buffer has held actions for longer than the
+ * maximum age.
+ * 
+ * Every buffer is also registered here, so a buffer outlives its thread: the flusher thread merges, then forgets, the
+ * buffer of a thread that has died, and every read merges it before then, so no action is lost.
+ */
+class ActionBuffers
+{
+	private final AddActionAssignment tracker;
+	private final ActionDictionary dictionary;
+	private final boolean histograms;
+	private final int maxActions;
+	private final long maxAgeNanos;
+	
+	/**
+	 * Each thread's buffer for this tracker
+	 */
+	private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial( this::newBuffer );
+	
+	/**
+	 * Every buffer whose thread was alive at the last flush, or created since
+	 */
+	private final Set<Buffer> registered = ConcurrentHashMap.newKeySet();
+	
+	private final Thread flusher;
+	private volatile boolean closed;
+	
+	
+	/**
+	 * Starts the flusher thread
+	 * 
+	 * @param maxActions : the number of actions at which a buffer is merged, at most ActionBatch.MAX_ACTIONS
+	 * @param maxAgeMillis : the positive number of milliseconds after which the flusher merges a buffer holding actions
+	 * @param tracker : the tracker to merge buffers into
+	 * @param dictionary : the tracker's dictionary, which buffered actions' ids are in
+	 * @param histograms : true if the tracker has histograms, so every time must be kept
+	 */
+	ActionBuffers ( int maxActions, long maxAgeMillis, AddActionAssignment tracker, ActionDictionary dictionary, boolean histograms )
+	{
+		this.tracker = tracker;
+		this.dictionary = dictionary;
+		this.histograms = histograms;
+		this.maxActions = maxActions;
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos( maxAgeMillis );
+		
+		this.flusher = new Thread( this::flushAged, "action-buffer-flusher" );
+		this.flusher.setDaemon( true );
+		this.flusher.start();
+	}
+	
+	/**
+	 * Buffers an action in the calling thread's buffer, merging the buffer if it is full
+	 * 
+	 * @param actionId : the action name's id in the tracker's dictionary
+	 * @param time : the amount of time the action took
+	 */
+	void add ( int actionId, int time )
+	{
+		Buffer buffer = this.buffers.get();
+		
+		synchronized ( buffer )
+		{
+			if ( buffer.batch.size() == 0 )
+			{
+				buffer.firstAddNanos = System.nanoTime();
+			}
+			
+			if ( buffer.batch.add( actionId, time ) || buffer.batch.size() >= this.maxActions )
+			{
+				buffer.batch.mergeInto( this.tracker );
+			}
+		}
+	}
+	
+	/**
+	 * Merges every buffer, so that stats read afterwards include every action buffered before the call, and forgets the
+	 * buffers of threads that have died
+	 */
+	void flush ()
+	{
+		this.flush( false );
+	}
+	
+	/**
+	 * Stops the flusher thread, then merges every buffer
+	 */
+	void close ()
+	{
+		this.closed = true;
+		LockSupport.unpark( this.flusher );
+		
+		try
+		{
+			this.flusher.join();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		this.flush();
+	}
+	
+	/**
+	 * Merges each buffer holding actions, or if agedOnly only those holding actions for at least the maximum age or whose
+	 * thread has died, and forgets the buffers of threads that have died
+	 */
+	private void flush ( boolean agedOnly )
+	{
+		long now = System.nanoTime();
+		
+		for ( Iterator<Buffer> i = this.registered.iterator(); i.hasNext(); )
+		{
+			Buffer buffer = i.next();
+			boolean dead = ! buffer.owner.isAlive();   // read first: a thread that has died adds nothing after it is seen dead
+			
+			synchronized ( buffer )
+			{
+				if ( buffer.batch.size() > 0 && ( ! agedOnly || dead || now - buffer.firstAddNanos >= this.maxAgeNanos ) )
+				{
+					buffer.batch.mergeInto( this.tracker );
+				}
+			}
+			
+			if ( dead )
+			{
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * The flusher thread: every half of the maximum age, merges the buffers holding actions for longer than it, until
+	 * closed
+	 */
+	private void flushAged ()
+	{
+		while ( ! this.closed )
+		{
+			LockSupport.parkNanos( Math.max( 1, this.maxAgeNanos / 2 ) );
+			
+			if ( ! this.closed )
+			{
+				this.flush( true );
+			}
+		}
+	}
+	
+	private Buffer newBuffer ()
+	{
+		Buffer buffer = new Buffer( new ActionBatch( this.histograms, this.dictionary ), Thread.currentThread() );
+		
+		this.registered.add( buffer );
+		return buffer;
+	}
+	
+	
+	/**
+	 * One thread's buffered actions
+	 */
+	private static final class Buffer
+	{
+		final ActionBatch batch;
+		final Thread owner;
+		
+		/**
+		 * The time of the first action added since the buffer was last merged
+		 */
+		long firstAddNanos;
+		
+		
+		Buffer ( ActionBatch batch, Thread owner )
+		{
+			this.batch = batch;
+			this.owner = owner;
+		}
+	}
+}
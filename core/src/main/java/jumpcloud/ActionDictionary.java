@@ -0,0 +1,219 @@
+package jumpcloud;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Used internally by AddActionAssignment to encode action names as dense int ids, 0 for the first name seen, 1 for the
+ * next and so on, so an action can be looked up by an array index rather than by hashing a String.
+ * 
+ * Names are held as their UTF-8 bytes and are looked up by bytes (or by chars, encoded without allocating), so an action
+ * name read from a network buffer or JSON input is resolved to its id without a String being created; a String is only
+ * decoded from the bytes when a name is reported.
+ * 
+ * The ids are kept in an open-addressing (linear probing) hash table of id + 1, 0 meaning empty. Lookups take no lock:
+ * a new id is published by the release write of its slot, after its name and hash. Adding a name takes the instance's
+ * monitor. Ids are never removed.
+ */
+class ActionDictionary
+{
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle( int[].class );
+	
+	/**
+	 * Per-thread buffer chars are encoded into for lookup
+	 */
+	private static final ThreadLocal<byte[]> NAME_BYTES = ThreadLocal.withInitial( () -> new byte[ 256 ] );
+	
+	
+	/**
+	 * The hash table, a power of 2 in length; replaced by one twice as long when it would be over half full
+	 */
+	private volatile int[] slots = new int[ 64 ];
+	
+	/**
+	 * The UTF-8 bytes and hash of each name, by id; replaced by longer copies as ids are added
+	 */
+	private volatile byte[][] names = new byte[ 32 ][];
+	private volatile int[] hashes = new int[ 32 ];
+	
+	/**
+	 * The number of ids; guarded by the monitor
+	 */
+	private int size;
+	
+	
+	/**
+	 * Returns the id of the name with the given UTF-8 bytes, adding it if this is the first time it has been seen
+	 * 
+	 * @param bytes : a non-null array containing the name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 */
+	int getId ( byte[] bytes, int offset, int length )
+	{
+		int hash = OffHeapActionTable.hash( bytes, offset, length );
+		int id = this.find( this.slots, hash, bytes, offset, length );
+		
+		return id >= 0 ? id : this.add( hash, bytes, offset, length );
+	}
+	
+	/**
+	 * Returns the id of the name with the given chars, as for getId(byte[], int, int)
+	 * 
+	 * @param chars : a non-null CharSequence containing the name
+	 * @param start : the index of the first char of the name
+	 * @param end : the index after the last char of the name
+	 */
+	int getId ( CharSequence chars, int start, int end )
+	{
+		byte[] bytes = NAME_BYTES.get();
+		
+		if ( bytes.length < ( end - start ) * 3 )   // no char encodes to more than 3 bytes
+		{
+			bytes = new byte[ ( end - start ) * 3 ];
+			NAME_BYTES.set( bytes );
+		}
+		
+		return this.getId( bytes, 0, OffHeapActionTable.encode( chars, start, end, bytes ) );
+	}
+	
+	/**
+	 * @param id : an id returned by getId
+	 * @return the name with the given id
+	 * @throws IllegalArgumentException if no name has the id
+	 */
+	String getName ( int id )
+	{
+		return new String( this.getNameBytes( id ), StandardCharsets.UTF_8 );
+	}
+	
+	/**
+	 * @param id : an id returned by getId
+	 * @return the UTF-8 bytes of the name with the given id, which must not be changed
+	 * @throws IllegalArgumentException if no name has the id
+	 */
+	byte[] getNameBytes ( int id )
+	{
+		byte[][] names = this.names;
+		byte[] name = id >= 0 && id < names.length ? names[ id ] : null;
+		
+		if ( name == null )
+		{
+			throw new IllegalArgumentException( "no action name has the id " + id );
+		}
+		
+		return name;
+	}
+	
+	/**
+	 * @param id : an id returned by getId
+	 * @throws IllegalArgumentException if no name has the id
+	 */
+	void checkId ( int id )
+	{
+		this.getNameBytes( id );
+	}
+	
+	/**
+	 * @return the id of the name with the given bytes in the given table, or -1 if it is not there
+	 */
+	private int find ( int[] slots, int hash, byte[] bytes, int offset, int length )
+	{
+		int mask = slots.length - 1;
+		
+		for ( int i = hash & mask; ; i = ( i + 1 ) & mask )
+		{
+			int slot = (int) SLOTS.getAcquire( slots, i );
+			
+			if ( slot == 0 )
+			{
+				return -1;
+			}
+			
+			int id = slot - 1;
+			
+			// read after the slot, so they are at least as new as when it was published
+			if ( this.hashes[ id ] == hash )
+			{
+				byte[] name = this.names[ id ];
+				
+				if ( Arrays.equals( name, 0, name.length, bytes, offset, offset + length ) )
+				{
+					return id;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the id of the given name, added unless another thread added it first
+	 */
+	private synchronized int add ( int hash, byte[] bytes, int offset, int length )
+	{
+		int id = this.find( this.slots, hash, bytes, offset, length );
+		
+		if ( id >= 0 )
+		{
+			return id;
+		}
+		
+		id = this.size;
+		
+		if ( id == this.names.length )
+		{
+			byte[][] names = Arrays.copyOf( this.names, id * 2 );
+			int[] hashes = Arrays.copyOf( this.hashes, id * 2 );
+			
+			names[ id ] = Arrays.copyOfRange( bytes, offset, offset + length );
+			hashes[ id ] = hash;
+			this.hashes = hashes;
+			this.names = names;
+		}
+		else
+		{
+			this.names[ id ] = Arrays.copyOfRange( bytes, offset, offset + length );
+			this.hashes[ id ] = hash;
+		}
+		
+		if ( ( id + 1 ) * 2 > this.slots.length )
+		{
+			this.slots = this.rehash( this.slots.length * 2, id );
+		}
+		
+		int[] slots = this.slots;
+		int i = hash & ( slots.length - 1 );
+		
+		while ( slots[i] != 0 )
+		{
+			i = ( i + 1 ) & ( slots.length - 1 );
+		}
+		
+		SLOTS.setRelease( slots, i, id + 1 );   // publishes the id, after its name and hash
+		++this.size;
+		
+		return id;
+	}
+	
+	/**
+	 * @return a new table of the given length holding ids [0, count)
+	 */
+	private int[] rehash ( int length, int count )
+	{
+		int[] slots = new int[ length ];
+		
+		for ( int id = 0; id < count; ++id )
+		{
+			int i = this.hashes[ id ] & ( length - 1 );
+			
+			while ( slots[i] != 0 )
+			{
+				i = ( i + 1 ) & ( length - 1 );
+			}
+			slots[i] = id + 1;
+		}
+		
+		return slots;   // published by the volatile write of slots
+	}
+}
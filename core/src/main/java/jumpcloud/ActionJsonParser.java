@@ -0,0 +1,481 @@
+package jumpcloud;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Used internally by AddActionAssignment to pull the ACTION_NAME_JSON_FLD and TIME_JSON_FLD fields out of a single
+ * JSON object by scanning it in place, without building a JSONObject.
+ * 
+ * Input may be a String or UTF-8 bytes in a byte[] or ByteBuffer; all JSON structure is ASCII, and UTF-8 multi-byte 
+ * sequences never contain ASCII bytes, so bytes are scanned as though they were chars. Strings may be in double or
+ * single quotes, as org.json accepts.
+ * 
+ * Only the common shape of an action is handled: quoted keys, an unescaped string action name and an integer time
+ * in int range; other fields may hold any value and are skipped. For anything else parse returns false and the caller 
+ * falls back to org.json, which either handles it exactly as before or throws its usual JSONException.
+ * 
+ * An instance holds the result of its last parse, so it is reused by one thread at a time and allocates nothing.
+ */
+class ActionJsonParser
+{
+	private static final String ACTION_NAME = AddActionAssignment.ACTION_NAME_JSON_FLD;
+	private static final String TIME = AddActionAssignment.TIME_JSON_FLD;
+	
+	/**
+	 * The input of the current parse; exactly one is non-null
+	 */
+	private CharSequence chars;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+	
+	/**
+	 * The end (exclusive) of the input and the current scan position
+	 */
+	private int end;
+	private int pos;
+	
+	/**
+	 * The result of the last successful parse: the span of the action name within the input, and the time
+	 */
+	int nameStart;
+	int nameEnd;
+	int time;
+	
+	/**
+	 * Scratch space for copying an action name out of a direct ByteBuffer
+	 */
+	private byte[] nameBytes = new byte[ 64 ];
+	
+	
+	/**
+	 * @param json : a non-null JSON object
+	 * @return true if json was parsed, else the caller must fall back to org.json
+	 */
+	boolean parse ( CharSequence json )
+	{
+		this.chars = json;
+		this.bytes = null;
+		this.buffer = null;
+		
+		return this.parse( 0, json.length() );
+	}
+	
+	/**
+	 * @param json : a non-null array containing a JSON object in UTF-8
+	 * @param offset : the index of the first byte of the JSON object
+	 * @param length : the number of bytes of the JSON object
+	 * @return true if json was parsed, else the caller must fall back to org.json
+	 */
+	boolean parse ( byte[] json, int offset, int length )
+	{
+		this.chars = null;
+		this.bytes = json;
+		this.buffer = null;
+		
+		return this.parse( offset, offset + length );
+	}
+	
+	/**
+	 * @param json : a non-null buffer containing a JSON object in UTF-8, before its limit; its position is not used and
+	 * 				neither is changed
+	 * @param offset : the absolute index of the first byte of the JSON object
+	 * @param length : the number of bytes of the JSON object
+	 * @return true if json was parsed, else the caller must fall back to org.json
+	 */
+	boolean parse ( ByteBuffer json, int offset, int length )
+	{
+		this.chars = null;
+		this.bytes = null;
+		this.buffer = json;
+		
+		return this.parse( offset, offset + length );
+	}
+	
+	/**
+	 * @return the action name found by the last successful parse
+	 */
+	String getActionName ()
+	{
+		int length = this.nameEnd - this.nameStart;
+		
+		if ( this.chars != null )
+		{
+			return this.chars.subSequence( this.nameStart, this.nameEnd ).toString();
+		}
+		
+		if ( this.bytes != null )
+		{
+			return new String( this.bytes, this.nameStart, length, StandardCharsets.UTF_8 );
+		}
+		
+		if ( this.buffer.hasArray() )
+		{
+			return new String( this.buffer.array(), this.buffer.arrayOffset() + this.nameStart, length, StandardCharsets.UTF_8 );
+		}
+		
+		return new String( this.copyActionName(), 0, length, StandardCharsets.UTF_8 );
+	}
+	
+	/**
+	 * Resolves the action name found by the last successful parse to its id, without creating a String
+	 * 
+	 * @param dictionary : the non-null dictionary to look the name up in, or add it to
+	 * @return the action name's id in dictionary
+	 */
+	int getActionId ( ActionDictionary dictionary )
+	{
+		int length = this.nameEnd - this.nameStart;
+		
+		if ( this.chars != null )
+		{
+			return dictionary.getId( this.chars, this.nameStart, this.nameEnd );
+		}
+		
+		if ( this.bytes != null )
+		{
+			return dictionary.getId( this.bytes, this.nameStart, length );
+		}
+		
+		if ( this.buffer.hasArray() )
+		{
+			return dictionary.getId( this.buffer.array(), this.buffer.arrayOffset() + this.nameStart, length );
+		}
+		
+		return dictionary.getId( this.copyActionName(), 0, length );
+	}
+	
+	/**
+	 * @return ShardedAddActionAssignment.hash of the action name found by the last successful parse, computed without
+	 * 			creating a String
+	 */
+	int hashActionName ()
+	{
+		int length = this.nameEnd - this.nameStart;
+		
+		if ( this.chars != null )
+		{
+			return ShardedAddActionAssignment.hash( this.chars, this.nameStart, this.nameEnd );
+		}
+		
+		if ( this.bytes != null )
+		{
+			return ShardedAddActionAssignment.hash( this.bytes, this.nameStart, length );
+		}
+		
+		if ( this.buffer.hasArray() )
+		{
+			return ShardedAddActionAssignment.hash( this.buffer.array(), this.buffer.arrayOffset() + this.nameStart, length );
+		}
+		
+		return ShardedAddActionAssignment.hash( this.copyActionName(), 0, length );
+	}
+	
+	/**
+	 * @return nameBytes, holding from index 0 the action name copied out of a buffer without an array
+	 */
+	private byte[] copyActionName ()
+	{
+		int length = this.nameEnd - this.nameStart;
+		
+		if ( this.nameBytes.length < length )
+		{
+			this.nameBytes = new byte[ Math.max( length, this.nameBytes.length * 2 ) ];
+		}
+		
+		for ( int i = 0; i < length; ++i )
+		{
+			this.nameBytes[i] = this.buffer.get( this.nameStart + i );
+		}
+		
+		return this.nameBytes;
+	}
+	
+	/**
+	 * Releases the input of the last parse so it is not kept reachable by a reused parser
+	 */
+	void clear ()
+	{
+		this.chars = null;
+		this.bytes = null;
+		this.buffer = null;
+	}
+	
+	
+	private boolean parse ( int start, int end )
+	{
+		this.end = end;
+		this.pos = start;
+		
+		boolean haveName = false;
+		boolean haveTime = false;
+		
+		if ( this.skipWhitespace() != '{' )
+		{
+			return false;
+		}
+		++this.pos;
+		
+		if ( this.skipWhitespace() == '}' )
+		{
+			return false;  // neither field present
+		}
+		
+		while ( true )
+		{
+			// key
+			int quote = this.skipWhitespace();
+			if ( quote != '"' && quote != '\'' )
+			{
+				return false;
+			}
+			
+			int keyStart = this.pos + 1;
+			int keyEnd = this.skipString( quote );
+			if ( keyEnd < 0 )
+			{
+				return false;  // escaped or unterminated
+			}
+			
+			if ( this.skipWhitespace() != ':' )
+			{
+				return false;
+			}
+			++this.pos;
+			
+			// value
+			int c = this.skipWhitespace();
+			
+			if ( this.matches( keyStart, keyEnd, ACTION_NAME ) )
+			{
+				if ( haveName || ( c != '"' && c != '\'' ) )
+				{
+					return false;  // duplicate key or not a string
+				}
+				
+				this.nameStart = this.pos + 1;
+				this.nameEnd = this.skipString( c );
+				if ( this.nameEnd < 0 )
+				{
+					return false;
+				}
+				
+				haveName = true;
+			}
+			else if ( this.matches( keyStart, keyEnd, TIME ) )
+			{
+				if ( haveTime || ! this.parseTime() )
+				{
+					return false;
+				}
+				
+				haveTime = true;
+			}
+			else if ( ! this.skipValue() )
+			{
+				return false;
+			}
+			
+			// separator
+			c = this.skipWhitespace();
+			++this.pos;
+			
+			if ( c == '}' )
+			{
+				return haveName && haveTime;
+			}
+			
+			if ( c != ',' )
+			{
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * @return the char (or byte) at the given index
+	 */
+	private int at ( int index )
+	{
+		if ( this.chars != null )
+		{
+			return this.chars.charAt( index );
+		}
+		
+		if ( this.bytes != null )
+		{
+			return this.bytes[ index ] & 0xFF;
+		}
+		
+		return this.buffer.get( index ) & 0xFF;
+	}
+	
+	/**
+	 * Advances past whitespace
+	 * 
+	 * @return the char at the new position, or -1 at the end of input
+	 */
+	private int skipWhitespace ()
+	{
+		while ( this.pos < this.end )
+		{
+			int c = this.at( this.pos );
+			
+			if ( c > ' ' )
+			{
+				return c;
+			}
+			
+			++this.pos;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Advances past a string starting at the current position
+	 * 
+	 * @param quote : the quote char the string starts with
+	 * @return the index of the closing quote, or -1 if the string contains an escape or is unterminated
+	 */
+	private int skipString ( int quote )
+	{
+		for ( int i = this.pos + 1; i < this.end; ++i )
+		{
+			int c = this.at( i );
+			
+			if ( c == quote )
+			{
+				this.pos = i + 1;
+				return i;
+			}
+			
+			if ( c == '\\' || c == '\n' || c == '\r' )
+			{
+				return -1;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @return true if the span [start, end) of the input is exactly str
+	 */
+	private boolean matches ( int start, int end, String str )
+	{
+		if ( end - start != str.length() )
+		{
+			return false;
+		}
+		
+		for ( int i = 0; i < str.length(); ++i )
+		{
+			if ( this.at( start + i ) != str.charAt( i ) )
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Parses an integer number in int range at the current position into time
+	 * 
+	 * @return false if the value is not such a number
+	 */
+	private boolean parseTime ()
+	{
+		boolean negative = false;
+		
+		if ( this.pos < this.end && this.at( this.pos ) == '-' )
+		{
+			negative = true;
+			++this.pos;
+		}
+		
+		int digitsStart = this.pos;
+		long value = 0;
+		
+		while ( this.pos < this.end )
+		{
+			int c = this.at( this.pos );
+			
+			if ( c < '0' || c > '9' )
+			{
+				break;
+			}
+			
+			value = value * 10 + ( c - '0' );
+			
+			if ( value > Integer.MAX_VALUE + 1L )
+			{
+				return false;  // org.json would narrow a long, so leave that to it
+			}
+			
+			++this.pos;
+		}
+		
+		if ( this.pos == digitsStart || ( value > Integer.MAX_VALUE && ! negative ) )
+		{
+			return false;
+		}
+		
+		// anything other than a delimiter after the digits (a fraction, exponent, ...) is left to org.json
+		int c = this.skipWhitespace();
+		if ( c != ',' && c != '}' )
+		{
+			return false;
+		}
+		
+		this.time = (int) ( negative ? -value : value );
+		return true;
+	}
+	
+	/**
+	 * Advances past a value of any type at the current position
+	 * 
+	 * @return false if the value is malformed or contains escapes
+	 */
+	private boolean skipValue ()
+	{
+		int start = this.pos;
+		int depth = 0;
+		
+		while ( this.pos < this.end )
+		{
+			int c = this.at( this.pos );
+			
+			if ( c == '"' || c == '\'' )
+			{
+				if ( this.skipString( c ) < 0 )
+				{
+					return false;
+				}
+				continue;
+			}
+			
+			if ( c == '{' || c == '[' )
+			{
+				++depth;
+			}
+			else if ( c == '}' || c == ']' )
+			{
+				if ( depth == 0 )
+				{
+					return this.pos > start;  // end of the enclosing object
+				}
+				--depth;
+			}
+			else if ( c == ',' && depth == 0 )
+			{
+				return this.pos > start;
+			}
+			
+			++this.pos;
+		}
+		
+		return false;
+	}
+}
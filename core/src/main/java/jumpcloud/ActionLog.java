@@ -0,0 +1,903 @@
+package jumpcloud;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Used internally by AddActionAssignment, when a log is enabled (see AddActionOptions.log), as an append-only
+ * write-ahead log of every action added, from which the tracker's state is rebuilt when it is constructed again.
+ * 
+ * Ingesting threads append records to a shared buffer under a lock held only for the copy; one writer thread swaps
+ * the buffer for a spare and writes and forces it as a single frame (group commit), either as soon as records are
+ * waiting or once batchSize records are waiting or the oldest has waited syncIntervalMillis. While one frame is being
+ * written the next fills, and a thread appending to a buffer already holding batchSize records waits for the swap.
+ * 
+ * The log is written to its file, the active segment. When snapshots are enabled, a compactor thread asks the writer
+ * every snapshotIntervalMillis to close the active segment, by renaming it to the file name plus "." and its generation,
+ * and to start a new one with the next generation; it then folds the closed segments into a snapshot, the file name
+ * plus ".snapshot" (see ActionSnapshot), and deletes them. The log is replayed by loading the snapshot, then the closed
+ * segments newer than it in order of generation, then the active segment.
+ * 
+ * Each segment is an 8-byte magic number and its 8-byte generation followed by frames of:
+ * 
+ * 	int		length of the records in bytes
+ * 	int		CRC-32C of the records
+ * 	byte[]	records, each:
+ * 				varint		length of the action name in bytes
+ * 				byte[]		the action name in UTF-8
+ * 				varlong		total time, zigzag encoded
+ * 				varlong		count
+ * 
+ * where a varint or varlong is 7 bits per byte, least significant first, with the top bit set on all but the last byte.
+ * A record is a single action when its count is 1, so typically takes the name's bytes plus 3 or 4. Frames are written
+ * whole or, after a crash, torn; replay stops at the first frame that is short or fails its checksum and truncates it.
+ */
+class ActionLog
+{
+	private static final long MAGIC = 0x4A43414354494F4EL;   // "JCACTION"
+	private static final int SEGMENT_HEADER_BYTES = 16;
+	private static final int FRAME_HEADER_BYTES = 8;
+	private static final int MAX_RECORD_OVERHEAD = 5 + 10 + 10;
+	private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+	
+	/**
+	 * Per-thread buffer the UTF-8 bytes of an action name are encoded into before the lock is taken
+	 */
+	private static final ThreadLocal<byte[]> NAME_BYTES = ThreadLocal.withInitial( () -> new byte[ 256 ] );
+	
+	
+	/**
+	 * Receives the records of a log or snapshot as they are read
+	 */
+	interface RecordSink
+	{
+		/**
+		 * @param name : an array containing the action name in UTF-8, which is reused once this returns
+		 * @param offset : the index of the first byte of the name
+		 * @param length : the number of bytes of the name
+		 * @param total : the total time of the actions; a single action's time if count is 1
+		 * @param count : the positive number of actions
+		 */
+		void add ( byte[] name, int offset, int length, long total, long count );
+	}
+	
+	
+	private final Path file;
+	private final int batchSize;
+	private final long syncIntervalNanos;
+	private final long snapshotIntervalNanos;
+	private final Thread writer;
+	private final Thread compactor;
+	
+	/**
+	 * The active segment and its generation; owned by the writer thread once started
+	 */
+	private FileChannel channel;
+	private long generation;
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition recordsWaiting = this.lock.newCondition();
+	private final Condition bufferSwapped = this.lock.newCondition();
+	private final Condition framesForced = this.lock.newCondition();
+	private final Condition segmentRolled = this.lock.newCondition();
+	private final Condition compactorStopping = this.lock.newCondition();
+	
+	/**
+	 * The buffer records are appended to, from FRAME_HEADER_BYTES, and the buffer it is swapped for; guarded by lock,
+	 * except that the writer owns a buffer between taking it and returning it as the spare
+	 */
+	private byte[] buffer = new byte[ INITIAL_BUFFER_BYTES ];
+	private byte[] spare = new byte[ INITIAL_BUFFER_BYTES ];
+	private int bufferLength = FRAME_HEADER_BYTES;
+	
+	/**
+	 * The number of records in buffer, and when (System.nanoTime()) the first of them was appended; guarded by lock
+	 */
+	private int bufferRecords;
+	private long bufferStartNanos;
+	
+	/**
+	 * The number of records appended, the number written and forced, and the number a sync is waiting for; guarded
+	 * by lock
+	 */
+	private long appended;
+	private long forced;
+	private long syncRequested;
+	
+	/**
+	 * true while the compactor waits for the writer to close the active segment; guarded by lock
+	 */
+	private boolean rollRequested;
+	
+	/**
+	 * The failure that stopped the writer, after which every append and sync throws, and the failure that stopped the
+	 * compactor, after which sync throws; guarded by lock
+	 */
+	private IOException failure;
+	private IOException compactionFailure;
+	
+	/**
+	 * Set by close, first for the compactor and then for the writer; guarded by lock
+	 */
+	private boolean compactorStopped;
+	private boolean closed;
+	
+	
+	/**
+	 * Opens the log in the given file, replays every record already in it into the given sink, and starts the writer
+	 * thread and, if snapshots are enabled, the compactor thread
+	 * 
+	 * @param file : a non-null path, created if it does not exist; it and the files named after it are used only by this
+	 * 				log
+	 * @param batchSize : a positive number of records after which the buffer is written without waiting for
+	 * 					syncIntervalMillis, and at which appending threads wait for it to be written
+	 * @param syncIntervalMillis : the longest time a record waits in the buffer before it is written and forced, or 0
+	 * 							for every append to wait until its record has been forced
+	 * @param snapshotIntervalMillis : the time between compactions of the log into a snapshot, or 0 for none
+	 * @param sink : receives the records replayed, typically the tracker being constructed
+	 * @throws IOException if a file cannot be created or read, or is not a log or snapshot
+	 */
+	ActionLog ( Path file, int batchSize, long syncIntervalMillis, long snapshotIntervalMillis, RecordSink sink ) throws IOException
+	{
+		this.file = file.toAbsolutePath();
+		this.batchSize = batchSize;
+		this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos( syncIntervalMillis );
+		this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos( snapshotIntervalMillis );
+		
+		this.replay( sink );
+		
+		this.writer = new Thread( this::write, "action-log-writer" );
+		this.writer.setDaemon( true );
+		this.writer.start();
+		
+		if ( snapshotIntervalMillis > 0 )
+		{
+			this.compactor = new Thread( this::compact, "action-log-compactor" );
+			this.compactor.setDaemon( true );
+			this.compactor.start();
+		}
+		else
+		{
+			this.compactor = null;
+		}
+	}
+	
+	/**
+	 * Appends a record, as for append(byte[], int, int, long, long)
+	 * 
+	 * @param actionName : a non-null name for the action
+	 */
+	void append ( String actionName, long total, long count )
+	{
+		byte[] name = NAME_BYTES.get();
+		
+		if ( name.length < actionName.length() * 3 )   // no char encodes to more than 3 bytes
+		{
+			name = new byte[ actionName.length() * 3 ];
+			NAME_BYTES.set( name );
+		}
+		
+		this.append( name, 0, OffHeapActionTable.encode( actionName, 0, actionName.length(), name ), total, count );
+	}
+	
+	/**
+	 * Appends a record of a total time for a number of actions with the same name, waiting until it has been forced if
+	 * syncIntervalMillis is 0
+	 * 
+	 * @param name : a non-null array containing the action name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 * @param total : the total time of the actions
+	 * @param count : the positive number of actions
+	 * @throws UncheckedIOException if the log has failed
+	 */
+	void append ( byte[] name, int offset, int length, long total, long count )
+	{
+		this.lock.lock();
+		
+		try
+		{
+			while ( this.bufferRecords >= this.batchSize && this.failure == null )
+			{
+				this.bufferSwapped.awaitUninterruptibly();
+			}
+			
+			this.checkFailure();
+			
+			if ( this.bufferLength + length + MAX_RECORD_OVERHEAD > this.buffer.length )
+			{
+				this.buffer = Arrays.copyOf( this.buffer, Math.max( this.buffer.length * 2, this.bufferLength + length + MAX_RECORD_OVERHEAD ) );
+			}
+			
+			byte[] buffer = this.buffer;
+			int pos = writeVarLong( buffer, this.bufferLength, length );
+			
+			System.arraycopy( name, offset, buffer, pos, length );
+			pos = writeVarLong( buffer, pos + length, ( total << 1 ) ^ ( total >> 63 ) );
+			this.bufferLength = writeVarLong( buffer, pos, count );
+			
+			long record = ++this.appended;
+			
+			if ( this.bufferRecords++ == 0 )
+			{
+				this.bufferStartNanos = System.nanoTime();
+				this.recordsWaiting.signal();
+			}
+			else if ( this.bufferRecords == this.batchSize )
+			{
+				this.recordsWaiting.signal();
+			}
+			
+			if ( this.syncIntervalNanos == 0 )
+			{
+				this.awaitForced( record );
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	/**
+	 * Waits until every record appended so far has been written and forced
+	 * 
+	 * @throws UncheckedIOException if the log or its compaction has failed
+	 */
+	void sync ()
+	{
+		this.lock.lock();
+		
+		try
+		{
+			this.syncRequested = this.appended;
+			this.recordsWaiting.signal();
+			this.awaitForced( this.appended );
+			
+			if ( this.compactionFailure != null )
+			{
+				throw new UncheckedIOException( "action log compaction failed", this.compactionFailure );
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	
+	/**
+	 * Stops the compactor, waiting for a compaction in progress to finish, then writes and forces every record
+	 * appended so far, stops the writer thread and closes the active segment; nothing may be appended afterwards
+	 * 
+	 * @throws UncheckedIOException if the log or its compaction has failed
+	 */
+	void close ()
+	{
+		this.lock.lock();
+		
+		try
+		{
+			this.compactorStopped = true;
+			this.compactorStopping.signal();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		
+		join( this.compactor );
+		
+		this.lock.lock();
+		
+		try
+		{
+			this.closed = true;
+			this.recordsWaiting.signal();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		
+		join( this.writer );
+		
+		try
+		{
+			this.channel.close();
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		
+		this.sync();   // appends nothing, but throws any failure
+	}
+	
+	private static void join ( Thread thread )
+	{
+		boolean interrupted = false;
+		
+		while ( thread != null && thread.isAlive() )
+		{
+			try
+			{
+				thread.join();
+			}
+			catch ( InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+		
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Waits, holding lock, until the given number of records have been forced
+	 */
+	private void awaitForced ( long records )
+	{
+		while ( this.forced < records && this.failure == null )
+		{
+			this.framesForced.awaitUninterruptibly();
+		}
+		
+		this.checkFailure();
+	}
+	
+	private void checkFailure ()
+	{
+		if ( this.failure != null )
+		{
+			throw new UncheckedIOException( "action log failed", this.failure );
+		}
+	}
+	
+	/**
+	 * @return the failure that stopped a thread of the log, as the IOException recorded for it
+	 */
+	private static IOException asIOException ( Throwable e )
+	{
+		if ( e instanceof IOException )
+		{
+			return (IOException) e;
+		}
+		
+		if ( e instanceof InterruptedException )
+		{
+			return new InterruptedIOException();
+		}
+		
+		return new IOException( e );
+	}
+	
+	/**
+	 * The writer thread: writes and forces the buffer as a frame whenever it is due, and closes the active segment when
+	 * asked, until closed
+	 */
+	private void write ()
+	{
+		try
+		{
+			while ( true )
+			{
+				byte[] frame = null;
+				int frameLength = 0;
+				long records = 0;
+				boolean roll;
+				
+				this.lock.lock();
+				
+				try
+				{
+					if ( ! this.awaitWork() )
+					{
+						return;
+					}
+					
+					if ( this.bufferRecords > 0 )
+					{
+						frame = this.buffer;
+						frameLength = this.bufferLength;
+						records = this.appended;
+						
+						this.buffer = this.spare;
+						this.bufferLength = FRAME_HEADER_BYTES;
+						this.bufferRecords = 0;
+						this.bufferSwapped.signalAll();
+					}
+					
+					roll = this.rollRequested;
+				}
+				finally
+				{
+					this.lock.unlock();
+				}
+				
+				if ( frame != null )
+				{
+					this.writeFrame( frame, frameLength );
+					
+					this.lock.lock();
+					
+					try
+					{
+						this.spare = frame;
+						this.forced = records;
+						this.framesForced.signalAll();
+					}
+					finally
+					{
+						this.lock.unlock();
+					}
+				}
+				
+				if ( roll )
+				{
+					this.roll();
+					
+					this.lock.lock();
+					
+					try
+					{
+						this.rollRequested = false;
+						this.segmentRolled.signalAll();
+					}
+					finally
+					{
+						this.lock.unlock();
+					}
+				}
+			}
+		}
+		catch ( Throwable e )   // anything else would leave appenders waiting for a writer that is gone
+		{
+			this.lock.lock();
+			
+			try
+			{
+				this.failure = asIOException( e );
+				this.bufferSwapped.signalAll();
+				this.framesForced.signalAll();
+				this.segmentRolled.signalAll();
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Waits, holding lock, until the buffer is due to be written or the active segment to be closed
+	 * 
+	 * @return false if the log is closed and nothing is left to write
+	 */
+	private boolean awaitWork () throws InterruptedException
+	{
+		while ( true )
+		{
+			if ( this.rollRequested )
+			{
+				return true;
+			}
+			
+			if ( this.bufferRecords == 0 )
+			{
+				if ( this.closed )
+				{
+					return false;
+				}
+				
+				this.recordsWaiting.await();
+				continue;
+			}
+			
+			long waitNanos = this.bufferStartNanos + this.syncIntervalNanos - System.nanoTime();
+			
+			if ( waitNanos <= 0 || this.bufferRecords >= this.batchSize || this.syncRequested > this.forced || this.closed )
+			{
+				return true;
+			}
+			
+			this.recordsWaiting.awaitNanos( waitNanos );
+		}
+	}
+	
+	private void writeFrame ( byte[] frame, int frameLength ) throws IOException
+	{
+		ByteBuffer out = ByteBuffer.wrap( frame, 0, frameLength ).order( ByteOrder.LITTLE_ENDIAN );
+		CRC32C crc = new CRC32C();
+		
+		crc.update( frame, FRAME_HEADER_BYTES, frameLength - FRAME_HEADER_BYTES );
+		out.putInt( 0, frameLength - FRAME_HEADER_BYTES );
+		out.putInt( 4, (int) crc.getValue() );
+		
+		while ( out.hasRemaining() )
+		{
+			this.channel.write( out );
+		}
+		this.channel.force( false );
+	}
+	
+	/**
+	 * Closes the active segment, unless it holds no frames, and starts a new one with the next generation
+	 */
+	private void roll () throws IOException
+	{
+		if ( this.channel.position() == SEGMENT_HEADER_BYTES )
+		{
+			return;
+		}
+		
+		this.channel.close();
+		Files.move( this.file, this.segmentPath( this.generation ), StandardCopyOption.ATOMIC_MOVE );
+		this.channel = createSegment( this.file, ++this.generation );
+	}
+	
+	/**
+	 * The compactor thread: every snapshotIntervalMillis, has the writer close the active segment and folds the closed
+	 * segments into the snapshot, until closed
+	 */
+	private void compact ()
+	{
+		try
+		{
+			while ( true )
+			{
+				this.lock.lock();
+				
+				try
+				{
+					long waitNanos = this.snapshotIntervalNanos;
+					
+					while ( ! this.compactorStopped && waitNanos > 0 )
+					{
+						waitNanos = this.compactorStopping.awaitNanos( waitNanos );
+					}
+					
+					if ( this.compactorStopped )
+					{
+						return;
+					}
+					
+					this.rollRequested = true;
+					this.recordsWaiting.signal();
+					
+					while ( this.rollRequested && this.failure == null )
+					{
+						this.segmentRolled.await();
+					}
+					
+					if ( this.failure != null )
+					{
+						return;
+					}
+				}
+				finally
+				{
+					this.lock.unlock();
+				}
+				
+				List<Path> segments = this.closedSegments();
+				
+				if ( ! segments.isEmpty() )
+				{
+					Path last = segments.get( segments.size() - 1 );
+					
+					ActionSnapshot.compact( this.snapshotPath(), segments, this.segmentGeneration( last ) );
+					
+					for ( Path segment : segments )
+					{
+						Files.delete( segment );
+					}
+				}
+			}
+		}
+		catch ( Throwable e )
+		{
+			this.lock.lock();
+			
+			try
+			{
+				this.compactionFailure = asIOException( e );
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Replays the snapshot, the closed segments newer than it and the active segment into the sink, truncating a torn
+	 * last frame of the active segment, and leaves the active segment open to append
+	 */
+	private void replay ( RecordSink sink ) throws IOException
+	{
+		Path snapshot = this.snapshotPath();
+		long last = 0;
+		
+		ActionSnapshot.deleteTemporary( snapshot );
+		
+		if ( Files.exists( snapshot ) )
+		{
+			last = ActionSnapshot.read( snapshot, sink );
+		}
+		
+		for ( Path segment : this.closedSegments() )
+		{
+			long generation = this.segmentGeneration( segment );
+			
+			if ( generation <= last )   // folded into the snapshot by a compaction that did not finish deleting it
+			{
+				Files.delete( segment );
+				continue;
+			}
+			
+			readSegment( segment, sink );
+			last = generation;
+		}
+		
+		if ( ! Files.exists( this.file ) || Files.size( this.file ) < SEGMENT_HEADER_BYTES )   // new, or torn when started
+		{
+			Files.deleteIfExists( this.file );
+			this.generation = last + 1;
+			this.channel = createSegment( this.file, this.generation );
+			return;
+		}
+		
+		this.channel = FileChannel.open( this.file, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		
+		try
+		{
+			this.generation = readSegmentHeader( this.channel );
+			
+			long end = readFrames( this.channel, sink );
+			
+			if ( end < this.channel.size() )
+			{
+				this.channel.truncate( end );
+			}
+			
+			this.channel.position( end );
+		}
+		catch ( IOException e )
+		{
+			this.channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Replays every record in a closed segment into the sink
+	 */
+	static void readSegment ( Path segment, RecordSink sink ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( segment, StandardOpenOption.READ ) )
+		{
+			readSegmentHeader( channel );
+			readFrames( channel, sink );
+		}
+	}
+	
+	/**
+	 * @return the generation of the segment
+	 */
+	private static long readSegmentHeader ( FileChannel channel ) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate( SEGMENT_HEADER_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+		
+		readFully( channel, header, 0 );
+		
+		if ( header.getLong( 0 ) != MAGIC )
+		{
+			throw new IOException( "not an action log" );
+		}
+		
+		return header.getLong( 8 );
+	}
+	
+	/**
+	 * Replays the frames of a segment into the sink, up to the first that is short or fails its checksum
+	 * 
+	 * @return the position after the last whole frame
+	 */
+	private static long readFrames ( FileChannel channel, RecordSink sink ) throws IOException
+	{
+		long size = channel.size();
+		long pos = SEGMENT_HEADER_BYTES;
+		ByteBuffer header = ByteBuffer.allocate( FRAME_HEADER_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+		byte[] records = new byte[ INITIAL_BUFFER_BYTES ];
+		CRC32C crc = new CRC32C();
+		
+		while ( pos + FRAME_HEADER_BYTES <= size )
+		{
+			readFully( channel, header.clear(), pos );
+			
+			int length = header.getInt( 0 );
+			
+			if ( length < 0 || pos + FRAME_HEADER_BYTES + length > size )
+			{
+				break;
+			}
+			
+			if ( records.length < length )
+			{
+				records = new byte[ Math.max( length, records.length * 2 ) ];
+			}
+			
+			readFully( channel, ByteBuffer.wrap( records, 0, length ), pos + FRAME_HEADER_BYTES );
+			
+			crc.reset();
+			crc.update( records, 0, length );
+			
+			if ( (int) crc.getValue() != header.getInt( 4 ) )
+			{
+				break;
+			}
+			
+			replayRecords( records, length, sink );
+			pos += FRAME_HEADER_BYTES + length;
+		}
+		
+		return pos;
+	}
+	
+	private static void replayRecords ( byte[] records, int length, RecordSink sink )
+	{
+		int[] pos = { 0 };
+		
+		while ( pos[0] < length )
+		{
+			int nameLength = (int) readVarLong( records, pos );
+			int nameOffset = pos[0];
+			
+			pos[0] += nameLength;
+			
+			long zigzag = readVarLong( records, pos );
+			long count = readVarLong( records, pos );
+			
+			sink.add( records, nameOffset, nameLength, ( zigzag >>> 1 ) ^ -( zigzag & 1 ), count );
+		}
+	}
+	
+	/**
+	 * @return a new segment of the given generation holding only its header, forced, and open to append
+	 */
+	private static FileChannel createSegment ( Path path, long generation ) throws IOException
+	{
+		FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		ByteBuffer header = ByteBuffer.allocate( SEGMENT_HEADER_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+		
+		header.putLong( 0, MAGIC ).putLong( 8, generation );
+		
+		try
+		{
+			while ( header.hasRemaining() )
+			{
+				channel.write( header );
+			}
+			channel.force( true );
+		}
+		catch ( IOException e )
+		{
+			channel.close();
+			throw e;
+		}
+		
+		return channel;
+	}
+	
+	/**
+	 * Reads the file from the given position to fill the buffer from 0 to its limit
+	 */
+	private static void readFully ( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+		{
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+			{
+				throw new IOException( "unexpected end of action log" );
+			}
+		}
+	}
+	
+	/**
+	 * @return the closed segments, in order of generation
+	 */
+	private List<Path> closedSegments () throws IOException
+	{
+		List<Path> segments = new ArrayList<Path>();
+		String prefix = this.file.getFileName() + ".";
+		
+		try ( DirectoryStream<Path> files = Files.newDirectoryStream( this.file.getParent(), prefix + "*" ) )
+		{
+			for ( Path file : files )
+			{
+				String suffix = file.getFileName().toString().substring( prefix.length() );
+				
+				if ( ! suffix.isEmpty() && suffix.chars().allMatch( Character::isDigit ) )
+				{
+					segments.add( file );
+				}
+			}
+		}
+		
+		segments.sort( Comparator.comparingLong( this::segmentGeneration ) );
+		
+		return segments;
+	}
+	
+	private long segmentGeneration ( Path segment )
+	{
+		return Long.parseLong( segment.getFileName().toString().substring( this.file.getFileName().toString().length() + 1 ) );
+	}
+	
+	private Path segmentPath ( long generation )
+	{
+		return this.file.resolveSibling( this.file.getFileName() + "." + generation );
+	}
+	
+	private Path snapshotPath ()
+	{
+		return this.file.resolveSibling( this.file.getFileName() + SNAPSHOT_SUFFIX );
+	}
+	
+	/**
+	 * @return the index after the varlong written
+	 */
+	static int writeVarLong ( byte[] bytes, int pos, long value )
+	{
+		while ( ( value & ~0x7FL ) != 0 )
+		{
+			bytes[ pos++ ] = (byte) ( value | 0x80 );
+			value >>>= 7;
+		}
+		
+		bytes[ pos++ ] = (byte) value;
+		
+		return pos;
+	}
+	
+	/**
+	 * @param pos : holds the index of the varlong to read, advanced past it
+	 */
+	static long readVarLong ( byte[] bytes, int[] pos )
+	{
+		long value = 0;
+		
+		for ( int shift = 0; ; shift += 7 )
+		{
+			byte b = bytes[ pos[0]++ ];
+			
+			value |= (long) ( b & 0x7F ) << shift;
+			
+			if ( b >= 0 )
+			{
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,349 @@
+package jumpcloud;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Used internally by AddActionAssignment in async mode (see AddActionOptions.async): a bounded lock-free ring of
+ * actions with many producers and one consumer thread, which applies them to the tracker.
+ * 
+ * Each entry is an action name's id in the tracker's dictionary and a time, packed in one long, so the ring is a single
+ * preallocated long[] and enqueuing allocates nothing. A producer claims a sequence by compare-and-set on the tail,
+ * then publishes its entry by a volatile store into the sequence's slot; the consumer reads slots in order with acquire
+ * loads, so a slot still empty at the head is one claimed but not yet published, and waits for it. Slots are cleared as
+ * they are consumed, and the head is advanced, releasing them to producers, once their actions have been applied. The
+ * head and tail are each alone on their cache line, so producers claiming do not slow the consumer and vice versa.
+ * 
+ * The consumer totals what it drains in an ActionBatch of its own, which only it touches, and merges the batch into
+ * the tracker whenever the ring is empty or MAX_DRAIN actions have been drained, so the shared action data is updated
+ * once per distinct action per drain. The tracker gives each queue a partition of the action names, so consumers do
+ * not contend with each other for an action; but the merge is an ordinary locked update of the action's data, as the
+ * batch methods, merge and thread-local buffers may update the same action from other threads at the same time.
+ * 
+ * An idle consumer spins, then yields, then parks until a producer unparks it: it sets consumerParked before checking
+ * the ring a last time, and a producer checks the flag after publishing its entry, both with volatile accesses, so
+ * either the consumer sees the entry or the producer sees the flag. Producers pay only a read of the flag while the
+ * consumer is busy.
+ * 
+ * If applying actions throws, e.g. because the tracker's log has failed, the consumer records the failure and stops;
+ * from then on offer, flush and close throw it rather than wait for a consumer that will never free a slot.
+ */
+class ActionQueue
+{
+	/**
+	 * The most actions drained before they are merged and the head advanced, bounding how long producers wait for the
+	 * space they free
+	 */
+	static final int MAX_DRAIN = 4096;
+	
+	private static final long EMPTY = -1;   // no action packs to this, as ids are non-negative
+	
+	private static final int PAD = 8;   // longs in a cache line, so a counter at PAD in a long[ 2 * PAD ] is alone on its line
+	
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle( long[].class );
+	
+	/**
+	 * The number of times in a row the consumer spins or yields, see backOff, before it parks until unparked
+	 */
+	private static final int PARK_AFTER_WAITS = 128;
+	
+	private final long[] entries;
+	private final int mask;
+	
+	/**
+	 * The next sequence to claim, and the next to consume, each at index PAD
+	 */
+	private final long[] tail = new long[ 2 * PAD ];
+	private final long[] head = new long[ 2 * PAD ];
+	
+	private final AddActionOptions.Backpressure backpressure;
+	private final AddActionAssignment tracker;
+	private final ActionBatch batch;
+	private final Thread consumer;
+	
+	private final LongAdder dropped = new LongAdder();
+	private volatile long maxDepth;
+	private volatile boolean closed;
+	
+	/**
+	 * true while the consumer is parked, or about to park, waiting for an entry
+	 */
+	private volatile boolean consumerParked;
+	
+	/**
+	 * What the consumer threw as it stopped, or null while it runs
+	 */
+	private volatile Throwable failure;
+	
+	
+	/**
+	 * Starts the consumer thread
+	 * 
+	 * @param capacity : the number of entries, a power of 2
+	 * @param backpressure : what producers do when the ring is full, or for SAMPLE more than half full
+	 * @param tracker : the tracker to apply actions to
+	 * @param dictionary : the tracker's dictionary, which entries' ids are in
+	 * @param histograms : true if the tracker has histograms, so every time must be kept
+	 * @param name : the name of the consumer thread
+	 */
+	ActionQueue ( int capacity, AddActionOptions.Backpressure backpressure, AddActionAssignment tracker,
+					ActionDictionary dictionary, boolean histograms, String name )
+	{
+		this.entries = new long[ capacity ];
+		this.mask = capacity - 1;
+		this.backpressure = backpressure;
+		this.tracker = tracker;
+		this.batch = new ActionBatch( histograms, dictionary );
+		
+		for ( int i = 0; i < capacity; ++i )
+		{
+			this.entries[i] = EMPTY;
+		}
+		
+		this.consumer = new Thread( this::consume, name );
+		this.consumer.setDaemon( true );
+		this.consumer.start();
+	}
+	
+	/**
+	 * Enqueues an action, first waiting for space if the ring is full and the backpressure is BLOCK
+	 * 
+	 * @param actionId : the action name's id in the tracker's dictionary
+	 * @param time : the amount of time the action took
+	 * @return false if the action was dropped
+	 * @throws IllegalStateException if the consumer has failed, with the failure as its cause
+	 */
+	boolean offer ( int actionId, int time )
+	{
+		long entry = ( (long) actionId << 32 ) | ( time & 0xFFFFFFFFL );
+		int capacity = this.entries.length;
+		int waits = 0;
+		
+		while ( true )
+		{
+			this.checkFailure();
+			
+			long tail = (long) LONGS.getVolatile( this.tail, PAD );
+			long depth = tail - (long) LONGS.getAcquire( this.head, PAD );
+			
+			if ( this.backpressure == AddActionOptions.Backpressure.SAMPLE && depth > capacity / 2
+					&& ThreadLocalRandom.current().nextInt( AddActionOptions.SAMPLE_ONE_IN ) != 0 )
+			{
+				this.dropped.increment();
+				return false;
+			}
+			
+			if ( depth >= capacity )
+			{
+				if ( this.backpressure != AddActionOptions.Backpressure.BLOCK )
+				{
+					this.dropped.increment();
+					return false;
+				}
+				
+				backOff( waits++ );
+				continue;
+			}
+			
+			if ( LONGS.compareAndSet( this.tail, PAD, tail, tail + 1 ) )
+			{
+				LONGS.setVolatile( this.entries, (int) tail & this.mask, entry );   // ordered before the read of the flag
+				
+				if ( this.consumerParked )
+				{
+					LockSupport.unpark( this.consumer );
+				}
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Waits until every action enqueued before the call has been applied to the tracker
+	 * 
+	 * @throws IllegalStateException if the consumer has failed, with the failure as its cause
+	 */
+	void flush ()
+	{
+		long tail = (long) LONGS.getVolatile( this.tail, PAD );
+		
+		for ( int waits = 0; (long) LONGS.getAcquire( this.head, PAD ) < tail; )
+		{
+			this.checkFailure();
+			backOff( waits++ );
+		}
+	}
+	
+	/**
+	 * Applies every action enqueued so far, then stops the consumer thread; no action may be enqueued afterwards
+	 * 
+	 * @throws IllegalStateException if the consumer has failed, with the failure as its cause; the actions it had not
+	 * 			applied are lost
+	 */
+	void close ()
+	{
+		this.closed = true;
+		LockSupport.unpark( this.consumer );
+		
+		try
+		{
+			this.consumer.join();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		this.checkFailure();
+	}
+	
+	/**
+	 * @throws IllegalStateException if the consumer has failed, with the failure as its cause
+	 */
+	private void checkFailure ()
+	{
+		Throwable failure = this.failure;
+		
+		if ( failure != null )
+		{
+			throw new IllegalStateException( "action queue consumer " + this.consumer.getName() + " failed", failure );
+		}
+	}
+	
+	/**
+	 * @return the number of actions enqueued but not yet applied
+	 */
+	long depth ()
+	{
+		return Math.max( 0, (long) LONGS.getVolatile( this.tail, PAD ) - (long) LONGS.getVolatile( this.head, PAD ) );
+	}
+	
+	/**
+	 * @return the greatest depth seen by the consumer when it merged
+	 */
+	long maxDepth ()
+	{
+		return this.maxDepth;
+	}
+	
+	/**
+	 * @return the number of actions dropped or sampled out by the backpressure
+	 */
+	long dropped ()
+	{
+		return this.dropped.sum();
+	}
+	
+	/**
+	 * The consumer thread: applies actions until closed, or records what stopped it
+	 */
+	private void consume ()
+	{
+		try
+		{
+			this.drain();
+		}
+		catch ( Throwable e )   // e.g. an UncheckedIOException from a failed log, or an Error
+		{
+			this.failure = e;
+		}
+	}
+	
+	/**
+	 * Applies actions as they are enqueued, until closed and empty
+	 */
+	private void drain ()
+	{
+		long head = (long) LONGS.getVolatile( this.head, PAD );
+		long released = head;
+		int waits = 0;
+		
+		while ( true )
+		{
+			int slot = (int) head & this.mask;
+			long entry = (long) LONGS.getAcquire( this.entries, slot );
+			
+			if ( entry != EMPTY )
+			{
+				LONGS.setOpaque( this.entries, slot, EMPTY );   // made visible to producers by the release of the head
+				++head;
+				waits = 0;
+				
+				if ( this.batch.add( (int) ( entry >>> 32 ), (int) entry ) || head - released >= MAX_DRAIN )
+				{
+					released = this.release( head );
+				}
+				
+				continue;
+			}
+			
+			if ( head != released )
+			{
+				released = this.release( head );
+				continue;
+			}
+			
+			if ( this.closed && head == (long) LONGS.getVolatile( this.tail, PAD ) )
+			{
+				return;
+			}
+			
+			if ( waits < PARK_AFTER_WAITS )
+			{
+				backOff( waits++ );
+				continue;
+			}
+			
+			this.consumerParked = true;
+			
+			if ( (long) LONGS.getVolatile( this.entries, slot ) == EMPTY && ! this.closed )   // see the class comment
+			{
+				LockSupport.park( this );
+			}
+			
+			this.consumerParked = false;
+		}
+	}
+	
+	/**
+	 * Merges the batch into the tracker, then advances the head to free the slots of its actions
+	 * 
+	 * @return head
+	 */
+	private long release ( long head )
+	{
+		long depth = (long) LONGS.getVolatile( this.tail, PAD ) - (long) LONGS.getOpaque( this.head, PAD );   // before the drain
+		
+		this.batch.mergeInto( this.tracker );
+		LONGS.setRelease( this.head, PAD, head );
+		
+		if ( depth > this.maxDepth )
+		{
+			this.maxDepth = depth;
+		}
+		
+		return head;
+	}
+	
+	/**
+	 * Waits a little, longer the more times a thread has waited in a row: spins, then yields, then parks
+	 */
+	private static void backOff ( int waits )
+	{
+		if ( waits < 64 )
+		{
+			Thread.onSpinWait();
+		}
+		else if ( waits < 128 )
+		{
+			Thread.yield();
+		}
+		else
+		{
+			LockSupport.parkNanos( 50000 );
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package jumpcloud;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Used internally by ActionLog to compact its closed segments into a snapshot of every action's total time and count,
+ * so a tracker is rebuilt by loading the snapshot and replaying only the segments written since.
+ * 
+ * A snapshot is built by folding segments into the previous snapshot, not by reading the tracker: a tracker's totals
+ * include actions still to be logged and actions logged after any cut taken while ingestion continues, so they match
+ * no prefix of the log, whereas a fold of whole segments matches exactly the records of those segments. The fold is
+ * made by ActionLog's compactor thread, so ingesting threads are never paused.
+ * 
+ * The file is:
+ * 
+ * 	long	magic number
+ * 	long	generation of the last segment folded in
+ * 	varlong	number of actions
+ * 	records as in ActionLog, one per action, each with the action's total time and count
+ * 	long	CRC-32C of all of the above
+ * 
+ * and is written to a temporary file, forced, and renamed over the previous snapshot, so a crash leaves one or the
+ * other whole. Totals are kept in a long per action.
+ */
+class ActionSnapshot
+{
+	private static final long MAGIC = 0x4A43534E41505348L;   // "JCSNAPSH"
+	private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+	
+	
+	/**
+	 * Adds every action in a snapshot to a sink
+	 * 
+	 * @param file : a snapshot written by compact
+	 * @param sink : receives each action's total time and count
+	 * @return the generation of the last segment folded into the snapshot
+	 * @throws IOException if the snapshot cannot be read or fails its checksum, in which case some of its actions may
+	 * 						have been added
+	 */
+	static long read ( Path file, ActionLog.RecordSink sink ) throws IOException
+	{
+		CRC32C crc = new CRC32C();
+		
+		try ( InputStream in = new CheckedInputStream( new BufferedInputStream( Files.newInputStream( file ), 64 * 1024 ), crc ) )
+		{
+			if ( readLong( in ) != MAGIC )
+			{
+				throw new IOException( "not an action snapshot: " + file );
+			}
+			
+			long generation = readLong( in );
+			long count = readVarLong( in );
+			byte[] name = new byte[ 256 ];
+			
+			for ( long i = 0; i < count; ++i )
+			{
+				int length = (int) readVarLong( in );
+				
+				if ( name.length < length )
+				{
+					name = new byte[ Math.max( length, name.length * 2 ) ];
+				}
+				
+				readFully( in, name, length );
+				
+				long zigzag = readVarLong( in );
+				
+				sink.add( name, 0, length, ( zigzag >>> 1 ) ^ -( zigzag & 1 ), readVarLong( in ) );
+			}
+			
+			long expected = crc.getValue();
+			
+			if ( readLong( in ) != expected )
+			{
+				throw new IOException( "corrupt action snapshot: " + file );
+			}
+			
+			return generation;
+		}
+	}
+	
+	/**
+	 * Writes a new snapshot holding the actions of the previous snapshot, if there is one, and of the given segments
+	 * 
+	 * @param file : the path of the snapshot
+	 * @param segments : the non-empty paths of closed segments, in order of generation, all newer than the snapshot
+	 * @param generation : the generation of the last of segments
+	 * @throws IOException if a file cannot be read or written, in which case the previous snapshot is unchanged
+	 */
+	static void compact ( Path file, List<Path> segments, long generation ) throws IOException
+	{
+		Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+		ActionLog.RecordSink fold = ( name, offset, length, total, count ) ->
+		{
+			long[] sum = totals.computeIfAbsent( new String( name, offset, length, StandardCharsets.UTF_8 ), key -> new long[ 2 ] );
+			
+			sum[0] += total;
+			sum[1] += count;
+		};
+		
+		if ( Files.exists( file ) )
+		{
+			read( file, fold );
+		}
+		
+		for ( Path segment : segments )
+		{
+			ActionLog.readSegment( segment, fold );
+		}
+		
+		Path temporary = file.resolveSibling( file.getFileName() + TEMPORARY_FILE_SUFFIX );
+		CRC32C crc = new CRC32C();
+		
+		try ( FileChannel channel = FileChannel.open( temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+														StandardOpenOption.WRITE ) )
+		{
+			OutputStream out = new CheckedOutputStream( new BufferedOutputStream( Channels.newOutputStream( channel ), 64 * 1024 ), crc );
+			byte[] record = new byte[ 256 ];
+			
+			writeLong( out, MAGIC );
+			writeLong( out, generation );
+			out.write( record, 0, ActionLog.writeVarLong( record, 0, totals.size() ) );
+			
+			for ( Map.Entry<String, long[]> entry : totals.entrySet() )
+			{
+				byte[] name = entry.getKey().getBytes( StandardCharsets.UTF_8 );
+				long total = entry.getValue()[0];
+				
+				if ( record.length < name.length + 25 )
+				{
+					record = new byte[ name.length + 25 ];
+				}
+				
+				int pos = ActionLog.writeVarLong( record, 0, name.length );
+				
+				System.arraycopy( name, 0, record, pos, name.length );
+				pos = ActionLog.writeVarLong( record, pos + name.length, ( total << 1 ) ^ ( total >> 63 ) );
+				pos = ActionLog.writeVarLong( record, pos, entry.getValue()[1] );
+				out.write( record, 0, pos );
+			}
+			
+			writeLong( out, crc.getValue() );
+			out.flush();
+			channel.force( true );
+		}
+		
+		Files.move( temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+	}
+	
+	/**
+	 * Deletes a temporary file left by a crash while compacting
+	 */
+	static void deleteTemporary ( Path file ) throws IOException
+	{
+		Files.deleteIfExists( file.resolveSibling( file.getFileName() + TEMPORARY_FILE_SUFFIX ) );
+	}
+	
+	private static long readLong ( InputStream in ) throws IOException
+	{
+		long value = 0;
+		
+		for ( int i = 0; i < 8; ++i )
+		{
+			value |= (long) readByte( in ) << ( 8 * i );
+		}
+		
+		return value;
+	}
+	
+	private static void writeLong ( OutputStream out, long value ) throws IOException
+	{
+		for ( int i = 0; i < 8; ++i )
+		{
+			out.write( (int) ( value >>> ( 8 * i ) ) );
+		}
+	}
+	
+	private static long readVarLong ( InputStream in ) throws IOException
+	{
+		long value = 0;
+		
+		for ( int shift = 0; ; shift += 7 )
+		{
+			int b = readByte( in );
+			
+			value |= (long) ( b & 0x7F ) << shift;
+			
+			if ( b < 0x80 )
+			{
+				return value;
+			}
+		}
+	}
+	
+	private static int readByte ( InputStream in ) throws IOException
+	{
+		int b = in.read();
+		
+		if ( b < 0 )
+		{
+			throw new EOFException( "truncated action snapshot" );
+		}
+		
+		return b;
+	}
+	
+	private static void readFully ( InputStream in, byte[] bytes, int length ) throws IOException
+	{
+		for ( int read = 0; read < length; )
+		{
+			int n = in.read( bytes, read, length - read );
+			
+			if ( n < 0 )
+			{
+				throw new EOFException( "truncated action snapshot" );
+			}
+			
+			read += n;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package jumpcloud;
+
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Used internally by AddActionAssignment to encode the exact total time and count of a set of actions, as exported by
+ * exportState and merged by merge(byte[]), in a compact binary form:
+ * 
+ * 	long	magic number
+ * 	varint	version of the form
+ * 	varlong	number of actions
+ * 	per action:
+ * 		varint		length of the action name in bytes
+ * 		byte[]		the action name in UTF-8
+ * 		varlong		high 64 bits of the total time, zigzag encoded
+ * 		varlong		low 64 bits of the total time
+ * 		varlong		count
+ * 	int		CRC-32C of the above
+ * 
+ * with varints and varlongs as in ActionLog. A total that fits in a long, as every realistic one does, takes one byte
+ * for its high bits, so an action takes the name's bytes plus about 6. A state is checked whole, against its checksum
+ * and lengths, before any of its actions is read, so a corrupt state is rejected without any of it being merged.
+ * 
+ * Not thread-safe; an instance encodes one state.
+ */
+class ActionState
+{
+	private static final long MAGIC = 0x4A43535441544531L;   // "JCSTATE1"
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 8 + 5 + 10;
+	private static final int CHECKSUM_BYTES = 4;
+	private static final int MAX_ACTION_OVERHEAD = 5 + 10 + 10 + 10;
+	
+	
+	/**
+	 * Receives the actions of a state as they are read
+	 */
+	interface TotalSink
+	{
+		/**
+		 * @param name : an array containing the action name in UTF-8
+		 * @param offset : the index of the first byte of the name
+		 * @param length : the number of bytes of the name
+		 * @param high : the high 64 bits of the action's total time
+		 * @param low : the low 64 bits of the action's total time
+		 * @param count : the action's count
+		 */
+		void add ( byte[] name, int offset, int length, long high, long low, long count );
+	}
+	
+	
+	/**
+	 * The encoded actions, from HEADER_BYTES, leaving room for the header
+	 */
+	private byte[] bytes = new byte[ 1024 ];
+	private int length = HEADER_BYTES;
+	private long actions;
+	
+	
+	/**
+	 * Adds an action; each name must be added at most once
+	 * 
+	 * @param name : a non-null array containing the action name in UTF-8
+	 */
+	void add ( byte[] name, int offset, int nameLength, long high, long low, long count )
+	{
+		if ( this.length + nameLength + MAX_ACTION_OVERHEAD > this.bytes.length )
+		{
+			this.bytes = Arrays.copyOf( this.bytes, Math.max( this.bytes.length * 2, this.length + nameLength + MAX_ACTION_OVERHEAD ) );
+		}
+		
+		int pos = ActionLog.writeVarLong( this.bytes, this.length, nameLength );
+		
+		System.arraycopy( name, offset, this.bytes, pos, nameLength );
+		pos = ActionLog.writeVarLong( this.bytes, pos + nameLength, ( high << 1 ) ^ ( high >> 63 ) );
+		pos = ActionLog.writeVarLong( this.bytes, pos, low );
+		this.length = ActionLog.writeVarLong( this.bytes, pos, count );
+		
+		++this.actions;
+	}
+	
+	/**
+	 * @return the encoded state of the actions added
+	 */
+	byte[] toByteArray ()
+	{
+		byte[] header = new byte[ HEADER_BYTES ];
+		
+		for ( int i = 0; i < 8; ++i )
+		{
+			header[i] = (byte) ( MAGIC >>> ( 8 * i ) );
+		}
+		
+		int headerLength = ActionLog.writeVarLong( header, ActionLog.writeVarLong( header, 8, VERSION ), this.actions );
+		int end = headerLength + this.length - HEADER_BYTES;
+		byte[] state = new byte[ end + CHECKSUM_BYTES ];
+		CRC32C crc = new CRC32C();
+		
+		System.arraycopy( header, 0, state, 0, headerLength );
+		System.arraycopy( this.bytes, HEADER_BYTES, state, headerLength, this.length - HEADER_BYTES );
+		
+		crc.update( state, 0, end );
+		
+		for ( int i = 0; i < CHECKSUM_BYTES; ++i )
+		{
+			state[ end + i ] = (byte) ( crc.getValue() >>> ( 8 * i ) );
+		}
+		
+		return state;
+	}
+	
+	/**
+	 * Reads every action in an encoded state, having first checked the whole state
+	 * 
+	 * @param state : a state returned by toByteArray
+	 * @param sink : receives each action
+	 * @throws IllegalArgumentException if state is not an encoded state, is of another version, or is corrupt, in which
+	 * 									case no action has been passed to sink
+	 */
+	static void read ( byte[] state, TotalSink sink )
+	{
+		if ( state.length < 8 + CHECKSUM_BYTES || readLong( state, 0, 8 ) != MAGIC )
+		{
+			throw new IllegalArgumentException( "not an action state" );
+		}
+		
+		int end = state.length - CHECKSUM_BYTES;
+		CRC32C crc = new CRC32C();
+		
+		crc.update( state, 0, end );
+		
+		if ( (int) crc.getValue() != (int) readLong( state, end, CHECKSUM_BYTES ) )
+		{
+			throw new IllegalArgumentException( "corrupt action state: checksum mismatch" );
+		}
+		
+		int[] pos = { 8 };
+		long version = readVarLong( state, pos, end );
+		
+		if ( version != VERSION )
+		{
+			throw new IllegalArgumentException( "unsupported action state version " + version );
+		}
+		
+		readActions( state, pos[0], end, null );   // checks every length, so none is passed on from a corrupt state
+		readActions( state, pos[0], end, sink );
+	}
+	
+	/**
+	 * Reads the actions of a state whose header has been read
+	 * 
+	 * @param start : the index of the number of actions
+	 * @param end : the index of the checksum
+	 * @param sink : receives each action, or null to check the actions only
+	 * @throws IllegalArgumentException if a length or count is out of range, or the actions do not end at end
+	 */
+	private static void readActions ( byte[] state, int start, int end, TotalSink sink )
+	{
+		int[] pos = { start };
+		long actions = readVarLong( state, pos, end );
+		
+		for ( long i = 0; i < actions; ++i )
+		{
+			long nameLength = readVarLong( state, pos, end );
+			int nameOffset = pos[0];
+			
+			if ( nameLength < 0 || nameLength > end - nameOffset )
+			{
+				throw new IllegalArgumentException( "corrupt action state: action name of " + nameLength + " bytes" );
+			}
+			
+			pos[0] += (int) nameLength;
+			
+			long zigzag = readVarLong( state, pos, end );
+			long low = readVarLong( state, pos, end );
+			long count = readVarLong( state, pos, end );
+			
+			if ( count <= 0 )
+			{
+				throw new IllegalArgumentException( "corrupt action state: count " + count );
+			}
+			
+			if ( sink != null )
+			{
+				sink.add( state, nameOffset, (int) nameLength, ( zigzag >>> 1 ) ^ -( zigzag & 1 ), low, count );
+			}
+		}
+		
+		if ( pos[0] != end )
+		{
+			throw new IllegalArgumentException( "corrupt action state: " + ( end - pos[0] ) + " bytes after the last action" );
+		}
+	}
+	
+	/**
+	 * @return the little-endian integer of the given number of bytes at offset
+	 */
+	private static long readLong ( byte[] bytes, int offset, int length )
+	{
+		long value = 0;
+		
+		for ( int i = 0; i < length; ++i )
+		{
+			value |= (long) ( bytes[ offset + i ] & 0xFF ) << ( 8 * i );
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * As ActionLog.readVarLong, without reading past end
+	 * 
+	 * @throws IllegalArgumentException if the varlong does not end before end or is longer than 10 bytes
+	 */
+	private static long readVarLong ( byte[] bytes, int[] pos, int end )
+	{
+		long value = 0;
+		
+		for ( int shift = 0; shift < 64 && pos[0] < end; shift += 7 )
+		{
+			byte b = bytes[ pos[0]++ ];
+			
+			value |= (long) ( b & 0x7F ) << shift;
+			
+			if ( b >= 0 )
+			{
+				return value;
+			}
+		}
+		
+		throw new IllegalArgumentException( "corrupt action state: truncated number" );
+	}
+}
@@ -0,0 +1,143 @@
+package jumpcloud;
+
+import java.io.IOException;
+import java.io.Writer;
+import org.json.JSONObject;
+
+/**
+ * Used internally by AddActionAssignment to format one action's stats as a JSON object: the action name plus a fixed 
+ * list of int-valued fields.
+ * 
+ * Fields are written in the order a JSONObject holding them writes them, so the hand-written JSON of getStats(long) and 
+ * writeStats is identical, character for character, to the getStats() output built from JSONObjects.
+ */
+class ActionStatsFields
+{
+	/**
+	 * The names of the int-valued fields, in the order their values are passed in
+	 */
+	private final String[] valueFields;
+	
+	/**
+	 * The field names including ACTION_NAME_JSON_FLD, in JSONObject's output order, each with its index in valueFields
+	 * (-1 for the action name)
+	 */
+	private final String[] jsonOrder;
+	private final int[] jsonIndexes;
+	
+	
+	/**
+	 * @param valueFields : the non-null names of the int-valued fields, which must not include ACTION_NAME_JSON_FLD
+	 */
+	ActionStatsFields ( String... valueFields )
+	{
+		this.valueFields = valueFields.clone();
+		
+		JSONObject probe = this.toJSONObject( "", new int[ valueFields.length ] );
+		
+		this.jsonOrder = probe.keySet().toArray( new String[0] );
+		this.jsonIndexes = new int[ this.jsonOrder.length ];
+		
+		for ( int i = 0; i < this.jsonOrder.length; ++i )
+		{
+			this.jsonIndexes[i] = -1;
+			
+			for ( int j = 0; j < valueFields.length; ++j )
+			{
+				if ( valueFields[j].equals( this.jsonOrder[i] ) )
+				{
+					this.jsonIndexes[i] = j;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of int-valued fields
+	 */
+	int size ()
+	{
+		return this.valueFields.length;
+	}
+	
+	/**
+	 * @param values : the value of each field, in the order of the names passed to the constructor
+	 */
+	JSONObject toJSONObject ( String actionName, int[] values )
+	{
+		JSONObject jsonObj = new JSONObject();
+		
+		for ( int i = 0; i < this.valueFields.length; ++i )
+		{
+			jsonObj.put( this.valueFields[i], values[i] );
+		}
+		jsonObj.put( AddActionAssignment.ACTION_NAME_JSON_FLD, actionName );
+		
+		return jsonObj;
+	}
+	
+	/**
+	 * @param values : the value of each field, in the order of the names passed to the constructor
+	 * @return the JSON object as toJSONObject would write it
+	 */
+	String toJson ( String actionName, int[] values )
+	{
+		StringBuilder json = new StringBuilder( 32 + actionName.length() + 16 * values.length );
+		
+		json.append( '{' );
+		
+		for ( int i = 0; i < this.jsonOrder.length; ++i )
+		{
+			if ( i > 0 )
+			{
+				json.append( ',' );
+			}
+			
+			json.append( '"' ).append( this.jsonOrder[i] ).append( "\":" );
+			
+			if ( this.jsonIndexes[i] < 0 )
+			{
+				json.append( JSONObject.quote( actionName ) );
+			}
+			else
+			{
+				json.append( values[ this.jsonIndexes[i] ] );
+			}
+		}
+		
+		return json.append( '}' ).toString();
+	}
+	
+	/**
+	 * Writes the JSON object as toJSONObject would write it
+	 * 
+	 * @param values : the value of each field, in the order of the names passed to the constructor
+	 */
+	void write ( Writer writer, String actionName, int[] values ) throws IOException
+	{
+		writer.write( '{' );
+		
+		for ( int i = 0; i < this.jsonOrder.length; ++i )
+		{
+			if ( i > 0 )
+			{
+				writer.write( ',' );
+			}
+			
+			writer.write( '"' );
+			writer.write( this.jsonOrder[i] );
+			writer.write( "\":" );
+			
+			if ( this.jsonIndexes[i] < 0 )
+			{
+				JSONObject.quote( actionName, writer );
+			}
+			else
+			{
+				writer.write( Integer.toString( values[ this.jsonIndexes[i] ] ) );
+			}
+		}
+		
+		writer.write( '}' );
+	}
+}
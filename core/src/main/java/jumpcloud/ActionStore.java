@@ -0,0 +1,74 @@
+package jumpcloud;
+
+/**
+ * Used internally by AddActionAssignment: where every action's totals are kept, either on the heap (HeapActionStore)
+ * or outside it (OffHeapActionTable, see AddActionOptions.offHeap).
+ * 
+ * Adds differ between the two, as only the heap keeps histograms, sliding windows, an EWMA and delta flags, so the
+ * tracker makes them through the store it has; every read of the stats or of the state goes through forEach.
+ */
+interface ActionStore
+{
+	/**
+	 * Passes every action with a positive count to the visitor, without taking any lock; actions first seen during
+	 * iteration may or may not be included. An action just inserted by another thread, whose first time has not yet
+	 * been added, has a zero count and is skipped.
+	 * 
+	 * @param total : receives each action's total and count, and those of its windows, read consistently, before the
+	 * 				action is passed on; with as many windows as the tracker keeps
+	 * @param visitor : called for each action
+	 * @throws E if the visitor throws it, ending the iteration
+	 */
+	<E extends Exception> void forEach ( TimeTotal total, Visitor<E> visitor ) throws E;
+	
+	
+	interface Visitor<E extends Exception>
+	{
+		/**
+		 * @param action : the action, valid only during the call
+		 * @param total : the action's total, with a positive count
+		 */
+		void visit ( Action action, TimeTotal total ) throws E;
+	}
+	
+	/**
+	 * An action as passed to a Visitor
+	 */
+	interface Action
+	{
+		/**
+		 * @return the action's name
+		 */
+		String getActionName ();
+		
+		/**
+		 * @return an array holding the UTF-8 bytes of the action's name, which the caller may keep
+		 */
+		byte[] getActionNameBytes ();
+		
+		/**
+		 * Reads the action's stats, in the order named by AverageCalcData.statsFieldNames for the store's options
+		 * 
+		 * @param total : the action's total, as passed to the visitor
+		 * @param values : receives the stats
+		 */
+		void readStats ( TimeTotal total, int[] values );
+		
+		/**
+		 * Returns the action's JSON object in stats output; called by AddActionAssignment.getStats(long) only, under its
+		 * statsCacheLock, so an action that outlives the call may keep the object and return it again while its
+		 * count and windowEpochs are unchanged
+		 * 
+		 * @param total : the action's total, as passed to the visitor
+		 * @param windowEpochs : a value that changes whenever any window's current bucket does
+		 * @param fields : the tracker's stats fields
+		 * @param values : scratch for readStats
+		 */
+		default String getStatsJson ( TimeTotal total, long windowEpochs, ActionStatsFields fields, int[] values )
+		{
+			this.readStats( total, values );
+			
+			return fields.toJson( this.getActionName(), values );
+		}
+	}
+}
@@ -0,0 +1,1375 @@
+package jumpcloud;
+
+import java.util.Map;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.json.JSONObject;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Maintains and reports the average time for a set of actions identified by name.
+ * 
+ * All operations are thread-safe.
+ * 
+ * Methods take a Design by Contract (DBC) approach: preconditions (i.e. for parameters passed) are clearly stated; 
+ * if they are not met by the client code then the operation fails and state of object is undefined.
+ */
+public class AddActionAssignment
+{
+	/**
+	 * The JSON field name for action name; used for input and output JSON
+	 */
+	public static final String ACTION_NAME_JSON_FLD = "action";
+	
+	/**
+	 * The JSON field name for the time for a particular action; used for input JSON
+	 */
+	public static final String TIME_JSON_FLD = "time";
+	
+	/**
+	 * The JSON field name for average time for a particular action; used for output JSON
+	 */
+	public static final String AVERAGE_TIME_JSON_FLD = "avg";
+	
+	/**
+	 * The JSON field names for the 50th, 90th, 99th and 99.9th percentile and the maximum time for a particular action;
+	 * used for output JSON when histograms are enabled (see AddActionOptions.histograms)
+	 */
+	public static final String P50_TIME_JSON_FLD = "p50";
+	public static final String P90_TIME_JSON_FLD = "p90";
+	public static final String P99_TIME_JSON_FLD = "p99";
+	public static final String P999_TIME_JSON_FLD = "p999";
+	public static final String MAX_TIME_JSON_FLD = "max";
+	
+	/**
+	 * The JSON field name for the exponentially weighted moving average time for a particular action; used for output 
+	 * JSON when an EWMA is enabled (see AddActionOptions.ewmaHalfLife)
+	 */
+	public static final String EWMA_TIME_JSON_FLD = "ewma";
+	
+	/**
+	 * The prefix of the JSON field name for the average time within a sliding window for a particular action; used for 
+	 * output JSON when windows are enabled (see AddActionOptions.windows and windowAverageJsonField)
+	 */
+	public static final String WINDOW_AVERAGE_TIME_JSON_FLD_PREFIX = AVERAGE_TIME_JSON_FLD + "_";
+	
+	
+	/**
+	 * Per-thread parser for the JSON addAction variants; parsers are reused so parsing allocates nothing
+	 */
+	private static final ThreadLocal<ActionJsonParser> PARSERS = ThreadLocal.withInitial( ActionJsonParser::new );
+	
+	
+	/**
+	 * Encodes action names as dense int ids, for addAction(int, int) and for resolving parsed action names without 
+	 * creating Strings
+	 */
+	private final ActionDictionary dictionary = new ActionDictionary();
+	
+	/**
+	 * The data of every action, unless off-heap storage is enabled, when it is empty
+	 */
+	private final HeapActionStore heapStore;
+	
+	/**
+	 * When off-heap storage is enabled, every action's name, total time and count in place of heapStore; otherwise null
+	 */
+	private final OffHeapActionTable offHeapTable;
+	
+	/**
+	 * The store every read of the stats or state iterates: offHeapTable if enabled, otherwise heapStore
+	 */
+	private final ActionStore store;
+	
+	/**
+	 * The write-ahead log every action added is appended to, when enabled (see AddActionOptions.log); otherwise null
+	 */
+	private final ActionLog log;
+	
+	/**
+	 * When delta tracking is enabled (see AddActionOptions.deltas), the head of the list, linked by nextDirty, of every 
+	 * action changed since the last exportDelta; otherwise null. An action is pushed only by the thread whose change 
+	 * set its dirty flag, so it is on the list at most once.
+	 */
+	private final AtomicReference<AverageCalcData> dirtyActions;
+	
+	/**
+	 * Serializes exportDelta, and guards the exported totals of every AverageCalcData
+	 */
+	private final Object deltaLock = new Object();
+	
+	/**
+	 * In async mode (see AddActionOptions.async), the queue of each partition of the action names, by action id modulo 
+	 * the number of queues; otherwise null
+	 */
+	private final ActionQueue[] queues;
+	
+	/**
+	 * The buffer of each thread adding actions, if thread-local buffers are enabled (see 
+	 * AddActionOptions.threadLocalBuffers); otherwise null
+	 */
+	private final ActionBuffers buffers;
+	
+	/**
+	 * The number of independently locked cells each action's total time and count is spread over
+	 */
+	private final int stripes;
+	
+	/**
+	 * true if each action records its times in a TimeHistogram
+	 */
+	private final boolean histograms;
+	
+	/**
+	 * The length in milliseconds of each sliding window kept for every action, and of each window's buckets
+	 */
+	private final long[] windowMillis;
+	private final long[] windowIntervalMillis;
+	
+	/**
+	 * The clock and half-life of every action's EWMA; null if an EWMA is not enabled
+	 */
+	private final TimeEwma ewma;
+	
+	/**
+	 * The fields of each action's JSON object in stats output
+	 */
+	private final ActionStatsFields statsFields;
+	
+	/**
+	 * The last string built by getStats(long), and when (System.nanoTime()) it was built; guarded by statsCacheLock,
+	 * which also guards the statsJson fields of every AverageCalcData
+	 */
+	private final Object statsCacheLock = new Object();
+	private String cachedStats;
+	private long cachedStatsNanos;
+	
+	
+	/**
+	 * Default constructor; action data is kept in a HashMap guarded by its own monitor
+	 */
+	public AddActionAssignment ()
+	{
+		this( false );
+	}
+	
+	/**
+	 * @param concurrentMap : if true, action data is kept in a ConcurrentHashMap and neither lookups nor first-insert
+	 * 						of an action name take a global lock; better suited to many concurrent ingesting threads
+	 */
+	public AddActionAssignment ( boolean concurrentMap )
+	{
+		this( concurrentMap, 1 );
+	}
+	
+	/**
+	 * @param concurrentMap : as for AddActionAssignment(boolean)
+	 * @param stripes : a positive number of cells to spread each action's total time and count over, so that threads 
+	 * 					adding to the same heavily used action do not all contend on one lock; rounded up to a power 
+	 * 					of 2. Each stripe costs memory for every action, so values above the number of cores are wasted.
+	 */
+	public AddActionAssignment ( boolean concurrentMap, int stripes )
+	{
+		this( new AddActionOptions().concurrentMap( concurrentMap ).stripes( stripes ) );
+	}
+	
+	/**
+	 * @param options : non-null options, see AddActionOptions
+	 * @throws IllegalArgumentException if an option is out of the range AddActionOptions documents for it, or options
+	 * 			are combined that it documents as unsupported together
+	 */
+	public AddActionAssignment ( AddActionOptions options )
+	{
+		checkOptions( options );
+		
+		this.stripes = options.stripes;
+		this.histograms = options.histograms;
+		this.windowMillis = options.windowMillis.clone();
+		this.windowIntervalMillis = TimeWindows.intervalMillis( this.windowMillis );
+		this.ewma = options.ewmaHalfLifeMillis > 0 ? new TimeEwma( options.ewmaHalfLifeMillis ) : null;
+		this.statsFields = new ActionStatsFields( AverageCalcData.statsFieldNames( this.histograms, this.windowMillis, 
+																					this.ewma != null ) );
+		this.heapStore = new HeapActionStore( options.concurrentMap, this.dictionary, this.stripes, this.histograms, 
+												this.windowMillis, this.ewma );
+		this.offHeapTable = options.offHeap ? newOffHeapTable( options.persistentDirectory ) : null;
+		this.store = this.offHeapTable != null ? this.offHeapTable : this.heapStore;
+		this.dirtyActions = options.deltas ? new AtomicReference<AverageCalcData>() : null;
+		
+		if ( options.logFile == null )
+		{
+			this.log = null;
+		}
+		else
+		{
+			try   // last, as replaying the log adds to everything above
+			{
+				this.log = new ActionLog( options.logFile, options.logBatchSize, options.logSyncIntervalMillis, 
+										options.snapshotIntervalMillis, this::addReplayed );
+			}
+			catch ( IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+		}
+		
+		if ( options.asyncConsumers > 0 )
+		{
+			// rounded up to a power of 2
+			int capacity = Integer.highestOneBit( Math.max( 2, options.asyncCapacity ) - 1 ) << 1;
+			
+			this.queues = new ActionQueue[ options.asyncConsumers ];
+			
+			for ( int i = 0; i < this.queues.length; ++i )
+			{
+				this.queues[i] = new ActionQueue( capacity, options.asyncBackpressure, this, this.dictionary, this.histograms,
+													"action-queue-consumer-" + i );
+			}
+		}
+		else
+		{
+			this.queues = null;
+		}
+		
+		if ( options.bufferMaxActions > 0 )
+		{
+			this.buffers = new ActionBuffers( options.bufferMaxActions, options.bufferMaxAgeMillis, this, this.dictionary,
+												this.histograms );
+		}
+		else
+		{
+			this.buffers = null;
+		}
+	}
+	
+	/**
+	 * @throws IllegalArgumentException as for AddActionAssignment(AddActionOptions)
+	 */
+	private static void checkOptions ( AddActionOptions options )
+	{
+		if ( options.stripes < 1 )
+		{
+			throw new IllegalArgumentException( "stripes must be positive: " + options.stripes );
+		}
+		
+		for ( long windowMillis : options.windowMillis )
+		{
+			if ( windowMillis < TimeWindows.BUCKETS )
+			{
+				throw new IllegalArgumentException( "windows must be at least " + TimeWindows.BUCKETS + "ms: " + windowMillis );
+			}
+		}
+		
+		if ( options.ewmaHalfLifeMillis < 0 )
+		{
+			throw new IllegalArgumentException( "ewmaHalfLife must not be negative: " + options.ewmaHalfLifeMillis );
+		}
+		
+		if ( options.logFile != null && ( options.logBatchSize < 1 || options.logSyncIntervalMillis < 0 ) )
+		{
+			throw new IllegalArgumentException( "log batch size must be positive and sync interval not negative: " 
+												+ options.logBatchSize + ", " + options.logSyncIntervalMillis );
+		}
+		
+		if ( options.asyncConsumers > 0 
+				&& ( options.asyncCapacity < 1 || options.asyncCapacity > 1 << 30 || options.asyncBackpressure == null ) )
+		{
+			throw new IllegalArgumentException( "async capacity must be positive, at most 2^30, and backpressure non-null: " 
+												+ options.asyncCapacity + ", " + options.asyncBackpressure );
+		}
+		
+		if ( options.bufferMaxActions > ActionBatch.MAX_ACTIONS 
+				|| ( options.bufferMaxActions > 0 && options.bufferMaxAgeMillis < 1 ) )
+		{
+			throw new IllegalArgumentException( "buffer max actions must be at most " + ActionBatch.MAX_ACTIONS 
+												+ " and max age positive: " + options.bufferMaxActions + ", " 
+												+ options.bufferMaxAgeMillis );
+		}
+		
+		if ( options.offHeap && ( options.concurrentMap || options.stripes != 1 || options.histograms 
+									|| options.windowMillis.length > 0 || options.ewmaHalfLifeMillis != 0 ) )
+		{
+			throw new IllegalArgumentException( "offHeap keeps the average only: concurrentMap, stripes, histograms, windows " 
+												+ "and ewmaHalfLife must be left at their defaults" );
+		}
+		
+		if ( options.offHeap && options.deltas )
+		{
+			throw new IllegalArgumentException( "deltas are not supported with offHeap" );
+		}
+		
+		if ( options.logFile != null && options.persistentDirectory != null )
+		{
+			throw new IllegalArgumentException( "log cannot be combined with persistent, whose recovered totals replay would " 
+												+ "add to again" );
+		}
+	}
+	
+	/**
+	 * @param persistentDirectory : the directory of a durable table, or null for one in direct memory
+	 * @throws UncheckedIOException if the durable table cannot be opened
+	 */
+	private static OffHeapActionTable newOffHeapTable ( Path persistentDirectory )
+	{
+		int segments = 4 * Runtime.getRuntime().availableProcessors();
+		
+		if ( persistentDirectory == null )
+		{
+			return new OffHeapActionTable( segments );
+		}
+		
+		try
+		{
+			return new OffHeapActionTable( segments, persistentDirectory );
+		}
+		catch ( IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+	
+	/**
+	 * Forces every action added so far to storage, when persistent storage or a log is enabled (see 
+	 * AddActionOptions.persistent and AddActionOptions.log), so it survives a crash of the operating system as well as 
+	 * of the process; otherwise does nothing
+	 * 
+	 * @throws UncheckedIOException if the log has failed
+	 * @throws IllegalStateException as for flush
+	 */
+	public void sync ()
+	{
+		this.flush();
+		
+		if ( this.offHeapTable != null )
+		{
+			this.offHeapTable.force();
+		}
+		
+		if ( this.log != null )
+		{
+			this.log.sync();
+		}
+	}
+	
+	/**
+	 * Syncs as for sync and stops the flusher thread of thread-local buffers, the consumer threads of async mode and, if 
+	 * a log is enabled, the log's threads and closes its file; no action may be added afterwards. Stats may still be read.
+	 * 
+	 * @throws UncheckedIOException if the log has failed
+	 * @throws IllegalStateException if an async consumer has failed, with the failure as its cause; every thread is 
+	 * 			still stopped and the log closed
+	 */
+	public void close ()
+	{
+		if ( this.buffers != null )
+		{
+			this.buffers.close();
+		}
+		
+		if ( this.queues != null )
+		{
+			IllegalStateException consumerFailure = null;
+			
+			for ( ActionQueue queue : this.queues )
+			{
+				try
+				{
+					queue.close();
+				}
+				catch ( IllegalStateException e )   // close the other queues and the log before throwing
+				{
+					consumerFailure = consumerFailure == null ? e : consumerFailure;
+				}
+			}
+			
+			if ( consumerFailure != null )
+			{
+				if ( this.log != null )
+				{
+					this.log.close();
+				}
+				throw consumerFailure;
+			}
+		}
+		
+		this.sync();
+		
+		if ( this.log != null )
+		{
+			this.log.close();
+		}
+	}
+	
+	/**
+	 * With thread-local buffers (see AddActionOptions.threadLocalBuffers), merges every thread's buffer, and in async mode
+	 * (see AddActionOptions.async), waits until every action added before the call has been applied, so that stats read
+	 * afterwards include them; otherwise does nothing
+	 * 
+	 * @throws IllegalStateException if an async consumer has failed, with the failure as its cause; actions added 
+	 * 			through its queue afterwards throw it too, rather than wait for a consumer that has stopped
+	 */
+	public void flush ()
+	{
+		this.flushBuffers();
+		
+		if ( this.queues != null )
+		{
+			for ( ActionQueue queue : this.queues )
+			{
+				queue.flush();
+			}
+		}
+	}
+	
+	/**
+	 * @return in async mode, the number of actions queued but not yet applied, summed over the queues; otherwise 0
+	 */
+	public long getQueueDepth ()
+	{
+		long depth = 0;
+		
+		if ( this.queues != null )
+		{
+			for ( ActionQueue queue : this.queues )
+			{
+				depth += queue.depth();
+			}
+		}
+		
+		return depth;
+	}
+	
+	/**
+	 * @return in async mode, the greatest number of actions seen queued in any one queue since construction; otherwise 0
+	 */
+	public long getMaxQueueDepth ()
+	{
+		long maxDepth = 0;
+		
+		if ( this.queues != null )
+		{
+			for ( ActionQueue queue : this.queues )
+			{
+				maxDepth = Math.max( maxDepth, queue.maxDepth() );
+			}
+		}
+		
+		return maxDepth;
+	}
+	
+	/**
+	 * @return in async mode, the number of actions dropped or sampled out by the backpressure since construction; 
+	 * 			otherwise 0
+	 */
+	public long getDroppedActions ()
+	{
+		long dropped = 0;
+		
+		if ( this.queues != null )
+		{
+			for ( ActionQueue queue : this.queues )
+			{
+				dropped += queue.dropped();
+			}
+		}
+		
+		return dropped;
+	}
+	
+	/**
+	 * With thread-local buffers, merges every thread's buffer; otherwise does nothing
+	 */
+	private void flushBuffers ()
+	{
+		if ( this.buffers != null )
+		{
+			this.buffers.flush();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param jsonStr : a non-null String in valid JSON format 
+	 * 					containing two non-empty fields: ACTION_NAME_JSON_FLD and TIME_JSON_FLD
+	 */
+	public void addAction ( String jsonStr )
+	{
+		ActionJsonParser parser = PARSERS.get();
+		
+		if ( parser.parse( jsonStr ) )
+		{
+			this.addParsed( parser );
+		}
+		else
+		{
+			this.addAction( new JSONObject( jsonStr) );   // a shape the streaming parser does not handle; let org.json decide
+		}
+		
+		parser.clear();
+	}
+	
+	/**
+	 * 
+	 * @param jsonBytes : a non-null array containing, in UTF-8, a JSON object as for addAction(String)
+	 * @param offset : the index of the first byte of the JSON object
+	 * @param length : the number of bytes of the JSON object
+	 */
+	public void addAction ( byte[] jsonBytes, int offset, int length )
+	{
+		ActionJsonParser parser = PARSERS.get();
+		
+		if ( parser.parse( jsonBytes, offset, length ) )
+		{
+			this.addParsed( parser );
+		}
+		else
+		{
+			this.addAction( new String( jsonBytes, offset, length, StandardCharsets.UTF_8 ) );
+		}
+		
+		parser.clear();
+	}
+	
+	/**
+	 * 
+	 * @param jsonBuffer : a non-null buffer containing, in UTF-8, a JSON object as for addAction(String); 
+	 * 						the object must end before its limit, and its position is not used; neither is changed
+	 * @param offset : the absolute index of the first byte of the JSON object
+	 * @param length : the number of bytes of the JSON object
+	 */
+	public void addAction ( ByteBuffer jsonBuffer, int offset, int length )
+	{
+		ActionJsonParser parser = PARSERS.get();
+		
+		if ( parser.parse( jsonBuffer, offset, length ) )
+		{
+			this.addParsed( parser );
+		}
+		else
+		{
+			byte[] jsonBytes = new byte[ length ];
+			
+			for ( int i = 0; i < length; ++i )
+			{
+				jsonBytes[i] = jsonBuffer.get( offset + i );
+			}
+			
+			this.addAction( jsonBytes, 0, length );
+		}
+		
+		parser.clear();
+	}
+	
+	/**
+	 * 
+	 * @param jsonObj : a non-null JSONObject containing two non-null fields: ACTION_NAME_JSON_FLD and TIME_JSON_FLD
+	 */
+	public void addAction ( JSONObject jsonObj )
+	{
+		this.addAction( jsonObj.getString( ACTION_NAME_JSON_FLD ),
+						jsonObj.getInt( TIME_JSON_FLD ) );
+	}
+	
+	/**
+	 * Adds the action found by a successful parse
+	 */
+	void addParsed ( ActionJsonParser parser )
+	{
+		if ( this.offHeapTable != null )   // not via the dictionary, which would keep every name on the heap
+		{
+			this.addAction( parser.getActionName(), parser.time );
+			return;
+		}
+		
+		this.addById( parser.getActionId( this.dictionary ), parser.time );
+	}
+	
+	/**
+	 * Returns the id of an action name, for addAction(int, int); ids are dense, starting at 0, and are never reused.
+	 * Action names parsed by the JSON addAction variants are resolved to ids too, so that no String is created for them.
+	 * 
+	 * @param actionName : a non-null name for the action
+	 * @return the action name's id, assigned if this is the first time it has been seen
+	 */
+	public int getActionId ( String actionName )
+	{
+		return this.dictionary.getId( actionName, 0, actionName.length() );
+	}
+	
+	/**
+	 * @param actionId : an id returned by getActionId
+	 * @return the name of the action with the given id
+	 * @throws IllegalArgumentException if no action name has the id
+	 */
+	public String getActionName ( int actionId )
+	{
+		return this.dictionary.getName( actionId );
+	}
+	
+	/**
+	 * Adds an action as for addAction(String, int), looking up the action data by an array index rather than by name
+	 * 
+	 * @param actionId : an id returned by getActionId
+	 * @param time : the amount of time the action took
+	 * @throws IllegalArgumentException if no action name has the id
+	 */
+	public void addAction ( int actionId, int time )
+	{
+		this.dictionary.checkId( actionId );   // before it indexes an array, or hashes into a buffer or a queue
+		this.addById( actionId, time );
+	}
+	
+	/**
+	 * Adds an action as for addAction(int, int), given an id from the dictionary
+	 */
+	private void addById ( int actionId, int time )
+	{
+		if ( this.buffers != null )
+		{
+			this.buffers.add( actionId, time );
+			return;
+		}
+		
+		if ( this.queues != null )
+		{
+			this.queues[ actionId % this.queues.length ].offer( actionId, time );
+			return;
+		}
+		
+		if ( this.log != null || this.offHeapTable != null )
+		{
+			byte[] name = this.dictionary.getNameBytes( actionId );
+			
+			if ( this.log != null )
+			{
+				this.log.append( name, 0, name.length, time, 1 );
+			}
+			
+			if ( this.offHeapTable != null )
+			{
+				this.offHeapTable.add( name, 0, name.length, time, 1 );
+				return;
+			}
+		}
+		
+		AverageCalcData data = this.heapStore.get( actionId );
+		
+		data.addToTotal( time );
+		this.changed( data );
+	}
+	
+	/**
+	 * @param actionName : a non-null name for the action
+	 * @param time : the amount of time the action took
+	 */
+	public void addAction ( String actionName, int time )
+	{
+		if ( this.buffers != null || this.queues != null )
+		{
+			this.addById( this.dictionary.getId( actionName, 0, actionName.length() ), time );
+			return;
+		}
+		
+		if ( this.log != null )
+		{
+			this.log.append( actionName, time, 1 );
+		}
+		
+		if ( this.offHeapTable != null )
+		{
+			this.offHeapTable.add( actionName, time, 1 );
+			return;
+		}
+		
+		AverageCalcData data = this.heapStore.get( actionName );
+		
+		data.addToTotal( time );  // AverageCalcData handles its own synchronization
+		this.changed( data );
+	}
+	
+	/**
+	 * Adds an action as for addAction(String, int), taking the name as UTF-8 bytes so that no String is created for it;
+	 * for callers that read actions from a network or file buffer
+	 * 
+	 * @param actionName : a non-null array containing the action name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 * @param time : the amount of time the action took
+	 */
+	public void addAction ( byte[] actionName, int offset, int length, int time )
+	{
+		// not via the dictionary, which would keep every name on the heap
+		if ( this.offHeapTable != null && this.buffers == null && this.queues == null )
+		{
+			if ( this.log != null )
+			{
+				this.log.append( actionName, offset, length, time, 1 );
+			}
+			
+			this.offHeapTable.add( actionName, offset, length, time, 1 );
+			return;
+		}
+		
+		this.addById( this.dictionary.getId( actionName, offset, length ), time );
+	}
+	
+	/**
+	 * Adds a batch of actions; the batch is totalled locally first, so the shared action data is updated 
+	 * once per distinct action name in the batch rather than once per action. A batch of more than 
+	 * ActionBatch.MAX_ACTIONS (65536) actions is merged in parts of that many.
+	 * 
+	 * @param jsonArray : a non-null JSONArray of JSONObjects, each as for addAction(JSONObject)
+	 * @throws JSONException if an element is not a valid action; the parts merged before it have been added, and 
+	 * 			none of the actions after them
+	 */
+	public void addActions ( JSONArray jsonArray )
+	{
+		this.addActions( (Iterable<Object>) jsonArray );
+	}
+	
+	/**
+	 * Adds a batch of actions as for addActions(JSONArray)
+	 * 
+	 * @param actions : a non-null Iterable whose elements are each either a JSONObject as for addAction(JSONObject)
+	 * 					or a String as for addAction(String)
+	 * @throws JSONException if an element is not a valid action, as for addActions(JSONArray)
+	 */
+	public void addActions ( Iterable<?> actions )
+	{
+		ActionBatch batch = new ActionBatch( this.histograms );
+		ActionJsonParser parser = PARSERS.get();
+		
+		for ( Object action : actions )
+		{
+			boolean full;
+			
+			if ( action instanceof JSONObject )
+			{
+				JSONObject jsonObj = (JSONObject) action;
+				full = batch.add( jsonObj.getString( ACTION_NAME_JSON_FLD ), jsonObj.getInt( TIME_JSON_FLD ) );
+			}
+			else if ( parser.parse( (String) action ) )
+			{
+				full = batch.add( parser );
+			}
+			else
+			{
+				JSONObject jsonObj = new JSONObject( (String) action );
+				full = batch.add( jsonObj.getString( ACTION_NAME_JSON_FLD ), jsonObj.getInt( TIME_JSON_FLD ) );
+			}
+			
+			if ( full )
+			{
+				batch.mergeInto( this );
+			}
+		}
+		
+		parser.clear();
+		batch.mergeInto( this );
+	}
+	
+	/**
+	 * Adds line-delimited JSON actions (NDJSON) read until the end of the reader, totalled locally as for 
+	 * addActions(JSONArray); a long stream is merged every ActionBatch.MAX_ACTIONS actions. Blank lines are ignored.
+	 * The reader is not closed.
+	 * 
+	 * @param ndjson : a non-null Reader of lines each containing a JSON object as for addAction(String)
+	 * @throws IOException if reading fails; actions read before the failure may or may not have been added
+	 * @throws JSONException if a line is not a valid action, as for addActions(JSONArray)
+	 */
+	public void addActions ( Reader ndjson ) throws IOException
+	{
+		BufferedReader lines = ndjson instanceof BufferedReader ? (BufferedReader) ndjson : new BufferedReader( ndjson );
+		ActionBatch batch = new ActionBatch( this.histograms );
+		ActionJsonParser parser = PARSERS.get();
+		String line;
+		
+		while ( ( line = lines.readLine() ) != null )
+		{
+			if ( line.trim().isEmpty() )
+			{
+				continue;
+			}
+			
+			boolean full;
+			
+			if ( parser.parse( line ) )
+			{
+				full = batch.add( parser );
+			}
+			else
+			{
+				JSONObject jsonObj = new JSONObject( line );
+				full = batch.add( jsonObj.getString( ACTION_NAME_JSON_FLD ), jsonObj.getInt( TIME_JSON_FLD ) );
+			}
+			
+			if ( full )
+			{
+				batch.mergeInto( this );
+			}
+		}
+		
+		parser.clear();
+		batch.mergeInto( this );
+	}
+	
+	/**
+	 * Adds line-delimited JSON actions (NDJSON) in UTF-8 read until the end of the stream, as for addActions(Reader);
+	 * lines are parsed directly from the read buffer, without first being decoded to Strings. The stream is not closed.
+	 * 
+	 * @param ndjson : a non-null InputStream of lines each containing a JSON object as for addAction(String)
+	 * @throws IOException if reading fails; actions read before the failure may or may not have been added
+	 * @throws JSONException if a line is not a valid action, as for addActions(JSONArray)
+	 */
+	public void addActions ( InputStream ndjson ) throws IOException
+	{
+		ActionBatch batch = new ActionBatch( this.histograms );
+		ActionJsonParser parser = PARSERS.get();
+		byte[] buffer = new byte[ 8 * 1024 ];
+		int length = 0;   // bytes in buffer
+		boolean eof = false;
+		
+		while ( ! eof )
+		{
+			int read = ndjson.read( buffer, length, buffer.length - length );
+			
+			if ( read < 0 )
+			{
+				eof = true;
+				buffer = length < buffer.length ? buffer : Arrays.copyOf( buffer, length + 1 );
+				buffer[ length++ ] = '\n';   // terminate a final unterminated line
+			}
+			else
+			{
+				length += read;
+			}
+			
+			int lineStart = 0;
+			
+			for ( int i = 0; i < length; ++i )
+			{
+				if ( buffer[i] != '\n' )
+				{
+					continue;
+				}
+				
+				if ( this.addLine( batch, parser, buffer, lineStart, i ) )
+				{
+					batch.mergeInto( this );
+				}
+				
+				lineStart = i + 1;
+			}
+			
+			// keep the partial last line, growing the buffer if one line fills it
+			length -= lineStart;
+			System.arraycopy( buffer, lineStart, buffer, 0, length );
+			
+			if ( length == buffer.length )
+			{
+				buffer = Arrays.copyOf( buffer, buffer.length * 2 );
+			}
+		}
+		
+		parser.clear();
+		batch.mergeInto( this );
+	}
+	
+	/**
+	 * Adds one line of NDJSON to batch, ignoring blank lines
+	 * 
+	 * @return true if the batch is full
+	 */
+	private boolean addLine ( ActionBatch batch, ActionJsonParser parser, byte[] buffer, int start, int end )
+	{
+		int first = start;
+		while ( first < end && ( buffer[ first ] & 0xFF ) <= ' ' )
+		{
+			++first;
+		}
+		
+		if ( first == end )
+		{
+			return false;
+		}
+		
+		if ( parser.parse( buffer, start, end - start ) )
+		{
+			return batch.add( parser );
+		}
+		
+		JSONObject jsonObj = new JSONObject( new String( buffer, start, end - start, StandardCharsets.UTF_8 ) );
+		return batch.add( jsonObj.getString( ACTION_NAME_JSON_FLD ), jsonObj.getInt( TIME_JSON_FLD ) );
+	}
+	
+	/**
+	 * Adds a total time for a number of actions with the same name, as though each had been added separately
+	 * 
+	 * @param actionName : the non-null UTF-8 bytes of the name for the action
+	 * @param total : the total time of the actions
+	 * @param count : the positive number of actions
+	 * @param times : the time of each action, needed if histograms are enabled; otherwise may be null
+	 */
+	void addToTotal ( byte[] actionName, long total, long count, int[] times )
+	{
+		if ( this.log != null )
+		{
+			if ( times == null )
+			{
+				this.log.append( actionName, 0, actionName.length, total, count );
+			}
+			else   // each time is needed to rebuild the histograms
+			{
+				for ( int i = 0; i < count; ++i )
+				{
+					this.log.append( actionName, 0, actionName.length, times[i], 1 );
+				}
+			}
+		}
+		
+		if ( this.offHeapTable != null )
+		{
+			this.offHeapTable.add( actionName, 0, actionName.length, total, count );
+			return;
+		}
+		
+		AverageCalcData data = this.heapStore.get( this.dictionary.getId( actionName, 0, actionName.length ) );
+		
+		data.addToTotal( total, count );
+		
+		if ( data.histogram != null )
+		{
+			for ( int i = 0; i < count; ++i )
+			{
+				data.histogram.record( times[i] );
+			}
+		}
+		
+		this.changed( data );
+	}
+	
+	/**
+	 * Adds a record replayed from the log or its snapshot, without logging it again
+	 * 
+	 * @param actionName : a non-null array containing the action name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 * @param total : the total time of the actions; a single action's time if count is 1
+	 * @param count : the positive number of actions
+	 */
+	void addReplayed ( byte[] actionName, int offset, int length, long total, long count )
+	{
+		if ( this.offHeapTable != null )
+		{
+			this.offHeapTable.add( actionName, offset, length, total, count );
+			return;
+		}
+		
+		AverageCalcData data = this.heapStore.get( this.dictionary.getId( actionName, offset, length ) );
+		
+		if ( count == 1 )
+		{
+			data.addToTotal( (int) total );
+		}
+		else
+		{
+			data.addToTotal( total, count );
+		}
+		
+		this.changed( data );
+	}
+	
+	/**
+	 * Records that an action's totals have changed, when delta tracking is enabled; called after the change
+	 */
+	private void changed ( AverageCalcData data )
+	{
+		if ( this.dirtyActions != null && data.markDirty() )
+		{
+			AverageCalcData head;
+			
+			do
+			{
+				head = this.dirtyActions.get();
+				data.nextDirty = head;
+			}
+			while ( ! this.dirtyActions.compareAndSet( head, data ) );
+		}
+	}
+	
+	/**
+	 * Passes every action with a positive count to the visitor, as for ActionStore.forEach. Every read of the stats or
+	 * state starts here, so thread-local buffers are merged first, and the actions include every one added before the 
+	 * call.
+	 */
+	private <E extends Exception> void forEachAction ( TimeTotal total, ActionStore.Visitor<E> visitor ) throws E
+	{
+		this.flushBuffers();
+		this.store.forEach( total, visitor );
+	}
+	
+	/**
+	 * Returns the average time for all actions stored with this object in a JSON array string format
+	 * 
+	 * @return a JSON array string containing a JSON object for each action; each JSON object has two fields,
+	 * 			ACTION_NAME_JSON_FLD and AVERAGE_TIME_JSON_FLD, plus the percentile and maximum fields if histograms
+	 * 			are enabled, a windowAverageJsonField for each window if windows are enabled, and EWMA_TIME_JSON_FLD 
+	 * 			if an EWMA is enabled
+	 */
+	public String getStats ()
+	{
+		return this.getStatsAsJSONArray().toString();
+	}
+	
+	/**
+	 * Returns the average time for all actions as for getStats(), from a cache suited to frequent polling.
+	 * 
+	 * If the last string built by this method is no older than maxStalenessMillis it is returned as is. Otherwise it is 
+	 * rebuilt: the JSON object for each action is kept between calls and only re-serialized if actions have been added 
+	 * to it since (or, with windows enabled, if a window bucket has rotated since), so the cost of a rebuild is one 
+	 * count comparison per action plus copying the unchanged objects, rather than building a JSONObject and JSONArray 
+	 * for every action. Actions may appear in a different order to 
+	 * getStats(), but each JSON object is formatted identically.
+	 * 
+	 * @param maxStalenessMillis : the non-negative age in milliseconds beyond which a cached string is not returned;
+	 * 								0 always rebuilds
+	 * @return a JSON array string as for getStats()
+	 */
+	public String getStats ( long maxStalenessMillis )
+	{
+		synchronized ( this.statsCacheLock )  // only excludes other getStats(long) callers, never addAction
+		{
+			long now = System.nanoTime();
+			
+			if ( this.cachedStats != null && now - this.cachedStatsNanos <= maxStalenessMillis * 1000000 )
+			{
+				return this.cachedStats;
+			}
+			
+			StringBuilder stats = new StringBuilder( this.cachedStats == null ? 256 : this.cachedStats.length() + 256 );
+			long windowEpochs = this.getWindowEpochs( System.currentTimeMillis() );
+			int[] values = new int[ this.statsFields.size() ];
+			
+			stats.append( '[' );
+			
+			// an action on the heap keeps its JSON object between calls, re-serialized only if it has changed
+			this.forEachAction( new TimeTotal( this.windowMillis.length ), ( action, total ) -> {
+				if ( stats.length() > 1 )
+				{
+					stats.append( ',' );
+				}
+				stats.append( action.getStatsJson( total, windowEpochs, this.statsFields, values ) );
+			} );
+			
+			stats.append( ']' );
+			
+			this.cachedStats = stats.toString();
+			this.cachedStatsNanos = now;
+			
+			return this.cachedStats;
+		}
+	}
+	
+	/**
+	 * @return a value that changes whenever any window's current bucket does, and is constant between
+	 */
+	private long getWindowEpochs ( long nowMillis )
+	{
+		long epochs = 0;
+		
+		for ( long interval : this.windowIntervalMillis )
+		{
+			epochs += nowMillis / interval;   // each term never decreases, so the sum changes whenever any term does
+		}
+		
+		return epochs;
+	}
+	
+	/**
+	 * @param windowMillis : the length of a sliding window in milliseconds
+	 * @return the JSON field name for the average time of an action within the window: WINDOW_AVERAGE_TIME_JSON_FLD_PREFIX
+	 * 			followed by the length in the largest whole unit of h, m, s or ms, e.g. "avg_5m" for 300000
+	 */
+	public static String windowAverageJsonField ( long windowMillis )
+	{
+		String length;
+		
+		if ( windowMillis % 3600000 == 0 )
+		{
+			length = ( windowMillis / 3600000 ) + "h";
+		}
+		else if ( windowMillis % 60000 == 0 )
+		{
+			length = ( windowMillis / 60000 ) + "m";
+		}
+		else if ( windowMillis % 1000 == 0 )
+		{
+			length = ( windowMillis / 1000 ) + "s";
+		}
+		else
+		{
+			length = windowMillis + "ms";
+		}
+		
+		return WINDOW_AVERAGE_TIME_JSON_FLD_PREFIX + length;
+	}
+	
+	/**
+	 * Writes the average time for all actions in the same JSON array format as getStats(), streaming each action's
+	 * JSON object straight from the action data; memory use does not grow with the number of actions. Actions may 
+	 * appear in a different order to getStats(), but each JSON object is formatted identically. The writer is flushed
+	 * but not closed.
+	 * 
+	 * @param writer : a non-null Writer
+	 * @throws IOException if writing fails
+	 */
+	public void writeStats ( Writer writer ) throws IOException
+	{
+		writer.write( '[' );
+		this.writeStatsObjects( writer, true );
+		writer.write( ']' );
+		writer.flush();
+	}
+	
+	/**
+	 * Writes the JSON object of each action as for writeStats(Writer), separated by commas, without the enclosing array
+	 * 
+	 * @param first : true if nothing has been written to the array yet, so no comma precedes the first object
+	 * @return true if nothing has been written to the array yet, neither before the call nor by it
+	 */
+	boolean writeStatsObjects ( Writer writer, boolean first ) throws IOException
+	{
+		int[] values = new int[ this.statsFields.size() ];
+		boolean[] none = { first };   // nothing written to the array yet
+		
+		this.forEachAction( new TimeTotal( this.windowMillis.length ), ( action, total ) -> {
+			action.readStats( total, values );
+			
+			if ( ! none[0] )
+			{
+				writer.write( ',' );
+			}
+			none[0] = false;
+			
+			this.statsFields.write( writer, action.getActionName(), values );
+		} );
+		
+		return none[0];
+	}
+	
+	/**
+	 * Writes the average time for all actions as for writeStats(Writer), encoded in UTF-8. 
+	 * The stream is flushed but not closed.
+	 * 
+	 * @param out : a non-null OutputStream
+	 * @throws IOException if writing fails
+	 */
+	public void writeStats ( OutputStream out ) throws IOException
+	{
+		this.writeStats( new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ) );
+	}
+	
+	/**
+	 * Returns the average time for all actions stored with this object as a JSONArray object
+	 * 
+	 * @return a JSONArray containing a JSONObject for each action; each JSON object has two fields,
+	 * 			ACTION_NAME_JSON_FLD and AVERAGE_TIME_JSON_FLD, plus the percentile and maximum fields if histograms
+	 * 			are enabled, a windowAverageJsonField for each window if windows are enabled, and EWMA_TIME_JSON_FLD 
+	 * 			if an EWMA is enabled
+	 */
+	public JSONArray getStatsAsJSONArray ()
+	{
+		JSONArray actionsAverages = new JSONArray();
+		
+		// collected in a HashMap first so actions keep the order getStats() has always listed them in
+		Map<String, int[]> actionStatsMap = new HashMap<String, int[]>();
+		
+		this.forEachAction( new TimeTotal( this.windowMillis.length ), ( action, total ) -> {
+			int[] values = new int[ this.statsFields.size() ];
+			
+			action.readStats( total, values );
+			actionStatsMap.put( action.getActionName(), values );
+		} );
+		
+		for ( String actionName : actionStatsMap.keySet() )
+		{
+			actionsAverages.put( this.statsFields.toJSONObject( actionName, actionStatsMap.get( actionName ) ) );
+		}
+		
+		return actionsAverages;
+	}
+	
+	/**
+	 *  Returns the average time for all actions stored with this object as a Map
+	 * 
+	 * @return a Map containing the action name as keys and the average time as values
+	 */
+	public Map<String, Integer> getStatsAsMap ()
+	{
+		Map<String, Integer> averagesMap = new HashMap<String, Integer>();
+		
+		// neither the map's monitor nor any AverageCalcData's is taken, so reading stats never blocks addAction
+		this.forEachAction( new TimeTotal(), ( action, total ) -> averagesMap.put( action.getActionName(), total.getAverage() ) );
+		
+		return averagesMap;
+	}
+	
+	/**
+	 * Returns the exact total time and count of every action, in a compact binary form (see ActionState) that 
+	 * merge(byte[]) adds to another tracker. Unlike the rounded averages of getStats, states merge exactly: merging the
+	 * states of several trackers, in any order or grouping, gives the averages of one tracker that had been added every
+	 * action. Each action's total and count are read consistently, without locking; actions added during the export may
+	 * or may not be included.
+	 * 
+	 * @return the exported state
+	 */
+	public byte[] exportState ()
+	{
+		ActionState state = new ActionState();
+		
+		this.forEachTotal( state::add );
+		
+		return state.toByteArray();
+	}
+	
+	/**
+	 * Adds the total time and count of every action of another tracker to this one, as merge(byte[]) would with the 
+	 * other tracker's exportState, without encoding them
+	 * 
+	 * @param other : a non-null tracker other than this; actions added to it during the merge may or may not be included
+	 */
+	public void merge ( AddActionAssignment other )
+	{
+		other.forEachTotal( this::addMerged );
+	}
+	
+	/**
+	 * Adds the total time and count of every action in an exported state to this tracker, so each action's average 
+	 * becomes that of the actions added here and those exported together. Merged actions count towards averages only:
+	 * not towards histograms, sliding windows or the EWMA, for which the state holds no data. When a log is enabled,
+	 * each merged total is logged, and must be within the range of a long.
+	 * 
+	 * @param state : a non-null state returned by exportState or exportDelta
+	 * @throws IllegalArgumentException if state was not returned by exportState or exportDelta, or is corrupt, in which
+	 * 									case nothing has been merged
+	 */
+	public void merge ( byte[] state )
+	{
+		ActionState.read( state, this::addMerged );
+	}
+	
+	/**
+	 * Passes the name, total and count of every action with a positive count to the given sink
+	 */
+	private void forEachTotal ( ActionState.TotalSink sink )
+	{
+		this.forEachAction( new TimeTotal(), ( action, total ) -> {
+			byte[] name = action.getActionNameBytes();
+			
+			sink.add( name, 0, name.length, total.high, total.low, total.count );
+		} );
+	}
+	
+	/**
+	 * Adds a merged action's total time and count
+	 * 
+	 * @param actionName : a non-null array containing the action name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 * @param high : the high 64 bits of the total time
+	 * @param low : the low 64 bits of the total time
+	 * @param count : the positive number of actions
+	 */
+	private void addMerged ( byte[] actionName, int offset, int length, long high, long low, long count )
+	{
+		if ( this.log != null )
+		{
+			this.log.append( actionName, offset, length, low, count );
+		}
+		
+		if ( this.offHeapTable != null )
+		{
+			this.offHeapTable.add( actionName, offset, length, high, low, count );
+			return;
+		}
+		
+		AverageCalcData data = this.heapStore.get( this.dictionary.getId( actionName, offset, length ) );
+		
+		data.addTotal( high, low, count );
+		this.changed( data );
+	}
+	
+	/**
+	 * Returns the increase in each action's total time and count since the last call (or since construction), in the 
+	 * form of exportState, so that merge(byte[]) adds it to a tracker that has merged the earlier deltas. Only the 
+	 * actions changed since the last call are read, however many there are in all. Each call is a checkpoint: a change 
+	 * made during a call is in either its delta or the next.
+	 * 
+	 * Requires delta tracking to be enabled (see AddActionOptions.deltas), which off-heap storage does not support.
+	 * 
+	 * @return the delta
+	 * @throws IllegalStateException if delta tracking is not enabled
+	 */
+	public byte[] exportDelta ()
+	{
+		if ( this.dirtyActions == null )
+		{
+			throw new IllegalStateException( this.offHeapTable != null 
+												? "exportDelta is not supported with off-heap storage"
+												: "exportDelta requires delta tracking, see AddActionOptions.deltas" );
+		}
+		
+		this.flushBuffers();
+		
+		synchronized ( this.deltaLock )
+		{
+			ActionState delta = new ActionState();
+			TimeTotal total = new TimeTotal();
+			AverageCalcData data = this.dirtyActions.getAndSet( null );
+			
+			while ( data != null )
+			{
+				AverageCalcData next = data.nextDirty;   // read before the flag is cleared, as it may then be pushed again
+				
+				data.nextDirty = null;
+				data.clearDirty();
+				
+				total.clear();
+				data.addTo( total );
+				
+				long low = total.low - data.exportedLow;
+				long high = total.high - data.exportedHigh - ( Long.compareUnsigned( total.low, data.exportedLow ) < 0 ? 1 : 0 );
+				long count = total.count - data.exportedCount;
+				
+				if ( count != 0 )   // a change after the flag was set on a previous call may have been exported already
+				{
+					byte[] name = data.actionName.getBytes( StandardCharsets.UTF_8 );
+					
+					delta.add( name, 0, name.length, high, low, count );
+					
+					data.exportedHigh = total.high;
+					data.exportedLow = total.low;
+					data.exportedCount = total.count;
+				}
+				
+				data = next;
+			}
+			
+			return delta.toByteArray();
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package jumpcloud;
+
+import java.nio.file.Path;
+
+/**
+ * Options for constructing an AddActionAssignment. Every option has a default matching AddActionAssignment(), 
+ * and each setter returns this so options can be chained:
+ * 
+ * 	new AddActionAssignment( new AddActionOptions().concurrentMap( true ).histograms( true ) )
+ * 
+ * Options are copied by the AddActionAssignment constructor, so later changes to an instance do not affect 
+ * trackers already constructed from it.
+ * 
+ * The constructor throws IllegalArgumentException for an option outside the range documented for it, and for options
+ * documented as unsupported together.
+ */
+public class AddActionOptions
+{
+	/**
+	 * What a thread adding an action does when the async queue it goes to is full (see async)
+	 */
+	public enum Backpressure
+	{
+		/**
+		 * Wait for space: no action is lost, and producers are slowed to the rate the consumers apply actions
+		 */
+		BLOCK,
+		
+		/**
+		 * Drop the action: producers are never slowed, and every action beyond the queue's capacity is lost
+		 */
+		DROP,
+		
+		/**
+		 * Keep one action in SAMPLE_ONE_IN, chosen at random, once the queue is more than half full, and drop the rest,
+		 * as well as every action when it is full: producers are never slowed, and averages stay unbiased by the drops
+		 */
+		SAMPLE
+	}
+	
+	/**
+	 * The share of actions kept by Backpressure.SAMPLE when a queue is more than half full
+	 */
+	public static final int SAMPLE_ONE_IN = 8;
+	
+	boolean concurrentMap = false;
+	int stripes = 1;
+	boolean histograms = false;
+	long[] windowMillis = new long[0];
+	long ewmaHalfLifeMillis = 0;
+	boolean offHeap = false;
+	Path persistentDirectory = null;
+	Path logFile = null;
+	int logBatchSize;
+	long logSyncIntervalMillis;
+	long snapshotIntervalMillis = 0;
+	boolean deltas = false;
+	int asyncConsumers = 0;
+	int asyncCapacity;
+	Backpressure asyncBackpressure;
+	int bufferMaxActions = 0;
+	long bufferMaxAgeMillis;
+	
+	
+	/**
+	 * @return a copy of these options for shard number shard of a ShardedAddActionAssignment, with the persistent 
+	 * 			directory and log file, if any, made the shard's own: a subdirectory "shard-<shard>" of the directory, 
+	 * 			and the log file's name followed by ".shard-<shard>"
+	 */
+	AddActionOptions forShard ( int shard )
+	{
+		AddActionOptions options = new AddActionOptions();
+		
+		options.concurrentMap = this.concurrentMap;
+		options.stripes = this.stripes;
+		options.histograms = this.histograms;
+		options.windowMillis = this.windowMillis.clone();
+		options.ewmaHalfLifeMillis = this.ewmaHalfLifeMillis;
+		options.offHeap = this.offHeap;
+		options.persistentDirectory = this.persistentDirectory == null ? null : this.persistentDirectory.resolve( "shard-" + shard );
+		options.logFile = this.logFile == null ? null : this.logFile.resolveSibling( this.logFile.getFileName() + ".shard-" + shard );
+		options.logBatchSize = this.logBatchSize;
+		options.logSyncIntervalMillis = this.logSyncIntervalMillis;
+		options.snapshotIntervalMillis = this.snapshotIntervalMillis;
+		options.deltas = this.deltas;
+		options.asyncConsumers = this.asyncConsumers;
+		options.asyncCapacity = this.asyncCapacity;
+		options.asyncBackpressure = this.asyncBackpressure;
+		options.bufferMaxActions = this.bufferMaxActions;
+		options.bufferMaxAgeMillis = this.bufferMaxAgeMillis;
+		
+		return options;
+	}
+	
+	/**
+	 * @param concurrentMap : if true, action data is kept in a ConcurrentHashMap and neither lookups nor first-insert
+	 * 						of an action name take a global lock; better suited to many concurrent ingesting threads.
+	 * 						Default false: a HashMap guarded by its own monitor.
+	 */
+	public AddActionOptions concurrentMap ( boolean concurrentMap )
+	{
+		this.concurrentMap = concurrentMap;
+		return this;
+	}
+	
+	/**
+	 * @param stripes : a positive number of cells to spread each action's total time and count over, so that threads 
+	 * 					adding to the same heavily used action do not all contend on one lock; rounded up to a power of 2.
+	 * 					Each stripe costs memory for every action, so values above the number of cores are wasted.
+	 * 					Default 1.
+	 */
+	public AddActionOptions stripes ( int stripes )
+	{
+		this.stripes = stripes;
+		return this;
+	}
+	
+	/**
+	 * @param histograms : if true, every time added is also recorded in a fixed-size log-linear histogram per action
+	 * 						(about 7KB each), and stats report P50_TIME_JSON_FLD, P90_TIME_JSON_FLD, P99_TIME_JSON_FLD, 
+	 * 						P999_TIME_JSON_FLD and MAX_TIME_JSON_FLD alongside the average. Default false.
+	 */
+	public AddActionOptions histograms ( boolean histograms )
+	{
+		this.histograms = histograms;
+		return this;
+	}
+	
+	/**
+	 * @param windowMillis : the lengths in milliseconds of sliding windows, each at least TimeWindows.BUCKETS (12), over 
+	 * 						which every action's average is also kept, e.g. 60000, 300000, 3600000. Each window is a ring of 
+	 * 						12 buckets rotated as time passes, so it averages between the last 11/12 of its length and all 
+	 * 						of it; it costs about 300 bytes per action (per stripe). Stats report a 
+	 * 						windowAverageJsonField for each window, 0 if it has no actions. Default none.
+	 */
+	public AddActionOptions windows ( long... windowMillis )
+	{
+		this.windowMillis = windowMillis.clone();
+		return this;
+	}
+	
+	/**
+	 * @param ewmaHalfLifeMillis : if positive, every action also keeps an exponentially weighted moving average of its 
+	 * 								times with this half-life in milliseconds, so a time added this long ago counts half 
+	 * 								as much as one added now; stats report it as EWMA_TIME_JSON_FLD. Every time counts,
+	 * 								however many are added at once, and the EWMA is kept in doubles in each stripe, 
+	 * 								updated under its lock with the total. Default 0: none.
+	 */
+	public AddActionOptions ewmaHalfLife ( long ewmaHalfLifeMillis )
+	{
+		this.ewmaHalfLifeMillis = ewmaHalfLifeMillis;
+		return this;
+	}
+	
+	/**
+	 * @param offHeap : if true, every action's name, total time and count is kept outside the Java heap, in a hash table
+	 * 					of direct ByteBuffers split into independently locked segments, at 64 to 128 bytes plus the 
+	 * 					name's UTF-8 bytes per action (about 130 in all for 35-byte names), none of which the garbage
+	 * 					collector traces, against about 220 bytes of heap per action otherwise; suited to tens of 
+	 * 					millions of actions. Stats report the average only, so concurrentMap, stripes, histograms, 
+	 * 					windows and ewmaHalfLife must be left at their defaults. Default false.
+	 */
+	public AddActionOptions offHeap ( boolean offHeap )
+	{
+		this.offHeap = offHeap;
+		return this;
+	}
+	
+	/**
+	 * @param directory : if non-null, the off-heap table is kept in memory-mapped files in this directory, which is 
+	 * 					created if need be and must be used by no other tracker, so a tracker constructed on it again 
+	 * 					after a restart or crash recovers every action's total time and count by mapping the files, 
+	 * 					rather than from new traffic. Adds run at memory speed, written back by the operating system; 
+	 * 					AddActionAssignment.sync forces them to storage. Each slot keeps two checksummed copies of its 
+	 * 					totals, so a crash part way through an update loses at most that update. Implies offHeap( true ),
+	 * 					with the same restrictions on the other options. Default null: not persistent.
+	 */
+	public AddActionOptions persistent ( Path directory )
+	{
+		this.persistentDirectory = directory;
+		this.offHeap = this.offHeap || directory != null;
+		return this;
+	}
+	
+	/**
+	 * @param file : if non-null, every action added is also appended to a write-ahead log in this file, which is 
+	 * 				created if need be and, with the files named after it, must be used by no other tracker; a tracker 
+	 * 				constructed on it again replays the log to rebuild every action's stats (sliding windows and the 
+	 * 				EWMA see replayed actions as added at that time). Records are a few bytes plus the action name, 
+	 * 				grouped by a writer thread into one write and force of the file per batch (group commit). Not to 
+	 * 				be combined with persistent, whose recovered totals the replay would add to again. Default null: 
+	 * 				no log.
+	 * @param batchSize : a positive number of waiting records at which a batch is written without waiting for 
+	 * 					syncIntervalMillis; threads adding to a batch of this many wait for it to be taken by the writer
+	 * @param syncIntervalMillis : the longest time in milliseconds an action waits to be written and forced, so at most 
+	 * 							this long of actions is lost in a crash; or 0 for every add to return only once its 
+	 * 							action has been forced, batched with those of concurrently adding threads
+	 */
+	public AddActionOptions log ( Path file, int batchSize, long syncIntervalMillis )
+	{
+		this.logFile = file;
+		this.logBatchSize = batchSize;
+		this.logSyncIntervalMillis = syncIntervalMillis;
+		return this;
+	}
+	
+	/**
+	 * @param snapshotIntervalMillis : if positive and a log is enabled, every this many milliseconds a background 
+	 * 								thread closes the log's current file and folds the closed files into a binary snapshot
+	 * 								of every action's total time and count, then deletes them; the log is then replayed 
+	 * 								by loading the snapshot and only the actions logged since. Ingesting threads are not 
+	 * 								paused. Histograms are rebuilt from the actions logged since the snapshot only. 
+	 * 								Default 0: the log grows without bound.
+	 */
+	public AddActionOptions snapshotInterval ( long snapshotIntervalMillis )
+	{
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
+		return this;
+	}
+	
+	/**
+	 * @param deltas : if true, every action changed since the last AddActionAssignment.exportDelta is tracked, so a delta 
+	 * 					reads only those actions rather than all of them. The first change to an action after a delta sets
+	 * 					a flag on it by compare-and-set and pushes it on a lock-free list; later changes only read the 
+	 * 					flag, after a memory fence. Not supported with offHeap. Default false.
+	 */
+	public AddActionOptions deltas ( boolean deltas )
+	{
+		this.deltas = deltas;
+		return this;
+	}
+	
+	/**
+	 * @param consumers : if positive, actions are added asynchronously: addAction enqueues each action in a lock-free
+	 * 					bounded ring buffer and returns, and this many consumer threads apply them, each owning the 
+	 * 					queue of a partition of the action names, so consumers do not contend with each other. A consumer 
+	 * 					totals what it takes from its queue locally and updates the shared action data, taking its lock
+	 * 					as any other update does, once per distinct action per drain; an idle consumer parks until an
+	 * 					action is enqueued. Stats lag the actions still queued; 
+	 * 					AddActionAssignment.flush waits for them. The batch methods (addActions), which already total 
+	 * 					locally, are applied directly. With offHeap, queued names are resolved to ids in a dictionary on 
+	 * 					the heap. Default 0: actions are applied by the thread adding them.
+	 * @param capacity : the number of actions each queue holds, rounded up to a power of 2; 8 bytes each
+	 * @param backpressure : what a thread adding an action does when its queue is full
+	 */
+	public AddActionOptions async ( int consumers, int capacity, Backpressure backpressure )
+	{
+		this.asyncConsumers = consumers;
+		this.asyncCapacity = capacity;
+		this.asyncBackpressure = backpressure;
+		return this;
+	}
+	
+	/**
+	 * @param maxActions : if positive, each thread adding actions one at a time (addAction) totals them per action in a 
+	 * 					buffer of its own, and its totals are added to the shared action data once per distinct action 
+	 * 					when it holds this many actions, at most ActionBatch.MAX_ACTIONS (65536), so a thread adding 
+	 * 					at a high rate does not contend with other threads on every action. A buffer holds a total
+	 * 					only for each action added since its totals were last added, however many names there are.
+	 * 					The batch methods 
+	 * 					(addActions), which already total locally, are applied directly. With offHeap, buffered names 
+	 * 					are resolved to ids in a dictionary on the heap. Default 0: no buffers.
+	 * @param maxAgeMillis : a positive number of milliseconds; a background thread adds the totals of any buffer holding 
+	 * 					actions older than this, and of any buffer whose thread has died, so a thread that stops adding 
+	 * 					does not hold its actions back, and no buffered action is lost. Reading stats or exporting 
+	 * 					state or a delta first adds every buffer's totals, so reads are not behind the actions added 
+	 * 					before them; AddActionAssignment.flush does the same.
+	 */
+	public AddActionOptions threadLocalBuffers ( int maxActions, long maxAgeMillis )
+	{
+		this.bufferMaxActions = maxActions;
+		this.bufferMaxAgeMillis = maxAgeMillis;
+		return this;
+	}
+}
@@ -0,0 +1,343 @@
+package jumpcloud;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Used internally by AddActionAssignment, containing the running total time and the current number of actions (the divisor) 
+ * for calculating the average; instances are associated with a given action name in a Map.
+ * 
+ * Unstriped, the instance is its own single TimeCell. Striped, updates are spread over several cells (the instance being 
+ * the first) chosen by the calling thread, in the manner of java.util.concurrent.atomic.LongAdder, so threads adding to the 
+ * same action mostly take different locks. getAverage() reads each cell consistently without locking it, so every action 
+ * counted in a cell's count is also in its total: the average is never computed from a torn total/count pair.
+ * 
+ * An exponentially weighted moving average can also be kept in each cell (see TimeEwma); it is reported alongside the
+ * average of the total, as the results diverge.
+ * 
+ */
+class AverageCalcData extends TimeCell implements ActionStore.Action
+{
+	/**
+	 * The percentiles reported from the histogram, in the order of statsFieldNames
+	 */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	
+	private static final VarHandle DIRTY;
+	static
+	{
+		try
+		{
+			DIRTY = MethodHandles.lookup().findVarHandle( AverageCalcData.class, "dirty", int.class );
+		}
+		catch ( ReflectiveOperationException e )
+		{
+			throw new ExceptionInInitializerError( e );
+		}
+	}
+	
+	/**
+	 * The name of the action this is the data for
+	 */
+	final String actionName;
+	
+	/**
+	 * This action's JSON object as last built by AddActionAssignment.getStats(long), and the count it was built from;
+	 * guarded by that AddActionAssignment's statsCacheLock
+	 */
+	String statsJson;
+	long statsJsonCount;
+	long statsJsonWindowEpochs;
+	
+	/**
+	 * The cells updates are spread over, the first being this; null if not striped
+	 */
+	private final TimeCell[] cells;
+	
+	/**
+	 * The distribution of this action's times; null if histograms are not enabled
+	 */
+	final TimeHistogram histogram;
+	
+	/**
+	 * The clock and half-life of the EWMA each cell keeps, shared by every action; null if an EWMA is not enabled
+	 */
+	private final TimeEwma ewma;
+	
+	/**
+	 * When delta tracking is enabled, 1 while this action is on its tracker's list of changed actions, and the next 
+	 * action on that list; set by compare-and-set, and cleared by AddActionAssignment.exportDelta
+	 */
+	private volatile int dirty;
+	AverageCalcData nextDirty;
+	
+	/**
+	 * The total and count as of the last delta this action was exported in; guarded by the tracker's deltaLock
+	 */
+	long exportedHigh;
+	long exportedLow;
+	long exportedCount;
+	
+	
+	/**
+	 * @param actionName : the non-null name of the action
+	 * @param stripes : a positive number of cells to spread updates over; rounded up to a power of 2
+	 * @param histogram : true to record every time in a TimeHistogram
+	 * @param windowMillis : the length in milliseconds of each sliding window to keep, or an empty array for none
+	 * @param ewma : the EWMA clock and half-life, or null to keep no EWMA
+	 */
+	AverageCalcData ( String actionName, int stripes, boolean histogram, long[] windowMillis, TimeEwma ewma )
+	{
+		super( windowMillis, ewma );
+		
+		this.actionName = actionName;
+		this.ewma = ewma;
+		this.histogram = histogram ? new TimeHistogram() : null;
+		
+		if ( stripes <= 1 )
+		{
+			this.cells = null;
+			return;
+		}
+		
+		this.cells = new TimeCell[ Integer.highestOneBit( stripes - 1 ) << 1 ];
+		this.cells[0] = this;
+		
+		for ( int i = 1; i < this.cells.length; ++i )
+		{
+			this.cells[i] = new PaddedTimeCell( windowMillis, ewma );
+		}
+	}
+	
+	/** 
+	 * @param amount : the amount to add to the total
+	 */
+	public void addToTotal ( int amount )
+	{
+		this.cell().add( amount );
+		
+		if ( this.histogram != null )
+		{
+			this.histogram.record( amount );
+		}
+	}
+	
+	/** 
+	 * Adds to the total only; the caller records each amount in the histogram, if there is one
+	 * 
+	 * @param amount : the total amount to add to the total
+	 * @param number : the number of actions amount is the total of
+	 */
+	public void addToTotal ( long amount, long number )
+	{
+		this.cell().add( amount, number );
+	}
+	
+	/**
+	 * Sets the dirty flag, after a change to the totals
+	 * 
+	 * @return true if the flag was clear, so the caller must put this action on the list of changed actions
+	 */
+	boolean markDirty ()
+	{
+		// a full fence orders the change before the flag is read: otherwise a stale set flag could be read while 
+		// exportDelta clears it and reads the totals without the change, which would then wait for another change
+		VarHandle.fullFence();
+		
+		return this.dirty == 0 && DIRTY.compareAndSet( this, 0, 1 );
+	}
+	
+	/**
+	 * Clears the dirty flag, before the totals are read
+	 */
+	void clearDirty ()
+	{
+		this.dirty = 0;
+		VarHandle.fullFence();   // the flag is clear before the totals are read, see markDirty
+	}
+	
+	/**
+	 * @return the cell the calling thread adds to
+	 */
+	private TimeCell cell ()
+	{
+		if ( this.cells == null )
+		{
+			return this;
+		}
+		
+		// threads ids are usually sequential, so spread them before masking
+		long threadId = Thread.currentThread().getId();
+		return this.cells[ (int) ( ( threadId * 0x9E3779B97F4A7C15L ) >>> 32 ) & ( this.cells.length - 1 ) ];
+	}
+	
+	/**
+	 * @return the current calculated average
+	 */
+	public int getAverage ()
+	{
+		TimeTotal total = new TimeTotal();
+		
+		this.addTo( total );
+		
+		return total.getAverage();
+	}
+	
+	/**
+	 * @param histogram : true if histograms are enabled
+	 * @param windowMillis : the length in milliseconds of each sliding window kept
+	 * @param ewma : true if an EWMA is enabled
+	 * @return the names of the stats readStats reports, in the order it reports them
+	 */
+	static String[] statsFieldNames ( boolean histogram, long[] windowMillis, boolean ewma )
+	{
+		List<String> names = new ArrayList<String>();
+		
+		names.add( AddActionAssignment.AVERAGE_TIME_JSON_FLD );
+		
+		if ( histogram )
+		{
+			names.addAll( Arrays.asList( AddActionAssignment.P50_TIME_JSON_FLD, AddActionAssignment.P90_TIME_JSON_FLD, 
+											AddActionAssignment.P99_TIME_JSON_FLD, AddActionAssignment.P999_TIME_JSON_FLD, 
+											AddActionAssignment.MAX_TIME_JSON_FLD ) );
+		}
+		
+		for ( long window : windowMillis )
+		{
+			names.add( AddActionAssignment.windowAverageJsonField( window ) );
+		}
+		
+		if ( ewma )
+		{
+			names.add( AddActionAssignment.EWMA_TIME_JSON_FLD );
+		}
+		
+		return names.toArray( new String[0] );
+	}
+	
+	@Override
+	public String getActionName ()
+	{
+		return this.actionName;
+	}
+	
+	@Override
+	public byte[] getActionNameBytes ()
+	{
+		return this.actionName.getBytes( StandardCharsets.UTF_8 );
+	}
+	
+	/**
+	 * Reads this action's stats, in the order named by statsFieldNames
+	 * 
+	 * @param total : this action's total, as read by addTo
+	 * @param values : receives the stats
+	 */
+	@Override
+	public void readStats ( TimeTotal total, int[] values )
+	{
+		int i = 0;
+		
+		values[ i++ ] = total.getAverage();
+		
+		if ( this.histogram != null )
+		{
+			this.histogram.getPercentiles( PERCENTILES, values, i );
+			i += PERCENTILES.length;
+			values[ i++ ] = this.histogram.getMax();
+		}
+		
+		for ( int w = 0; w < total.windowCounts.length; ++w )
+		{
+			// a window with no actions in it reports 0
+			values[ i++ ] = total.windowCounts[w] == 0 ? 0 : (int) ( total.windowTotals[w] / total.windowCounts[w] );
+		}
+		
+		if ( this.ewma != null )
+		{
+			values[ i++ ] = total.getEwma();
+		}
+	}
+	
+	/**
+	 * Returns the JSON object last built, if it was built from the same count and windowEpochs, and otherwise builds it
+	 * and keeps it in statsJson
+	 */
+	@Override
+	public String getStatsJson ( TimeTotal total, long windowEpochs, ActionStatsFields fields, int[] values )
+	{
+		if ( this.statsJson == null || this.statsJsonCount != total.count || this.statsJsonWindowEpochs != windowEpochs )
+		{
+			this.readStats( total, values );
+			this.statsJson = fields.toJson( this.actionName, values );
+			this.statsJsonCount = total.count;
+			this.statsJsonWindowEpochs = windowEpochs;
+		}
+		
+		return this.statsJson;
+	}
+	
+	/**
+	 * Adds the total and count of every cell to the given total; each cell is read consistently, without locking it
+	 */
+	void addTo ( TimeTotal total )
+	{
+		if ( this.cells == null )
+		{
+			this.addCellTo( total );
+			return;
+		}
+		
+		for ( TimeCell cell : this.cells )
+		{
+			cell.addCellTo( total );
+		}
+	}
+	
+	/**
+	 * Divides a 128-bit two's complement dividend by a positive divisor, truncating toward zero 
+	 * as BigInteger.divide does; only the low 64 bits of the quotient are returned.
+	 * 
+	 * @param high : the high 64 bits of the dividend
+	 * @param low : the low 64 bits of the dividend
+	 * @param divisor : a positive divisor
+	 */
+	static long divide ( long high, long low, long divisor )
+	{
+		if ( high == ( low >> 63 ) )  // dividend fits in a long
+		{
+			return low / divisor;
+		}
+		
+		boolean negative = high < 0;
+		
+		if ( negative )  // divide the magnitude and negate the quotient
+		{
+			low = -low;
+			high = ~high + ( low == 0 ? 1 : 0 );
+		}
+		
+		// schoolbook binary division of the low word, carrying in the remainder of the high word;
+		// remainder < divisor < 2^63, so shifting it left one bit cannot overflow an unsigned long
+		long remainder = Long.remainderUnsigned( high, divisor );
+		long quotient = 0;
+		
+		for ( int i = 63; i >= 0; --i )
+		{
+			remainder = ( remainder << 1 ) | ( ( low >>> i ) & 1 );
+			quotient <<= 1;
+			
+			if ( Long.compareUnsigned( remainder, divisor ) >= 0 )
+			{
+				remainder -= divisor;
+				quotient |= 1;
+			}
+		}
+		
+		return negative ? -quotient : quotient;
+	}
+}
@@ -0,0 +1,187 @@
+package jumpcloud;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Used internally by AddActionAssignment, unless off-heap storage is enabled: every action's AverageCalcData, by name
+ * in a map and by id in the tracker's dictionary in an array.
+ * 
+ * With concurrentMap the map is a ConcurrentHashMap, whose lookups and inserts take no global lock; otherwise it is a
+ * HashMap guarded by its own monitor, and the records are also kept in insertion order in an array, so that they can
+ * be read without taking the monitor.
+ */
+class HeapActionStore implements ActionStore
+{
+	/**
+	 * Maps an action name to the data for calculating an average time for that action
+	 */
+	private final Map<String, AverageCalcData> actionsAverageTimeData;
+	
+	/**
+	 * true if actionsAverageTimeData is a ConcurrentHashMap and is accessed without taking its monitor
+	 */
+	private final boolean concurrentMap;
+	
+	/**
+	 * When not concurrentMap, every AverageCalcData in actionsAverageTimeData in insertion order, so that stats can be
+	 * read without taking the map's monitor. Appended to only under that monitor; elements [0, recordCount) are published
+	 * by the volatile write of recordCount, and a grown array is published before the count that needs it.
+	 */
+	private volatile AverageCalcData[] records = new AverageCalcData[ 16 ];
+	private volatile int recordCount;
+	
+	/**
+	 * The AverageCalcData of each action, by its id in dictionary; null where not yet looked up. Replaced by a longer
+	 * copy under recordsByIdLock; an element is set without the lock, as every thread would set it to the same record.
+	 */
+	private volatile AverageCalcData[] recordsById = new AverageCalcData[ 16 ];
+	private final Object recordsByIdLock = new Object();
+	
+	private final ActionDictionary dictionary;
+	
+	// the options each new AverageCalcData is created with
+	private final int stripes;
+	private final boolean histograms;
+	private final long[] windowMillis;
+	private final TimeEwma ewma;
+	
+	
+	/**
+	 * @param concurrentMap : true to keep the records in a ConcurrentHashMap
+	 * @param dictionary : the tracker's dictionary, which ids passed to get(int) are in
+	 * @param stripes : as for AverageCalcData
+	 * @param histograms : as for AverageCalcData
+	 * @param windowMillis : as for AverageCalcData
+	 * @param ewma : as for AverageCalcData
+	 */
+	HeapActionStore ( boolean concurrentMap, ActionDictionary dictionary, int stripes, boolean histograms, long[] windowMillis, TimeEwma ewma )
+	{
+		this.concurrentMap = concurrentMap;
+		this.dictionary = dictionary;
+		this.stripes = stripes;
+		this.histograms = histograms;
+		this.windowMillis = windowMillis;
+		this.ewma = ewma;
+		
+		if ( concurrentMap )
+		{
+			this.actionsAverageTimeData = new ConcurrentHashMap<String, AverageCalcData>();
+		}
+		else
+		{
+			this.actionsAverageTimeData = new HashMap<String, AverageCalcData>();
+		}
+	}
+	
+	/**
+	 * Returns the data for the given action, creating it if this is the first time the action has been seen
+	 * 
+	 * @param actionName : a non-null name for the action
+	 */
+	AverageCalcData get ( String actionName )
+	{
+		AverageCalcData data = null;
+		
+		if ( this.concurrentMap )
+		{
+			data = this.actionsAverageTimeData.get( actionName );  // plain get first: computeIfAbsent may lock the bin
+			
+			if ( data == null )
+			{
+				data = this.actionsAverageTimeData.computeIfAbsent( actionName, name -> new AverageCalcData( name, this.stripes, this.histograms, this.windowMillis, this.ewma ) );
+			}
+			
+			return data;
+		}
+		
+		synchronized ( this.actionsAverageTimeData )
+		{
+			data = this.actionsAverageTimeData.get( actionName );
+			
+			if ( data == null )
+			{
+				data = new AverageCalcData( actionName, this.stripes, this.histograms, this.windowMillis, this.ewma );
+				this.actionsAverageTimeData.put( actionName, data );
+				
+				int count = this.recordCount;
+				if ( count == this.records.length )
+				{
+					this.records = Arrays.copyOf( this.records, count * 2 );
+				}
+				this.records[ count ] = data;
+				this.recordCount = count + 1;
+			}
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Returns the data for the action with the given id, creating it if this is the first time the action has been seen
+	 * 
+	 * @param actionId : an id from the tracker's dictionary
+	 */
+	AverageCalcData get ( int actionId )
+	{
+		AverageCalcData[] recordsById = this.recordsById;
+		AverageCalcData data = actionId < recordsById.length ? recordsById[ actionId ] : null;
+		
+		if ( data != null )
+		{
+			return data;
+		}
+		
+		data = this.get( this.dictionary.getName( actionId ) );
+		
+		if ( actionId >= recordsById.length )
+		{
+			synchronized ( this.recordsByIdLock )
+			{
+				if ( actionId >= this.recordsById.length )
+				{
+					this.recordsById = Arrays.copyOf( this.recordsById, Math.max( actionId + 1, this.recordsById.length * 2 ) );
+				}
+				recordsById = this.recordsById;
+			}
+		}
+		
+		recordsById[ actionId ] = data;   // may be lost to a concurrent copy, in which case it is looked up again
+		
+		return data;
+	}
+	
+	@Override
+	public <E extends Exception> void forEach ( TimeTotal total, Visitor<E> visitor ) throws E
+	{
+		if ( this.concurrentMap )   // iteration over a ConcurrentHashMap is weakly consistent and needs no lock
+		{
+			for ( AverageCalcData data : this.actionsAverageTimeData.values() )
+			{
+				visit( data, total, visitor );
+			}
+			return;
+		}
+		
+		int count = this.recordCount;   // read before records, see records
+		AverageCalcData[] records = this.records;
+		
+		for ( int i = 0; i < count; ++i )
+		{
+			visit( records[i], total, visitor );
+		}
+	}
+	
+	private static <E extends Exception> void visit ( AverageCalcData data, TimeTotal total, Visitor<E> visitor ) throws E
+	{
+		total.clear();
+		data.addTo( total );
+		
+		if ( total.count > 0 )   // 0 if inserted by another thread but not yet added to
+		{
+			visitor.visit( data, total );
+		}
+	}
+}
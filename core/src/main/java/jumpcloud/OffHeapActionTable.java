@@ -0,0 +1,985 @@
+package jumpcloud;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Used internally by AddActionAssignment, when off-heap storage is enabled (see AddActionOptions.offHeap), as its
+ * ActionStore in place of a HeapActionStore: every action's name, total time and count is held outside the Java heap,
+ * so tens of millions of actions cost the garbage collector nothing to trace and no more memory than their bytes.
+ * 
+ * The table is split into segments chosen by the high bits of an action name's hash; each segment is an open-addressing
+ * (linear probing) hash table of fixed-size slots in one direct ByteBuffer, with the UTF-8 bytes of its action names
+ * appended to a second. A slot holds:
+ * 
+ * 	offset  0	int		hash of the name; 0 if the slot is empty
+ * 			4	int		length of the name in bytes
+ * 			8	int		offset of the name in the segment's name buffer
+ * 			16	long	version, odd while the totals are being updated
+ * 			24	long	high 64 bits of the total
+ * 			32	long	low 64 bits of the total
+ * 			40	long	count
+ * 
+ * Updates, inserts and growing a segment are made under the segment's monitor. Reads take no lock: a slot is read
+ * optimistically against its version, as TimeCell is, and a new slot is published by the release write of its hash,
+ * after its name and first totals. A segment that grows is copied into new buffers, so a read that started on the old
+ * ones sees each action as it was when the segment grew.
+ * 
+ * A durable table (see AddActionOptions.persistent) keeps each segment's buffers in memory-mapped files, so it survives
+ * a restart by being mapped again rather than rebuilt. To survive a crash part way through writing a slot, a durable
+ * slot's totals are double-buffered: from offset 24 it holds two copies of
+ * 
+ * 	offset  0	long	sequence number of the update that wrote the copy; 0 if never written
+ * 			8	long	high 64 bits of the total
+ * 			16	long	low 64 bits of the total
+ * 			24	long	count
+ * 			32	long	checksum of the above and the slot's hash
+ * 
+ * and update n writes copy n % 2, leaving the copy written by update n - 1 intact; the version is twice the sequence
+ * number of the current copy. When a table is opened, each slot's copy with the highest sequence number and a valid
+ * checksum is taken as current, and a slot whose name does not match its hash, or with no valid copy, is dropped.
+ * A segment grows by writing new files and renaming them over the old. A header file, written once every segment's
+ * files exist, records the number of segments and the layout, and a directory whose files do not match it is refused.
+ */
+class OffHeapActionTable implements ActionStore
+{
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle( int[].class, ByteOrder.nativeOrder() );
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle( long[].class, ByteOrder.nativeOrder() );
+	
+	static final int SLOT_BYTES = 48;
+	static final int DURABLE_SLOT_BYTES = 104;
+	
+	private static final int HASH = 0;
+	private static final int NAME_LENGTH = 4;
+	private static final int NAME_OFFSET = 8;
+	private static final int VERSION = 16;
+	private static final int TOTALS = 24;
+	
+	// relative to the totals of a slot, which for a durable slot are those of its current copy
+	private static final int TOTAL_HIGH = 0;
+	private static final int TOTAL_LOW = 8;
+	private static final int COUNT = 16;
+	
+	// relative to a durable slot's copy
+	private static final int COPY_BYTES = 40;
+	private static final int COPY_SEQUENCE = 0;
+	private static final int COPY_TOTALS = 8;
+	private static final int COPY_CHECKSUM = 32;
+	
+	private static final int INITIAL_SLOTS = 64;              // a power of 2
+	private static final int INITIAL_NAME_BYTES = 1024;
+	
+	private static final String SLOTS_FILE_SUFFIX = ".slots";
+	private static final String NAMES_FILE_SUFFIX = ".names";
+	private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+	private static final String SEGMENT_FILE_PREFIX = "segment-";
+	
+	// a durable table's header file: magic, layout version, number of segments, slot bytes, then a CRC32C of those
+	private static final String HEADER_FILE = "table.header";
+	private static final long HEADER_MAGIC = 0x4A435441424C4548L;   // "JCTABLEH"
+	private static final int LAYOUT_VERSION = 1;
+	private static final int HEADER_BYTES = 28;
+	
+	/**
+	 * Per-thread buffer the UTF-8 bytes of an action name are encoded into for lookup
+	 */
+	private static final ThreadLocal<byte[]> NAME_BYTES = ThreadLocal.withInitial( () -> new byte[ 256 ] );
+	
+	
+	private final Segment[] segments;
+	
+	/**
+	 * Shifts a hash right to leave the bits that choose its segment; the slot within it is chosen by the low bits
+	 */
+	private final int segmentShift;
+	
+	
+	/**
+	 * @param segments : a positive number of independently locked segments; rounded up to a power of 2
+	 */
+	OffHeapActionTable ( int segments )
+	{
+		this.segments = new Segment[ roundUpToPowerOf2( segments ) ];
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros( this.segments.length );
+		
+		for ( int i = 0; i < this.segments.length; ++i )
+		{
+			this.segments[i] = new Segment();
+		}
+	}
+	
+	/**
+	 * Opens a durable table in the given directory, recovering the table already there if there is one
+	 * 
+	 * The directory's header file records the number of segments and the layout of their slots; it is written last
+	 * when the table is first created, and renamed into place, so a directory holding segment files but no header is
+	 * one whose creation was interrupted before any action was added, and its segment files are deleted.
+	 * 
+	 * @param segments : a positive number of independently locked segments, rounded up to a power of 2; ignored if
+	 * 					the directory already holds a table, whose number of segments is kept
+	 * @param directory : a non-null directory, created if it does not exist, used only by this table
+	 * @throws IOException if the files cannot be created, read or mapped, or if the header is corrupt, of another
+	 * 						layout, or does not match the segment files in the directory
+	 */
+	OffHeapActionTable ( int segments, Path directory ) throws IOException
+	{
+		Files.createDirectories( directory );
+		
+		Path header = directory.resolve( HEADER_FILE );
+		Set<String> segmentFiles = new HashSet<String>();
+		
+		try ( DirectoryStream<Path> files = Files.newDirectoryStream( directory ) )
+		{
+			for ( Path file : files )
+			{
+				String name = file.getFileName().toString();
+				
+				if ( name.endsWith( TEMPORARY_FILE_SUFFIX ) )
+				{
+					Files.delete( file );   // left by a crash while growing; the file it was to replace is intact
+				}
+				else if ( name.startsWith( SEGMENT_FILE_PREFIX ) )
+				{
+					segmentFiles.add( name );
+				}
+			}
+		}
+		
+		boolean created = ! Files.exists( header );
+		
+		if ( created )
+		{
+			for ( String name : segmentFiles )
+			{
+				Files.delete( directory.resolve( name ) );
+			}
+			
+			segmentFiles.clear();
+		}
+		
+		this.segments = new Segment[ created ? roundUpToPowerOf2( segments ) : readHeader( header ) ];
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros( this.segments.length );
+		
+		for ( int i = 0; i < this.segments.length && ! created; ++i )
+		{
+			boolean slots = segmentFiles.remove( SEGMENT_FILE_PREFIX + i + SLOTS_FILE_SUFFIX );
+			boolean names = segmentFiles.remove( SEGMENT_FILE_PREFIX + i + NAMES_FILE_SUFFIX );
+			
+			if ( ! slots || ! names )
+			{
+				throw new IOException( "action table directory does not match its header, segment " + i + " is missing: " + directory );
+			}
+		}
+		
+		if ( ! segmentFiles.isEmpty() )   // more segments than the header records
+		{
+			throw new IOException( "action table directory does not match its header, unexpected " + segmentFiles + ": " + directory );
+		}
+		
+		for ( int i = 0; i < this.segments.length; ++i )
+		{
+			this.segments[i] = new Segment( directory.resolve( SEGMENT_FILE_PREFIX + i ) );
+		}
+		
+		if ( created )
+		{
+			writeHeader( header, this.segments.length );
+		}
+	}
+	
+	/**
+	 * Writes a header file to a temporary file, forces it, and renames it into place
+	 */
+	private static void writeHeader ( Path header, int segments ) throws IOException
+	{
+		ByteBuffer bytes = ByteBuffer.allocate( HEADER_BYTES );
+		CRC32C crc = new CRC32C();
+		
+		bytes.putLong( HEADER_MAGIC ).putInt( LAYOUT_VERSION ).putInt( segments ).putInt( DURABLE_SLOT_BYTES );
+		crc.update( bytes.array(), 0, bytes.position() );
+		bytes.putLong( crc.getValue() ).flip();
+		
+		Path temporary = header.resolveSibling( header.getFileName() + TEMPORARY_FILE_SUFFIX );
+		
+		try ( FileChannel channel = FileChannel.open( temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+														StandardOpenOption.WRITE ) )
+		{
+			while ( bytes.hasRemaining() )
+			{
+				channel.write( bytes );
+			}
+			
+			channel.force( true );
+		}
+		
+		Files.move( temporary, header, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+	}
+	
+	/**
+	 * @return the number of segments recorded in a header file
+	 * @throws IOException if the file cannot be read, is corrupt, or records another layout
+	 */
+	private static int readHeader ( Path header ) throws IOException
+	{
+		byte[] contents = Files.readAllBytes( header );
+		CRC32C crc = new CRC32C();
+		
+		if ( contents.length != HEADER_BYTES )
+		{
+			throw new IOException( "corrupt action table header: " + header );
+		}
+		
+		ByteBuffer bytes = ByteBuffer.wrap( contents );
+		
+		if ( bytes.getLong() != HEADER_MAGIC )
+		{
+			throw new IOException( "not an action table header: " + header );
+		}
+		
+		int version = bytes.getInt();
+		int segments = bytes.getInt();
+		int slotBytes = bytes.getInt();
+		
+		crc.update( contents, 0, bytes.position() );
+		
+		if ( bytes.getLong() != crc.getValue() )
+		{
+			throw new IOException( "corrupt action table header: " + header );
+		}
+		
+		if ( version != LAYOUT_VERSION || slotBytes != DURABLE_SLOT_BYTES || segments <= 0 || Integer.bitCount( segments ) != 1 )
+		{
+			throw new IOException( "action table of an unsupported layout (version " + version + ", " + segments + " segments of "
+									+ slotBytes + "-byte slots): " + header );
+		}
+		
+		return segments;
+	}
+	
+	private static int roundUpToPowerOf2 ( int n )
+	{
+		return n <= 1 ? 1 : Integer.highestOneBit( n - 1 ) << 1;
+	}
+	
+	/**
+	 * Adds to an action's total time and count, inserting the action if this is the first time it has been seen
+	 * 
+	 * @param actionName : a non-null name for the action
+	 * @param amount : the total time to add
+	 * @param number : the positive number of actions amount is the total of
+	 */
+	void add ( String actionName, long amount, long number )
+	{
+		byte[] name = NAME_BYTES.get();
+		
+		if ( name.length < actionName.length() * 3 )   // no char encodes to more than 3 bytes
+		{
+			name = new byte[ actionName.length() * 3 ];
+			NAME_BYTES.set( name );
+		}
+		
+		int length = encode( actionName, 0, actionName.length(), name );
+		
+		this.add( name, 0, length, amount, number );
+	}
+	
+	/**
+	 * As for add(String, long, long), with the action name given as UTF-8 bytes
+	 * 
+	 * @param name : a non-null array containing the action name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 */
+	void add ( byte[] name, int offset, int length, long amount, long number )
+	{
+		this.add( name, offset, length, amount >> 63, amount, number );
+	}
+	
+	/**
+	 * As for add(byte[], int, int, long, long), with the total time to add given as a 128-bit two's complement integer
+	 * 
+	 * @param amountHigh : the high 64 bits of the total time to add
+	 * @param amountLow : the low 64 bits of the total time to add
+	 */
+	void add ( byte[] name, int offset, int length, long amountHigh, long amountLow, long number )
+	{
+		int hash = hash( name, offset, length );
+		
+		// with one segment the shift is 32, which Java takes as 0, so mask as well
+		this.segments[ ( hash >>> this.segmentShift ) & ( this.segments.length - 1 ) ].add( hash, name, offset, length, amountHigh, amountLow, number );
+	}
+	
+	/**
+	 * @return the number of bytes of direct or mapped memory held
+	 */
+	long memoryBytes ()
+	{
+		long bytes = 0;
+		
+		for ( Segment segment : this.segments )
+		{
+			bytes += segment.slots.capacity() + segment.names.capacity();
+		}
+		
+		return bytes;
+	}
+	
+	/**
+	 * Writes every change to a durable table through to the storage device; does nothing if the table is not durable
+	 */
+	void force ()
+	{
+		for ( Segment segment : this.segments )
+		{
+			if ( segment.file != null )
+			{
+				( (MappedByteBuffer) segment.names ).force();
+				( (MappedByteBuffer) segment.slots ).force();
+			}
+		}
+	}
+	
+	/**
+	 * Encodes chars as UTF-8, as String.getBytes would, without allocating
+	 * 
+	 * @param chars : the chars to encode
+	 * @param start : the index of the first char to encode
+	 * @param end : the index after the last char to encode
+	 * @param bytes : receives the bytes; at least 3 per char
+	 * @return the number of bytes written
+	 */
+	static int encode ( CharSequence chars, int start, int end, byte[] bytes )
+	{
+		int length = 0;
+		
+		for ( int i = start; i < end; ++i )
+		{
+			char c = chars.charAt( i );
+			
+			if ( c < 0x80 )
+			{
+				bytes[ length++ ] = (byte) c;
+			}
+			else if ( c < 0x800 )
+			{
+				bytes[ length++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+				bytes[ length++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+			}
+			else if ( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( chars.charAt( i + 1 ) ) )
+			{
+				int codePoint = Character.toCodePoint( c, chars.charAt( ++i ) );
+				
+				bytes[ length++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+				bytes[ length++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+				bytes[ length++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+				bytes[ length++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+			}
+			else if ( Character.isSurrogate( c ) )   // unpaired, replaced as String.getBytes does
+			{
+				bytes[ length++ ] = '?';
+			}
+			else
+			{
+				bytes[ length++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+				bytes[ length++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+				bytes[ length++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+			}
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * @return a well mixed, non-zero hash of the bytes
+	 */
+	static int hash ( byte[] bytes, int offset, int length )
+	{
+		int hash = 0;
+		
+		for ( int i = offset; i < offset + length; ++i )
+		{
+			hash = 31 * hash + bytes[i];
+		}
+		
+		return mix( hash );
+	}
+	
+	/**
+	 * @return the hash of bytes held in a buffer, as for hash(byte[], int, int)
+	 */
+	private static int hash ( ByteBuffer bytes, int offset, int length )
+	{
+		int hash = 0;
+		
+		for ( int i = offset; i < offset + length; ++i )
+		{
+			hash = 31 * hash + bytes.get( i );
+		}
+		
+		return mix( hash );
+	}
+	
+	private static int mix ( int hash )
+	{
+		// the finalizer of MurmurHash3, so both the high bits (segment) and low bits (slot) depend on every byte
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		hash ^= hash >>> 16;
+		
+		return hash == 0 ? 1 : hash;
+	}
+	
+	/**
+	 * @return the checksum of a durable slot's copy
+	 */
+	private static long checksum ( int hash, long sequence, long high, long low, long count )
+	{
+		long checksum = mix( hash * 0x9E3779B97F4A7C15L ^ sequence );
+		
+		checksum = mix( checksum ^ high );
+		checksum = mix( checksum ^ low );
+		
+		return mix( checksum ^ count );
+	}
+	
+	private static long mix ( long value )
+	{
+		// the finalizer of SplitMix64
+		value = ( value ^ ( value >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		value = ( value ^ ( value >>> 27 ) ) * 0x94D049BB133111EBL;
+		
+		return value ^ ( value >>> 31 );
+	}
+	
+	
+	/**
+	 * One independently locked hash table
+	 */
+	private static final class Segment
+	{
+		/**
+		 * The path, without suffix, of the segment's files; null if it is not durable
+		 */
+		final Path file;
+		
+		/**
+		 * The number of bytes in each slot
+		 */
+		final int slotBytes;
+		
+		/**
+		 * The slots, a power of 2 of them, and the action names; replaced by larger copies as the segment grows
+		 */
+		volatile ByteBuffer slots;
+		volatile ByteBuffer names;
+		
+		/**
+		 * The number of slots in use and of name bytes in use; guarded by the monitor
+		 */
+		private int size;
+		private int namesLength;
+		
+		
+		/**
+		 * A segment kept in direct buffers
+		 */
+		Segment ()
+		{
+			this.file = null;
+			this.slotBytes = SLOT_BYTES;
+			this.slots = ByteBuffer.allocateDirect( INITIAL_SLOTS * SLOT_BYTES );
+			this.names = ByteBuffer.allocateDirect( INITIAL_NAME_BYTES );
+		}
+		
+		/**
+		 * A durable segment, recovered from its files if they exist
+		 * 
+		 * @param file : the path, without suffix, of the segment's files
+		 */
+		Segment ( Path file ) throws IOException
+		{
+			this.file = file;
+			this.slotBytes = DURABLE_SLOT_BYTES;
+			
+			if ( Files.exists( this.path( SLOTS_FILE_SUFFIX ) ) )
+			{
+				this.names = map( this.path( NAMES_FILE_SUFFIX ) );
+				this.slots = map( this.path( SLOTS_FILE_SUFFIX ) );
+				this.recover();
+			}
+			else
+			{
+				this.names = this.create( NAMES_FILE_SUFFIX, INITIAL_NAME_BYTES );
+				this.rename( NAMES_FILE_SUFFIX, this.names );
+				this.slots = this.create( SLOTS_FILE_SUFFIX, INITIAL_SLOTS * DURABLE_SLOT_BYTES );
+				this.rename( SLOTS_FILE_SUFFIX, this.slots );
+			}
+		}
+		
+		/**
+		 * @return the offset of the totals of the slot at base as of the given version
+		 */
+		int totals ( int base, long version )
+		{
+			if ( this.file == null )
+			{
+				return base + TOTALS;
+			}
+			
+			return base + TOTALS + (int) ( ( version >>> 1 ) & 1 ) * COPY_BYTES + COPY_TOTALS;
+		}
+		
+		synchronized void add ( int hash, byte[] name, int offset, int length, long amountHigh, long amountLow, long number )
+		{
+			ByteBuffer slots = this.slots;
+			int base = this.find( slots, hash, name, offset, length );
+			
+			if ( (int) INTS.get( slots, base + HASH ) == 0 )
+			{
+				this.insert( hash, name, offset, length, amountHigh, amountLow, number );
+				return;
+			}
+			
+			long version = (long) LONGS.get( slots, base + VERSION );
+			int totals = this.totals( base, version );
+			
+			long low = (long) LONGS.get( slots, totals + TOTAL_LOW );
+			long sumLow = low + amountLow;
+			long high = (long) LONGS.get( slots, totals + TOTAL_HIGH ) + amountHigh + ( Long.compareUnsigned( sumLow, low ) < 0 ? 1 : 0 );
+			long count = (long) LONGS.get( slots, totals + COUNT ) + number;
+			
+			LONGS.setOpaque( slots, base + VERSION, version + 1 );
+			VarHandle.storeStoreFence();   // the odd version is visible before the totals change
+			
+			this.writeTotals( slots, base, hash, version + 2, high, sumLow, count );
+			
+			LONGS.setRelease( slots, base + VERSION, version + 2 );
+		}
+		
+		/**
+		 * Writes a slot's totals as of the given version; for a durable slot, into the copy that version reads, with
+		 * its sequence number and checksum
+		 */
+		private void writeTotals ( ByteBuffer slots, int base, int hash, long version, long high, long low, long count )
+		{
+			int totals = this.totals( base, version );
+			
+			LONGS.set( slots, totals + TOTAL_HIGH, high );
+			LONGS.set( slots, totals + TOTAL_LOW, low );
+			LONGS.set( slots, totals + COUNT, count );
+			
+			if ( this.file != null )
+			{
+				long sequence = version >>> 1;
+				int copy = totals - COPY_TOTALS;
+				
+				LONGS.set( slots, copy + COPY_SEQUENCE, sequence );
+				LONGS.set( slots, copy + COPY_CHECKSUM, checksum( hash, sequence, high, low, count ) );
+			}
+		}
+		
+		/**
+		 * @return the offset of the slot holding the given name, or of the empty slot it would be inserted at
+		 */
+		private int find ( ByteBuffer slots, int hash, byte[] name, int offset, int length )
+		{
+			int mask = slots.capacity() / this.slotBytes - 1;
+			
+			for ( int i = hash & mask; ; i = ( i + 1 ) & mask )
+			{
+				int base = i * this.slotBytes;
+				int slotHash = (int) INTS.get( slots, base + HASH );
+				
+				if ( slotHash == 0 || ( slotHash == hash && this.nameEquals( slots, base, name, offset, length ) ) )
+				{
+					return base;
+				}
+			}
+		}
+		
+		private boolean nameEquals ( ByteBuffer slots, int base, byte[] name, int offset, int length )
+		{
+			if ( (int) INTS.get( slots, base + NAME_LENGTH ) != length )
+			{
+				return false;
+			}
+			
+			int nameOffset = (int) INTS.get( slots, base + NAME_OFFSET );
+			
+			for ( int i = 0; i < length; ++i )
+			{
+				if ( this.names.get( nameOffset + i ) != name[ offset + i ] )
+				{
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Inserts a new action with the given first totals, growing the segment first if it would be over 3/4 full
+		 */
+		private void insert ( int hash, byte[] name, int offset, int length, long amountHigh, long amountLow, long number )
+		{
+			if ( ( this.size + 1 ) * 4L > ( this.slots.capacity() / this.slotBytes ) * 3L )
+			{
+				this.growSlots();
+			}
+			
+			if ( this.namesLength + length > this.names.capacity() )
+			{
+				this.growNames( Math.max( this.names.capacity() * 2, this.namesLength + length ) );
+			}
+			
+			ByteBuffer names = this.names;
+			for ( int i = 0; i < length; ++i )
+			{
+				names.put( this.namesLength + i, name[ offset + i ] );
+			}
+			
+			ByteBuffer slots = this.slots;
+			int base = this.find( slots, hash, name, offset, length );
+			long version = this.file == null ? 0 : 2;   // a durable slot's first copy written has sequence number 1
+			
+			INTS.set( slots, base + NAME_LENGTH, length );
+			INTS.set( slots, base + NAME_OFFSET, this.namesLength );
+			LONGS.set( slots, base + VERSION, version );
+			this.writeTotals( slots, base, hash, version, amountHigh, amountLow, number );
+			INTS.setRelease( slots, base + HASH, hash );   // publishes the slot, after its name and totals
+			
+			this.namesLength += length;
+			++this.size;
+		}
+		
+		private void growNames ( int capacity )
+		{
+			ByteBuffer names = this.file == null ? ByteBuffer.allocateDirect( capacity ) : this.create( NAMES_FILE_SUFFIX, capacity );
+			ByteBuffer old = this.names.duplicate();
+			
+			old.position( 0 ).limit( this.namesLength );
+			names.put( old );
+			
+			if ( this.file != null )
+			{
+				this.rename( NAMES_FILE_SUFFIX, names );
+			}
+			
+			this.names = names;   // published before any slot referring to a name only in the new buffer
+		}
+		
+		/**
+		 * Rehashes every slot into a new buffer of twice as many
+		 */
+		private void growSlots ()
+		{
+			int capacity = this.slots.capacity() * 2;
+			ByteBuffer slots = this.file == null ? ByteBuffer.allocateDirect( capacity ) : this.create( SLOTS_FILE_SUFFIX, capacity );
+			
+			this.copySlots( this.slots, slots );
+			
+			if ( this.file != null )
+			{
+				this.rename( SLOTS_FILE_SUFFIX, slots );
+			}
+			
+			this.slots = slots;
+		}
+		
+		/**
+		 * Rehashes every slot in use in one buffer into another, which is empty
+		 */
+		private void copySlots ( ByteBuffer from, ByteBuffer to )
+		{
+			int mask = to.capacity() / this.slotBytes - 1;
+			
+			for ( int base = 0; base < from.capacity(); base += this.slotBytes )
+			{
+				int hash = (int) INTS.get( from, base + HASH );
+				
+				if ( hash == 0 )
+				{
+					continue;
+				}
+				
+				int i = hash & mask;
+				while ( (int) INTS.get( to, i * this.slotBytes + HASH ) != 0 )
+				{
+					i = ( i + 1 ) & mask;
+				}
+				
+				for ( int b = 0; b < this.slotBytes; b += 8 )   // only writers change a slot, and this holds the monitor
+				{
+					LONGS.set( to, i * this.slotBytes + b, (long) LONGS.get( from, base + b ) );
+				}
+			}
+		}
+		
+		/**
+		 * Makes a segment mapped from its files consistent: each slot's version is set from its current copy, and if
+		 * any slot is dropped the slots are rehashed without it, so no probe sequence is broken by the gap it leaves
+		 */
+		private void recover ()
+		{
+			ByteBuffer slots = this.slots;
+			boolean dropped = false;
+			
+			for ( int base = 0; base < slots.capacity(); base += DURABLE_SLOT_BYTES )
+			{
+				int hash = (int) INTS.get( slots, base + HASH );
+				
+				if ( hash == 0 )
+				{
+					continue;
+				}
+				
+				int length = (int) INTS.get( slots, base + NAME_LENGTH );
+				int offset = (int) INTS.get( slots, base + NAME_OFFSET );
+				long sequence = 0;
+				
+				if ( length >= 0 && offset >= 0 && (long) offset + length <= this.names.capacity()
+						&& hash( this.names, offset, length ) == hash )
+				{
+					sequence = this.currentSequence( slots, base, hash );
+				}
+				
+				if ( sequence == 0 )   // the name or both copies were being written
+				{
+					INTS.set( slots, base + HASH, 0 );
+					dropped = true;
+					continue;
+				}
+				
+				LONGS.set( slots, base + VERSION, sequence * 2 );
+				this.namesLength = Math.max( this.namesLength, offset + length );
+				++this.size;
+			}
+			
+			if ( dropped )
+			{
+				ByteBuffer rehashed = this.create( SLOTS_FILE_SUFFIX, slots.capacity() );
+				
+				this.copySlots( slots, rehashed );
+				this.rename( SLOTS_FILE_SUFFIX, rehashed );
+				this.slots = rehashed;
+			}
+		}
+		
+		/**
+		 * @return the highest sequence number of the durable slot's copies that are valid, or 0 if neither is
+		 */
+		private long currentSequence ( ByteBuffer slots, int base, int hash )
+		{
+			long sequence = 0;
+			
+			for ( int c = 0; c < 2; ++c )
+			{
+				int copy = base + TOTALS + c * COPY_BYTES;
+				long copySequence = (long) LONGS.get( slots, copy + COPY_SEQUENCE );
+				long checksum = checksum( hash, copySequence, (long) LONGS.get( slots, copy + COPY_TOTALS + TOTAL_HIGH ),
+											(long) LONGS.get( slots, copy + COPY_TOTALS + TOTAL_LOW ),
+											(long) LONGS.get( slots, copy + COPY_TOTALS + COUNT ) );
+				
+				if ( copySequence > sequence && ( copySequence & 1 ) == c && checksum == (long) LONGS.get( slots, copy + COPY_CHECKSUM ) )
+				{
+					sequence = copySequence;
+				}
+			}
+			
+			return sequence;
+		}
+		
+		private Path path ( String suffix )
+		{
+			return this.file.resolveSibling( this.file.getFileName() + suffix );
+		}
+		
+		/**
+		 * @return a new zero-filled temporary file of the given size, mapped, to be renamed over the file with the given
+		 * 			suffix once written
+		 */
+		private MappedByteBuffer create ( String suffix, int capacity )
+		{
+			try ( FileChannel channel = FileChannel.open( this.path( suffix + TEMPORARY_FILE_SUFFIX ), StandardOpenOption.CREATE_NEW,
+															StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+			{
+				return channel.map( FileChannel.MapMode.READ_WRITE, 0, capacity );
+			}
+			catch ( IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+		}
+		
+		/**
+		 * Forces a buffer returned by create to storage and renames its file over the file with the given suffix,
+		 * so a crash leaves either the whole old file or the whole new one
+		 */
+		private void rename ( String suffix, ByteBuffer buffer )
+		{
+			( (MappedByteBuffer) buffer ).force();
+			
+			try
+			{
+				Files.move( this.path( suffix + TEMPORARY_FILE_SUFFIX ), this.path( suffix ),
+							StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			}
+			catch ( IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+		}
+		
+		private static MappedByteBuffer map ( Path path ) throws IOException
+		{
+			try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+			{
+				return channel.map( FileChannel.MapMode.READ_WRITE, 0, channel.size() );
+			}
+		}
+	}
+	
+	
+	@Override
+	public <E extends Exception> void forEach ( TimeTotal total, Visitor<E> visitor ) throws E
+	{
+		Cursor cursor = new Cursor();
+		
+		while ( cursor.next() )
+		{
+			total.clear();
+			cursor.addTo( total );
+			
+			if ( total.count > 0 )   // 0 if inserted by another thread but not yet added to
+			{
+				visitor.visit( cursor, total );
+			}
+		}
+	}
+	
+	
+	/**
+	 * Iterates over every action without taking any lock; actions first seen during iteration may or may not be
+	 * included. Not thread-safe.
+	 */
+	final class Cursor implements ActionStore.Action
+	{
+		private int segment = -1;
+		private Segment current;
+		private ByteBuffer slots;
+		private int base;
+		
+		
+		/**
+		 * Moves to the next action
+		 * 
+		 * @return false if there are no more
+		 */
+		boolean next ()
+		{
+			while ( true )
+			{
+				if ( this.slots != null )
+				{
+					for ( this.base += this.current.slotBytes; this.base < this.slots.capacity(); this.base += this.current.slotBytes )
+					{
+						if ( (int) INTS.getAcquire( this.slots, this.base + HASH ) != 0 )
+						{
+							return true;
+						}
+					}
+				}
+				
+				if ( ++this.segment == OffHeapActionTable.this.segments.length )
+				{
+					this.slots = null;
+					return false;
+				}
+				
+				this.current = OffHeapActionTable.this.segments[ this.segment ];
+				this.slots = this.current.slots;
+				this.base = -this.current.slotBytes;
+			}
+		}
+		
+		/**
+		 * @return the current action's name
+		 */
+		@Override
+		public String getActionName ()
+		{
+			return new String( this.getActionNameBytes(), StandardCharsets.UTF_8 );
+		}
+		
+		/**
+		 * @return a new array holding the UTF-8 bytes of the current action's name
+		 */
+		@Override
+		public byte[] getActionNameBytes ()
+		{
+			int length = (int) INTS.get( this.slots, this.base + NAME_LENGTH );
+			int offset = (int) INTS.get( this.slots, this.base + NAME_OFFSET );
+			ByteBuffer names = this.current.names;   // read after the slot's hash
+			byte[] name = new byte[ length ];
+			
+			for ( int i = 0; i < length; ++i )
+			{
+				name[i] = names.get( offset + i );
+			}
+			
+			return name;
+		}
+		
+		/**
+		 * Reads the average only, as the table keeps nothing else
+		 */
+		@Override
+		public void readStats ( TimeTotal total, int[] values )
+		{
+			values[0] = total.getAverage();
+		}
+		
+		/**
+		 * Adds the current action's total and count to the given total, read consistently
+		 */
+		void addTo ( TimeTotal total )
+		{
+			while ( true )
+			{
+				long version = (long) LONGS.getAcquire( this.slots, this.base + VERSION );
+				int totals = this.current.totals( this.base, version );
+				
+				long high = (long) LONGS.get( this.slots, totals + TOTAL_HIGH );
+				long low = (long) LONGS.get( this.slots, totals + TOTAL_LOW );
+				long count = (long) LONGS.get( this.slots, totals + COUNT );
+				
+				VarHandle.loadLoadFence();   // the fields are read before the version is checked again
+				
+				if ( ( version & 1 ) == 0 && version == (long) LONGS.getOpaque( this.slots, this.base + VERSION ) )
+				{
+					total.add( high, low, count );
+					return;
+				}
+				
+				Thread.onSpinWait();
+			}
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package jumpcloud;
+
+/**
+ * A TimeCell padded so that cells allocated together in a stripe array do not share a cache line
+ */
+class PaddedTimeCell extends TimeCell
+{
+	long p0, p1, p2, p3, p4, p5, p6;
+	
+	PaddedTimeCell ( long[] windowMillis, TimeEwma ewma )
+	{
+		super( windowMillis, ewma );
+	}
+}
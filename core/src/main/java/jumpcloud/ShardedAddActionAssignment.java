@@ -0,0 +1,505 @@
+package jumpcloud;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Tracks the average time of actions as AddActionAssignment does, spread over a number of independent shards, each an
+ * AddActionAssignment with its own map, dictionary and locks; every action name always goes to the same shard, chosen
+ * by a hash of the name. Threads adding different actions therefore contend for, and resize, only one shard's map, and
+ * a shard's map holds only its share of the names.
+ * 
+ * Stats are those of every shard together: each action is in exactly one shard, so the shards' stats are concatenated
+ * rather than combined, and are formatted exactly as AddActionAssignment formats them. Actions are listed shard by
+ * shard. Action ids (AddActionAssignment.getActionId) are per shard, so they are not offered here.
+ * 
+ * The shard of a name depends on the number of shards, so a persistent or logged sharded tracker (see
+ * AddActionOptions.persistent and AddActionOptions.log, which are made per shard) must be reopened with the same number.
+ */
+public class ShardedAddActionAssignment
+{
+	private static final ThreadLocal<ActionJsonParser> PARSERS = ThreadLocal.withInitial( ActionJsonParser::new );
+	
+	private final AddActionAssignment[] shards;
+	
+	/**
+	 * true if the shards have histograms enabled, so batches keep every time
+	 */
+	private final boolean histograms;
+	
+	
+	/**
+	 * Constructs a tracker with AddActionOptions.concurrentMap and one shard per available processor
+	 */
+	public ShardedAddActionAssignment ()
+	{
+		this( new AddActionOptions().concurrentMap( true ) );
+	}
+	
+	/**
+	 * Constructs a tracker with one shard per available processor
+	 * 
+	 * @param options : a non-null set of options for every shard
+	 */
+	public ShardedAddActionAssignment ( AddActionOptions options )
+	{
+		this( options, Runtime.getRuntime().availableProcessors() );
+	}
+	
+	/**
+	 * @param options : a non-null set of options for every shard; the persistent directory and log file, if any, are
+	 * 					made each shard's own (see AddActionOptions.forShard)
+	 * @param shards : the positive number of shards
+	 * @throws IllegalArgumentException if shards is not positive, or as for AddActionAssignment(AddActionOptions)
+	 */
+	public ShardedAddActionAssignment ( AddActionOptions options, int shards )
+	{
+		if ( shards < 1 )
+		{
+			throw new IllegalArgumentException( "shards must be positive: " + shards );
+		}
+		
+		this.shards = new AddActionAssignment[ shards ];
+		this.histograms = options.histograms;
+		
+		for ( int i = 0; i < shards; ++i )
+		{
+			this.shards[i] = new AddActionAssignment( options.forShard( i ) );
+		}
+	}
+	
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount ()
+	{
+		return this.shards.length;
+	}
+	
+	/**
+	 * @param jsonStr : a non-null String in valid JSON format, as for AddActionAssignment.addAction(String)
+	 */
+	public void addAction ( String jsonStr )
+	{
+		ActionJsonParser parser = PARSERS.get();
+		
+		if ( parser.parse( jsonStr ) )
+		{
+			this.shard( parser.hashActionName() ).addParsed( parser );
+		}
+		else
+		{
+			this.addAction( new JSONObject( jsonStr ) );
+		}
+		
+		parser.clear();
+	}
+	
+	/**
+	 * @param jsonBytes : a non-null array containing, in UTF-8, a JSON object as for addAction(String)
+	 * @param offset : the index of the first byte of the JSON object
+	 * @param length : the number of bytes of the JSON object
+	 */
+	public void addAction ( byte[] jsonBytes, int offset, int length )
+	{
+		ActionJsonParser parser = PARSERS.get();
+		
+		if ( parser.parse( jsonBytes, offset, length ) )
+		{
+			this.shard( parser.hashActionName() ).addParsed( parser );
+		}
+		else
+		{
+			this.addAction( new String( jsonBytes, offset, length, StandardCharsets.UTF_8 ) );
+		}
+		
+		parser.clear();
+	}
+	
+	/**
+	 * @param jsonBuffer : a non-null buffer containing, in UTF-8, a JSON object as for addAction(String); the object
+	 * 						must end before its limit, and its position is not used; neither is changed
+	 * @param offset : the absolute index of the first byte of the JSON object
+	 * @param length : the number of bytes of the JSON object
+	 */
+	public void addAction ( ByteBuffer jsonBuffer, int offset, int length )
+	{
+		ActionJsonParser parser = PARSERS.get();
+		
+		if ( parser.parse( jsonBuffer, offset, length ) )
+		{
+			this.shard( parser.hashActionName() ).addParsed( parser );
+		}
+		else
+		{
+			byte[] jsonBytes = new byte[ length ];
+			
+			for ( int i = 0; i < length; ++i )
+			{
+				jsonBytes[i] = jsonBuffer.get( offset + i );
+			}
+			
+			this.addAction( jsonBytes, 0, length );
+		}
+		
+		parser.clear();
+	}
+	
+	/**
+	 * @param jsonObj : a non-null JSONObject as for AddActionAssignment.addAction(JSONObject)
+	 */
+	public void addAction ( JSONObject jsonObj )
+	{
+		this.addAction( jsonObj.getString( AddActionAssignment.ACTION_NAME_JSON_FLD ),
+						jsonObj.getInt( AddActionAssignment.TIME_JSON_FLD ) );
+	}
+	
+	/**
+	 * @param actionName : a non-null name for the action
+	 * @param time : the amount of time the action took
+	 */
+	public void addAction ( String actionName, int time )
+	{
+		this.shard( hash( actionName, 0, actionName.length() ) ).addAction( actionName, time );
+	}
+	
+	/**
+	 * @param actionName : a non-null array containing the action name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 * @param time : the amount of time the action took
+	 */
+	public void addAction ( byte[] actionName, int offset, int length, int time )
+	{
+		this.shard( hash( actionName, offset, length ) ).addAction( actionName, offset, length, time );
+	}
+	
+	/**
+	 * Adds a batch of actions, totalled locally per shard first as for AddActionAssignment.addActions(JSONArray)
+	 * 
+	 * @param jsonArray : a non-null JSONArray of JSONObjects, each as for addAction(JSONObject)
+	 */
+	public void addActions ( JSONArray jsonArray )
+	{
+		this.addActions( (Iterable<Object>) jsonArray );
+	}
+	
+	/**
+	 * Adds a batch of actions as for addActions(JSONArray)
+	 * 
+	 * @param actions : a non-null Iterable whose elements are each either a JSONObject as for addAction(JSONObject)
+	 * 					or a String as for addAction(String)
+	 */
+	public void addActions ( Iterable<?> actions )
+	{
+		ActionBatch[] batches = new ActionBatch[ this.shards.length ];
+		ActionJsonParser parser = PARSERS.get();
+		
+		for ( Object action : actions )
+		{
+			String actionName = null;
+			int time = 0;
+			int shard;
+			
+			if ( action instanceof JSONObject )
+			{
+				JSONObject jsonObj = (JSONObject) action;
+				
+				actionName = jsonObj.getString( AddActionAssignment.ACTION_NAME_JSON_FLD );
+				time = jsonObj.getInt( AddActionAssignment.TIME_JSON_FLD );
+				shard = this.shardIndex( hash( actionName, 0, actionName.length() ) );
+			}
+			else if ( parser.parse( (String) action ) )
+			{
+				shard = this.shardIndex( parser.hashActionName() );
+			}
+			else
+			{
+				JSONObject jsonObj = new JSONObject( (String) action );
+				
+				actionName = jsonObj.getString( AddActionAssignment.ACTION_NAME_JSON_FLD );
+				time = jsonObj.getInt( AddActionAssignment.TIME_JSON_FLD );
+				shard = this.shardIndex( hash( actionName, 0, actionName.length() ) );
+			}
+			
+			if ( batches[ shard ] == null )
+			{
+				batches[ shard ] = new ActionBatch( this.histograms );
+			}
+			
+			if ( actionName == null ? batches[ shard ].add( parser ) : batches[ shard ].add( actionName, time ) )
+			{
+				batches[ shard ].mergeInto( this.shards[ shard ] );
+			}
+		}
+		
+		parser.clear();
+		
+		for ( int i = 0; i < batches.length; ++i )
+		{
+			if ( batches[i] != null )
+			{
+				batches[i].mergeInto( this.shards[i] );
+			}
+		}
+	}
+	
+	/**
+	 * Returns the average time for all actions in every shard, as for AddActionAssignment.getStats()
+	 * 
+	 * @return a JSON array string containing a JSON object for each action
+	 */
+	public String getStats ()
+	{
+		StringBuilder stats = new StringBuilder( "[" );
+		
+		for ( AddActionAssignment shard : this.shards )
+		{
+			appendObjects( stats, shard.getStats() );
+		}
+		
+		return stats.append( ']' ).toString();
+	}
+	
+	/**
+	 * Returns the average time for all actions in every shard from each shard's cache, as for
+	 * AddActionAssignment.getStats(long)
+	 * 
+	 * @param maxStalenessMillis : the non-negative age in milliseconds beyond which a shard's cached string is not used
+	 * @return a JSON array string as for getStats()
+	 */
+	public String getStats ( long maxStalenessMillis )
+	{
+		StringBuilder stats = new StringBuilder( "[" );
+		
+		for ( AddActionAssignment shard : this.shards )
+		{
+			appendObjects( stats, shard.getStats( maxStalenessMillis ) );
+		}
+		
+		return stats.append( ']' ).toString();
+	}
+	
+	/**
+	 * Writes the average time for all actions in every shard as for AddActionAssignment.writeStats(Writer). The writer
+	 * is flushed but not closed.
+	 * 
+	 * @param writer : a non-null Writer
+	 * @throws IOException if writing fails
+	 */
+	public void writeStats ( Writer writer ) throws IOException
+	{
+		boolean first = true;
+		
+		writer.write( '[' );
+		
+		for ( AddActionAssignment shard : this.shards )
+		{
+			first = shard.writeStatsObjects( writer, first );
+		}
+		
+		writer.write( ']' );
+		writer.flush();
+	}
+	
+	/**
+	 * Writes the average time for all actions in every shard as for writeStats(Writer), encoded in UTF-8. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param out : a non-null OutputStream
+	 * @throws IOException if writing fails
+	 */
+	public void writeStats ( OutputStream out ) throws IOException
+	{
+		this.writeStats( new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ) );
+	}
+	
+	/**
+	 * @return a JSONArray containing a JSONObject for each action in every shard, as for
+	 * 			AddActionAssignment.getStatsAsJSONArray()
+	 */
+	public JSONArray getStatsAsJSONArray ()
+	{
+		JSONArray actionsAverages = new JSONArray();
+		
+		for ( AddActionAssignment shard : this.shards )
+		{
+			for ( Object action : shard.getStatsAsJSONArray() )
+			{
+				actionsAverages.put( action );
+			}
+		}
+		
+		return actionsAverages;
+	}
+	
+	/**
+	 * @return a Map containing the action name as keys and the average time as values, for every shard
+	 */
+	public Map<String, Integer> getStatsAsMap ()
+	{
+		Map<String, Integer> averagesMap = new HashMap<String, Integer>();
+		
+		for ( AddActionAssignment shard : this.shards )
+		{
+			averagesMap.putAll( shard.getStatsAsMap() );
+		}
+		
+		return averagesMap;
+	}
+	
+	/**
+	 * Flushes every shard, as for AddActionAssignment.flush
+	 */
+	public void flush ()
+	{
+		for ( AddActionAssignment shard : this.shards )
+		{
+			shard.flush();
+		}
+	}
+	
+	/**
+	 * Syncs every shard, as for AddActionAssignment.sync
+	 */
+	public void sync ()
+	{
+		for ( AddActionAssignment shard : this.shards )
+		{
+			shard.sync();
+		}
+	}
+	
+	/**
+	 * Closes every shard, as for AddActionAssignment.close
+	 */
+	public void close ()
+	{
+		for ( AddActionAssignment shard : this.shards )
+		{
+			shard.close();
+		}
+	}
+	
+	/**
+	 * Returns the hash of an action name used to choose its shard: String.hashCode of the name's UTF-8 bytes taken as
+	 * chars, so that a name hashes the same whether given as chars or as bytes, as hash(byte[], int, int) hashes it
+	 * 
+	 * @param chars : a non-null CharSequence containing the name
+	 * @param start : the index of the first char of the name
+	 * @param end : the index after the last char of the name
+	 */
+	static int hash ( CharSequence chars, int start, int end )
+	{
+		int hash = 0;
+		
+		for ( int i = start; i < end; ++i )
+		{
+			int c = chars.charAt( i );
+			
+			if ( c < 0x80 )
+			{
+				hash = 31 * hash + c;
+				continue;
+			}
+			
+			if ( Character.isSurrogate( (char) c ) )
+			{
+				if ( Character.isHighSurrogate( (char) c ) && i + 1 < end && Character.isLowSurrogate( chars.charAt( i + 1 ) ) )
+				{
+					c = Character.toCodePoint( (char) c, chars.charAt( ++i ) );
+				}
+				else
+				{
+					hash = 31 * hash + '?';   // as String.getBytes encodes an unpaired surrogate
+					continue;
+				}
+			}
+			
+			// the code point's UTF-8 bytes: 2 up to U+07FF, 3 up to U+FFFF, else 4
+			if ( c < 0x800 )
+			{
+				hash = 31 * hash + ( 0xC0 | ( c >> 6 ) );
+			}
+			else
+			{
+				if ( c < 0x10000 )
+				{
+					hash = 31 * hash + ( 0xE0 | ( c >> 12 ) );
+				}
+				else
+				{
+					hash = 31 * hash + ( 0xF0 | ( c >> 18 ) );
+					hash = 31 * hash + ( 0x80 | ( ( c >> 12 ) & 0x3F ) );
+				}
+				
+				hash = 31 * hash + ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+			}
+			
+			hash = 31 * hash + ( 0x80 | ( c & 0x3F ) );
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Returns the hash of an action name given in UTF-8, as for hash(CharSequence, int, int)
+	 * 
+	 * @param bytes : a non-null array containing the name in UTF-8
+	 * @param offset : the index of the first byte of the name
+	 * @param length : the number of bytes of the name
+	 */
+	static int hash ( byte[] bytes, int offset, int length )
+	{
+		int hash = 0;
+		
+		for ( int i = offset; i < offset + length; ++i )
+		{
+			hash = 31 * hash + ( bytes[i] & 0xFF );
+		}
+		
+		return hash;
+	}
+	
+	private AddActionAssignment shard ( int hash )
+	{
+		return this.shards[ this.shardIndex( hash ) ];
+	}
+	
+	/**
+	 * @return the shard of a name hash: the hash is mixed, as similar names have similar hashes, then scaled to the
+	 * 			number of shards by a multiply rather than a division
+	 */
+	private int shardIndex ( int hash )
+	{
+		int mixed = hash * 0x9E3779B9;
+		
+		return (int) ( ( ( mixed ^ ( mixed >>> 16 ) ) & 0xFFFFFFFFL ) * this.shards.length >>> 32 );
+	}
+	
+	/**
+	 * Appends the objects of a JSON array string to an array being built, with a separating comma if need be
+	 */
+	private static void appendObjects ( StringBuilder stats, String array )
+	{
+		if ( array.length() > 2 )
+		{
+			if ( stats.length() > 1 )
+			{
+				stats.append( ',' );
+			}
+			
+			stats.append( array, 1, array.length() - 1 );
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package jumpcloud;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A running total time and the number of actions added to it; the total is kept exactly as a 128-bit two's complement 
+ * integer held in two longs, so no objects are allocated when adding to it and it cannot overflow for any realistic 
+ * count of int amounts. Sliding windows and an EWMA of the times can also be kept, and are updated with the total.
+ * 
+ * Updates are made under the instance's monitor. Reads take no lock: they are optimistic, in the manner of 
+ * java.util.concurrent.locks.StampedLock, against a version that is odd while an update is in progress, and are retried 
+ * if an update overlapped them. A read therefore never blocks an update, and always sees a total and count that agree.
+ */
+class TimeCell
+{
+	private static final VarHandle VERSION;
+	static
+	{
+		try
+		{
+			VERSION = MethodHandles.lookup().findVarHandle( TimeCell.class, "version", long.class );
+		}
+		catch ( ReflectiveOperationException e )
+		{
+			throw new ExceptionInInitializerError( e );
+		}
+	}
+	
+	private long totalHigh;  // high 64 bits of the total
+	private long totalLow;   // low 64 bits of the total
+	private long count;
+	private long version;
+	
+	/**
+	 * Sliding windows of recent total and count, guarded like the other fields; null if none are kept
+	 */
+	private final TimeWindows windows;
+	
+	/**
+	 * The EWMA of the times added to this cell, guarded like the other fields; null if none is kept
+	 */
+	private final TimeEwma.Cell ewma;
+	
+	
+	/**
+	 * @param windowMillis : the length in milliseconds of each sliding window to keep, or an empty array for none
+	 * @param ewma : the EWMA clock and half-life, or null to keep no EWMA
+	 */
+	TimeCell ( long[] windowMillis, TimeEwma ewma )
+	{
+		this.windows = windowMillis.length == 0 ? null : new TimeWindows( windowMillis );
+		this.ewma = ewma == null ? null : ewma.newCell();
+	}
+	
+	/** 
+	 * @param amount : the amount to add to the total
+	 */
+	synchronized void add ( int amount )
+	{
+		long version = this.beginUpdate();
+		
+		++this.count;
+		
+		long low = this.totalLow + amount;
+		
+		// sign extension of amount into the high word, plus the carry out of the low word
+		this.totalHigh += ( amount >> 31 ) + ( Long.compareUnsigned( low, this.totalLow ) < 0 ? 1 : 0 );
+		this.totalLow = low;
+		
+		if ( this.windows != null || this.ewma != null )
+		{
+			this.addToWindowsAndEwma( amount, 1 );
+		}
+		
+		VERSION.setRelease( this, version + 2 );
+	}
+	
+	/** 
+	 * @param amount : the total amount to add to the total
+	 * @param number : the number of actions amount is the total of
+	 */
+	synchronized void add ( long amount, long number )
+	{
+		long version = this.beginUpdate();
+		
+		this.count += number;
+		
+		long low = this.totalLow + amount;
+		
+		this.totalHigh += ( amount >> 63 ) + ( Long.compareUnsigned( low, this.totalLow ) < 0 ? 1 : 0 );
+		this.totalLow = low;
+		
+		if ( this.windows != null || this.ewma != null )
+		{
+			this.addToWindowsAndEwma( amount, number );
+		}
+		
+		VERSION.setRelease( this, version + 2 );
+	}
+	
+	/**
+	 * Adds to the windows and the EWMA, whichever are kept; the caller holds the monitor
+	 */
+	private void addToWindowsAndEwma ( long amount, long number )
+	{
+		long nowMillis = System.currentTimeMillis();
+		
+		if ( this.windows != null )
+		{
+			this.windows.add( nowMillis, amount, number );
+		}
+		
+		if ( this.ewma != null )
+		{
+			this.ewma.add( nowMillis, amount, number );
+		}
+	}
+	
+	/** 
+	 * Adds to the total and count only, not to the windows or the EWMA
+	 * 
+	 * @param high : the high 64 bits of the total amount to add
+	 * @param low : the low 64 bits of the total amount to add
+	 * @param number : the number of actions the amount is the total of
+	 */
+	synchronized void addTotal ( long high, long low, long number )
+	{
+		long version = this.beginUpdate();
+		
+		this.count += number;
+		
+		long sumLow = this.totalLow + low;
+		
+		this.totalHigh += high + ( Long.compareUnsigned( sumLow, this.totalLow ) < 0 ? 1 : 0 );
+		this.totalLow = sumLow;
+		
+		VERSION.setRelease( this, version + 2 );
+	}
+	
+	/**
+	 * Marks an update as in progress; the caller holds the monitor
+	 * 
+	 * @return the version before the update
+	 */
+	private long beginUpdate ()
+	{
+		long version = this.version;
+		
+		VERSION.setOpaque( this, version + 1 );
+		VarHandle.storeStoreFence();   // the odd version is visible before any field it guards changes
+		
+		return version;
+	}
+	
+	/**
+	 * Adds this cell's total and count, and those of its windows and its EWMA sums as of total.nowMillis, to the given
+	 * total, without taking the monitor
+	 */
+	void addCellTo ( TimeTotal total )
+	{
+		while ( true )
+		{
+			long version = (long) VERSION.getAcquire( this );
+			
+			long high = this.totalHigh;
+			long low = this.totalLow;
+			long count = this.count;
+			
+			boolean readWindows = this.windows != null && total.windowTotals.length > 0;   // not wanted by getAverage
+			
+			if ( readWindows )
+			{
+				this.windows.read( total.nowMillis, total.readWindowTotals, total.readWindowCounts );
+			}
+			
+			if ( this.ewma != null )
+			{
+				this.ewma.read( total.nowMillis, total );
+			}
+			
+			VarHandle.loadLoadFence();   // the fields are read before the version is checked again
+			
+			if ( ( version & 1 ) == 0 && version == (long) VERSION.getOpaque( this ) )
+			{
+				total.add( high, low, count );
+				
+				if ( readWindows )
+				{
+					total.addWindowsRead();
+				}
+				
+				if ( this.ewma != null )
+				{
+					total.ewmaSum += total.readEwmaSum;
+					total.ewmaWeight += total.readEwmaWeight;
+				}
+				return;
+			}
+			
+			Thread.onSpinWait();
+		}
+	}
+}
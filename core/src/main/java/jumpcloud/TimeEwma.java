@@ -0,0 +1,126 @@
+package jumpcloud;
+
+/**
+ * Used internally by TimeCell to keep an exponentially weighted moving average (EWMA) of an action's times with a
+ * fixed half-life; one instance holds the clock and half-life shared by every action of an AddActionAssignment, and
+ * each cell keeps its state in a Cell.
+ * 
+ * Every time added counts, with a weight that halves every half-life after it was added, so the EWMA is the weighted
+ * mean of all the times added so far:
+ * 
+ * 	ewma = sum( time * 2^(-age / halfLife) ) / sum( 2^(-age / halfLife) )
+ * 
+ * A cell keeps both sums as of the clock tick of its last update, and decays them to the current tick before adding
+ * to them, so times added in the same tick count equally however many there are, and a time added after a long idle
+ * period replaces the average. As both sums decay alike, the EWMA does not change while no time is added, and the sums
+ * of several cells decayed to the same tick add up to those of one cell that had every time added to it.
+ * 
+ * A tick is 1/1024 of the half-life (at least 1ms), so the weights change in steps too small to matter.
+ */
+class TimeEwma
+{
+	/**
+	 * The length of a clock tick in milliseconds, and the half-life in ticks
+	 */
+	private final long tickMillis;
+	private final double halfLifeTicks;
+	
+	
+	/**
+	 * @param halfLifeMillis : the positive half-life in milliseconds
+	 */
+	TimeEwma ( long halfLifeMillis )
+	{
+		this.tickMillis = Math.max( 1, halfLifeMillis / 1024 );
+		this.halfLifeTicks = (double) halfLifeMillis / this.tickMillis;
+	}
+	
+	/**
+	 * @return a cell with no time added
+	 */
+	Cell newCell ()
+	{
+		return new Cell( this );
+	}
+	
+	/**
+	 * @param nowMillis : a time, from System.currentTimeMillis()
+	 * @return the clock tick of that time
+	 */
+	private long tick ( long nowMillis )
+	{
+		return nowMillis / this.tickMillis;
+	}
+	
+	/**
+	 * @return the factor by which weights decay over the given number of ticks, 2^(-ticks / halfLife); greater than 1
+	 * 			if ticks is negative
+	 */
+	private double decay ( long ticks )
+	{
+		return Math.pow( 0.5, ticks / this.halfLifeTicks );
+	}
+	
+	
+	/**
+	 * One cell's EWMA state.
+	 * 
+	 * Not thread-safe: add is called under the owning TimeCell's monitor, and read within its optimistic read.
+	 */
+	static final class Cell
+	{
+		private final TimeEwma ewma;
+		
+		/**
+		 * The weighted sum of the times added and the sum of their weights, as of tick
+		 */
+		private double sum;
+		private double weight;
+		private long tick;
+		
+		
+		private Cell ( TimeEwma ewma )
+		{
+			this.ewma = ewma;
+		}
+		
+		/**
+		 * @param nowMillis : the current time, from System.currentTimeMillis()
+		 * @param amount : the total time to add
+		 * @param number : the number of actions amount is the total of
+		 */
+		void add ( long nowMillis, double amount, long number )
+		{
+			long tick = this.ewma.tick( nowMillis );
+			
+			if ( tick > this.tick )
+			{
+				double decay = this.ewma.decay( tick - this.tick );
+				
+				this.sum *= decay;
+				this.weight *= decay;
+				this.tick = tick;
+			}
+			
+			// 1 unless the clock has gone back since the last update, in which case the time is added as that much older
+			double weight = this.ewma.decay( this.tick - tick );
+			
+			this.sum += amount * weight;
+			this.weight += number * weight;
+		}
+		
+		/**
+		 * Reads the sums decayed to the tick of the given time into total.readEwmaSum and total.readEwmaWeight
+		 * 
+		 * @param nowMillis : the time to read the sums as of, from System.currentTimeMillis()
+		 * @param total : receives the sums
+		 */
+		void read ( long nowMillis, TimeTotal total )
+		{
+			double decay = this.ewma.decay( this.ewma.tick( nowMillis ) - this.tick );
+			
+			total.readEwmaSum = this.sum * decay;
+			total.readEwmaWeight = this.weight * decay;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package jumpcloud;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Used internally by AverageCalcData to record the distribution of an action's times in a fixed number of log-linear 
+ * buckets, in the manner of HdrHistogram: times below 2^SUB_BUCKET_BITS each have their own bucket, and every higher 
+ * power of 2 range is split into 2^(SUB_BUCKET_BITS - 1) equal buckets, so a bucket is never wider than 1/32 of the 
+ * values in it. Negative times are recorded as 0.
+ * 
+ * Recording is one atomic increment of a bucket count, plus an atomic update of the maximum only when it grows;
+ * nothing is allocated and no lock is taken. Reads are not atomic with respect to concurrent recording, so a 
+ * percentile may or may not reflect times recorded while it is being read.
+ */
+class TimeHistogram
+{
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+	
+	/**
+	 * Buckets needed to cover every non-negative int: the linear range plus half a sub-bucket range for each 
+	 * power of 2 from 2^SUB_BUCKET_BITS to 2^30
+	 */
+	static final int BUCKET_COUNT = SUB_BUCKET_COUNT + ( 31 - SUB_BUCKET_BITS ) * SUB_BUCKET_HALF_COUNT;
+	
+	private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle( long[].class );
+	private static final VarHandle MAX;
+	static
+	{
+		try
+		{
+			MAX = MethodHandles.lookup().findVarHandle( TimeHistogram.class, "max", int.class );
+		}
+		catch ( ReflectiveOperationException e )
+		{
+			throw new ExceptionInInitializerError( e );
+		}
+	}
+	
+	private final long[] counts = new long[ BUCKET_COUNT ];
+	
+	private volatile int max;
+	
+	
+	/**
+	 * @param time : the time to record
+	 */
+	void record ( int time )
+	{
+		if ( time < 0 )
+		{
+			time = 0;
+		}
+		
+		COUNTS.getAndAdd( this.counts, bucketIndex( time ), 1L );
+		
+		int max = this.max;
+		while ( time > max && ! MAX.weakCompareAndSet( this, max, time ) )
+		{
+			max = this.max;
+		}
+	}
+	
+	/**
+	 * @return the largest time recorded, or 0 if none has been
+	 */
+	int getMax ()
+	{
+		return this.max;
+	}
+	
+	/**
+	 * Reads several percentiles in one pass over the buckets; each is reported as the highest time that falls in the 
+	 * same bucket as the true percentile (as HdrHistogram does), capped at the maximum recorded.
+	 * 
+	 * @param percentiles : percentiles in the range (0, 100], in ascending order
+	 * @param values : receives the time at each percentile, or 0 for all of them if nothing has been recorded
+	 * @param offset : the index in values for the first percentile
+	 */
+	void getPercentiles ( double[] percentiles, int[] values, int offset )
+	{
+		long total = 0;
+		for ( int i = 0; i < BUCKET_COUNT; ++i )
+		{
+			total += (long) COUNTS.getOpaque( this.counts, i );
+		}
+		
+		int max = this.max;
+		int p = 0;
+		long cumulative = 0;
+		
+		for ( int i = 0; i < BUCKET_COUNT && p < percentiles.length; ++i )
+		{
+			cumulative += (long) COUNTS.getOpaque( this.counts, i );
+			
+			while ( p < percentiles.length && cumulative > 0 
+						&& cumulative >= (long) Math.ceil( percentiles[p] / 100 * total ) )
+			{
+				values[ offset + p++ ] = Math.min( highestValueInBucket( i ), max );
+			}
+		}
+		
+		while ( p < percentiles.length )   // nothing recorded, or counts raced ahead of the total
+		{
+			values[ offset + p++ ] = total == 0 ? 0 : max;
+		}
+	}
+	
+	/**
+	 * @param value : a non-negative value
+	 * @return the index of the bucket holding value
+	 */
+	static int bucketIndex ( int value )
+	{
+		if ( value < SUB_BUCKET_COUNT )
+		{
+			return value;
+		}
+		
+		int shift = 31 - Integer.numberOfLeadingZeros( value ) - ( SUB_BUCKET_BITS - 1 );   // > 0
+		
+		// (value >>> shift) is in [SUB_BUCKET_HALF_COUNT, SUB_BUCKET_COUNT)
+		return shift * SUB_BUCKET_HALF_COUNT + ( value >>> shift );
+	}
+	
+	/**
+	 * @return the highest value that falls in the bucket with the given index
+	 */
+	static int highestValueInBucket ( int index )
+	{
+		if ( index < SUB_BUCKET_COUNT )
+		{
+			return index;
+		}
+		
+		int shift = ( index - SUB_BUCKET_HALF_COUNT ) / SUB_BUCKET_HALF_COUNT;
+		int subBucket = index - shift * SUB_BUCKET_HALF_COUNT;
+		
+		return (int) Math.min( Integer.MAX_VALUE, ( ( (long) subBucket + 1 ) << shift ) - 1 );
+	}
+}
@@ -0,0 +1,115 @@
+package jumpcloud;
+
+/**
+ * A total time and count read from one or more TimeCells, with the total and count of each of their sliding windows;
+ * not thread-safe
+ */
+class TimeTotal
+{
+	long high;   // high 64 bits of the total
+	long low;    // low 64 bits of the total
+	long count;
+	
+	/**
+	 * The time windows are read as of
+	 */
+	long nowMillis;
+	
+	/**
+	 * The total and count of each window
+	 */
+	final long[] windowTotals;
+	final long[] windowCounts;
+	
+	/**
+	 * The EWMA sums, see TimeEwma, decayed to the tick of nowMillis; 0 if no EWMA is kept
+	 */
+	double ewmaSum;
+	double ewmaWeight;
+	
+	/**
+	 * Scratch for a cell's windows and EWMA sums while its read is unconfirmed
+	 */
+	final long[] readWindowTotals;
+	final long[] readWindowCounts;
+	double readEwmaSum;
+	double readEwmaWeight;
+	
+	
+	TimeTotal ()
+	{
+		this( 0 );
+	}
+	
+	/**
+	 * @param windows : the number of sliding windows the cells read keep
+	 */
+	TimeTotal ( int windows )
+	{
+		this.windowTotals = new long[ windows ];
+		this.windowCounts = new long[ windows ];
+		this.readWindowTotals = new long[ windows ];
+		this.readWindowCounts = new long[ windows ];
+		this.nowMillis = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Adds the windows of a confirmed cell read
+	 */
+	void addWindowsRead ()
+	{
+		for ( int w = 0; w < this.windowTotals.length; ++w )
+		{
+			this.windowTotals[w] += this.readWindowTotals[w];
+			this.windowCounts[w] += this.readWindowCounts[w];
+		}
+	}
+	
+	/**
+	 * Adds a 128-bit total and a count
+	 */
+	void add ( long high, long low, long count )
+	{
+		long sumLow = this.low + low;
+		
+		this.high += high + ( Long.compareUnsigned( sumLow, this.low ) < 0 ? 1 : 0 );
+		this.low = sumLow;
+		this.count += count;
+	}
+	
+	/**
+	 * Resets the total and count, those of each window and the EWMA sums to zero, and sets the time windows are read as
+	 * of to now
+	 */
+	void clear ()
+	{
+		this.high = 0;
+		this.low = 0;
+		this.count = 0;
+		this.ewmaSum = 0;
+		this.ewmaWeight = 0;
+		this.nowMillis = System.currentTimeMillis();
+		
+		for ( int w = 0; w < this.windowTotals.length; ++w )
+		{
+			this.windowTotals[w] = 0;
+			this.windowCounts[w] = 0;
+		}
+	}
+	
+	/**
+	 * @return the average of the total, which must have a positive count
+	 */
+	int getAverage ()
+	{
+		return (int) AverageCalcData.divide( this.high, this.low, this.count );
+	}
+	
+	/**
+	 * @return the EWMA of the times read, rounded; 0 if every weight has decayed to nothing
+	 */
+	int getEwma ()
+	{
+		return this.ewmaWeight > 0 ? (int) Math.round( this.ewmaSum / this.ewmaWeight ) : 0;
+	}
+}
@@ -0,0 +1,110 @@
+package jumpcloud;
+
+/**
+ * Used internally by TimeCell to keep sliding windows of recent total time and count: each window is a ring of 
+ * BUCKETS buckets, each covering 1/BUCKETS of the window, so a window's stats cover between (BUCKETS - 1)/BUCKETS of 
+ * its length and all of it, depending on how far into the current bucket the clock is.
+ * 
+ * Buckets are rotated lazily by the next add that falls in a new interval: each bucket remembers the interval it holds 
+ * (its epoch) and is reset when reused for a later one, so no timer, global lock or pause is needed, and a bucket whose
+ * epoch has fallen out of the window is simply ignored when read.
+ * 
+ * Not thread-safe: add is called under the owning TimeCell's monitor, and read within its optimistic read.
+ */
+class TimeWindows
+{
+	/**
+	 * The number of buckets in each window
+	 */
+	static final int BUCKETS = 12;
+	
+	/**
+	 * The length in milliseconds of each window's buckets
+	 */
+	private final long[] intervalMillis;
+	
+	// for window w, bucket b is at index w * BUCKETS + b
+	private final long[] epochs;
+	private final long[] totals;
+	private final long[] counts;
+	
+	
+	/**
+	 * @param windowMillis : the length in milliseconds of each window; each at least BUCKETS
+	 */
+	TimeWindows ( long[] windowMillis )
+	{
+		this.intervalMillis = intervalMillis( windowMillis );
+		this.epochs = new long[ windowMillis.length * BUCKETS ];
+		this.totals = new long[ windowMillis.length * BUCKETS ];
+		this.counts = new long[ windowMillis.length * BUCKETS ];
+	}
+	
+	/**
+	 * @return the bucket length in milliseconds for each of the given window lengths
+	 */
+	static long[] intervalMillis ( long[] windowMillis )
+	{
+		long[] intervalMillis = new long[ windowMillis.length ];
+		
+		for ( int w = 0; w < windowMillis.length; ++w )
+		{
+			intervalMillis[w] = windowMillis[w] / BUCKETS;
+		}
+		
+		return intervalMillis;
+	}
+	
+	/**
+	 * @param nowMillis : the current time, from System.currentTimeMillis()
+	 * @param amount : the total time to add
+	 * @param number : the number of actions amount is the total of
+	 */
+	void add ( long nowMillis, long amount, long number )
+	{
+		for ( int w = 0; w < this.intervalMillis.length; ++w )
+		{
+			long epoch = nowMillis / this.intervalMillis[w];
+			int i = w * BUCKETS + (int) ( epoch % BUCKETS );
+			
+			if ( this.epochs[i] != epoch )  // the bucket holds an interval that has left the window: reuse it
+			{
+				this.epochs[i] = epoch;
+				this.totals[i] = 0;
+				this.counts[i] = 0;
+			}
+			
+			this.totals[i] += amount;
+			this.counts[i] += number;
+		}
+	}
+	
+	/**
+	 * Reads the total and count of each window as of the given time
+	 * 
+	 * @param nowMillis : the current time, from System.currentTimeMillis()
+	 * @param totals : receives the total of each window
+	 * @param counts : receives the count of each window
+	 */
+	void read ( long nowMillis, long[] totals, long[] counts )
+	{
+		for ( int w = 0; w < this.intervalMillis.length; ++w )
+		{
+			long epoch = nowMillis / this.intervalMillis[w];
+			long total = 0;
+			long count = 0;
+			
+			for ( int i = w * BUCKETS; i < ( w + 1 ) * BUCKETS; ++i )
+			{
+				if ( this.epochs[i] > epoch - BUCKETS && this.epochs[i] <= epoch )
+				{
+					total += this.totals[i];
+					count += this.counts[i];
+				}
+			}
+			
+			totals[w] = total;
+			counts[w] = count;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ActionBuffersTest
+{
+	@Test
+	void readsIncludeEveryActionBufferedBeforeThem () throws InterruptedException
+	{
+		for ( boolean histograms : new boolean[] { false, true } )
+		{
+			AddActionOptions options = new AddActionOptions().concurrentMap( true ).histograms( histograms );
+			AddActionAssignment tracker = new AddActionAssignment( options.threadLocalBuffers( 4096, 60000 ) );
+			AddActionAssignment expected = new AddActionAssignment();
+			Thread[] threads = new Thread[ 4 ];
+			
+			for ( int t = 0; t < threads.length; ++t )
+			{
+				int seed = t;
+				
+				threads[t] = new Thread( () -> {
+					Random random = new Random( seed );
+					
+					for ( int i = 0; i < 30000; ++i )   // more distinct actions than a buffer holds before it is merged
+					{
+						tracker.addAction( "action-" + random.nextInt( 10000 ), random.nextInt( Integer.MAX_VALUE ) );
+					}
+				} );
+				threads[t].start();
+			}
+			
+			for ( int t = 0; t < threads.length; ++t )
+			{
+				Random random = new Random( t );
+				
+				threads[t].join();   // the buffers of threads that have died are merged too
+				
+				for ( int i = 0; i < 30000; ++i )
+				{
+					expected.addAction( "action-" + random.nextInt( 10000 ), random.nextInt( Integer.MAX_VALUE ) );
+				}
+			}
+			
+			assertEquals( ActionStateTest.totals( expected ), ActionStateTest.totals( tracker ) );
+			tracker.close();
+		}
+	}
+	
+	@Test
+	void mergesABufferOnceItHoldsMaxActions ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().threadLocalBuffers( 3, 60000 ) );
+		AddActionAssignment unbuffered = new AddActionAssignment();
+		
+		for ( int i = 0; i < 7; ++i )
+		{
+			tracker.addAction( "foo", i );
+			unbuffered.addAction( "foo", i );
+		}
+		
+		AddActionAssignment other = new AddActionAssignment();
+		
+		other.merge( tracker.exportState() );   // a read, so every buffer is merged
+		assertEquals( ActionStateTest.totals( unbuffered ), ActionStateTest.totals( other ) );
+		tracker.close();
+	}
+}
@@ -0,0 +1,165 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ActionDictionaryTest
+{
+	@Test
+	void assignsDenseStableIds ()
+	{
+		ActionDictionary dictionary = new ActionDictionary();
+		
+		for ( int i = 0; i < 10000; ++i )   // many times the initial table
+		{
+			String name = i % 3 == 0 ? "été-" + i : "action-" + i;
+			
+			assertEquals( i, id( dictionary, name ) );
+		}
+		
+		for ( int i = 0; i < 10000; ++i )
+		{
+			String name = i % 3 == 0 ? "été-" + i : "action-" + i;
+			byte[] bytes = ( "xx" + name ).getBytes( StandardCharsets.UTF_8 );
+			
+			assertEquals( i, id( dictionary, name ) );
+			assertEquals( i, dictionary.getId( bytes, 2, bytes.length - 2 ) );
+			assertEquals( i, dictionary.getId( "<" + name + ">", 1, name.length() + 1 ) );
+			assertEquals( name, dictionary.getName( i ) );
+			assertArrayEquals( name.getBytes( StandardCharsets.UTF_8 ), dictionary.getNameBytes( i ) );
+		}
+		
+		assertEquals( 10000, id( dictionary, "" ) );
+		assertEquals( "", dictionary.getName( 10000 ) );
+	}
+	
+	@Test
+	void rejectsIdsNotAssigned ()
+	{
+		ActionDictionary dictionary = new ActionDictionary();
+		
+		id( dictionary, "foo" );
+		
+		for ( int id : new int[] { -1, 1, 31, 32, 1000, Integer.MAX_VALUE, Integer.MIN_VALUE } )
+		{
+			assertThrows( IllegalArgumentException.class, () -> dictionary.getName( id ) );
+			assertThrows( IllegalArgumentException.class, () -> dictionary.getNameBytes( id ) );
+		}
+	}
+	
+	@Test
+	void assignsOneIdToANameAddedByManyThreadsAtOnce () throws Exception
+	{
+		int threads = 8;
+		int names = 2000;
+		ActionDictionary dictionary = new ActionDictionary();
+		AtomicIntegerArray ids = new AtomicIntegerArray( threads * names );
+		CyclicBarrier start = new CyclicBarrier( threads );
+		Thread[] workers = new Thread[ threads ];
+		
+		for ( int t = 0; t < threads; ++t )
+		{
+			int thread = t;
+			
+			workers[t] = new Thread( () -> {
+				try
+				{
+					start.await();
+				}
+				catch ( Exception e )
+				{
+					throw new IllegalStateException( e );
+				}
+				
+				for ( int n = 0; n < names; ++n )   // every thread adds the same names in the same order, so they race
+				{
+					ids.set( thread * names + n, id( dictionary, "action-" + n ) );
+				}
+			} );
+			workers[t].start();
+		}
+		
+		for ( Thread worker : workers )
+		{
+			worker.join();
+		}
+		
+		Map<Integer, String> namesById = new HashMap<>();
+		
+		for ( int n = 0; n < names; ++n )
+		{
+			for ( int t = 1; t < threads; ++t )
+			{
+				assertEquals( ids.get( n ), ids.get( t * names + n ), "action-" + n );
+			}
+			
+			assertNull( namesById.put( ids.get( n ), "action-" + n ) );
+			assertEquals( "action-" + n, dictionary.getName( ids.get( n ) ) );
+		}
+		
+		for ( int id = 0; id < names; ++id )
+		{
+			assertTrue( namesById.containsKey( id ), "ids are dense" );
+		}
+	}
+	
+	@Test
+	void addsByIdToTheSameActionAsByName ( @TempDir Path directory )
+	{
+		for ( AddActionOptions options : new AddActionOptions[] { new AddActionOptions(),
+																	new AddActionOptions().concurrentMap( true ).histograms( true ),
+																	new AddActionOptions().threadLocalBuffers( 16, 60000 ),
+																	new AddActionOptions().async( 2, 64, AddActionOptions.Backpressure.BLOCK ),
+																	new AddActionOptions().offHeap( true ),
+																	new AddActionOptions().log( directory.resolve( "actions.log" ), 10, 10 ) } )
+		{
+			AddActionAssignment tracker = new AddActionAssignment( options );
+			int foo = tracker.getActionId( "foo" );
+			int bar = tracker.getActionId( "bar" );
+			
+			assertEquals( foo, tracker.getActionId( "foo" ) );
+			assertEquals( foo + 1, bar );
+			assertEquals( "foo", tracker.getActionName( foo ) );
+			
+			tracker.addAction( foo, 10 );
+			tracker.addAction( "foo", 20 );
+			tracker.addAction( "{\"action\":\"foo\",\"time\":30}" );
+			tracker.addAction( bar, -5 );
+			tracker.addAction( tracker.getActionId( "baz" ), 1 );
+			tracker.flush();
+			
+			Map<String, Integer> expected = new HashMap<>();
+			
+			expected.put( "foo", 20 );
+			expected.put( "bar", -5 );
+			expected.put( "baz", 1 );
+			assertEquals( expected, tracker.getStatsAsMap() );
+			
+			for ( int id : new int[] { -1, tracker.getActionId( "baz" ) + 1, Integer.MAX_VALUE } )
+			{
+				assertThrows( IllegalArgumentException.class, () -> tracker.addAction( id, 1 ) );
+				assertThrows( IllegalArgumentException.class, () -> tracker.getActionName( id ) );
+			}
+			
+			assertEquals( expected, tracker.getStatsAsMap() );
+			tracker.close();
+		}
+	}
+	
+	private static int id ( ActionDictionary dictionary, String name )
+	{
+		return dictionary.getId( name, 0, name.length() );
+	}
+}
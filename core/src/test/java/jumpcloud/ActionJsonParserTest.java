@@ -0,0 +1,198 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class ActionJsonParserTest
+{
+	/**
+	 * Shapes the streaming parser handles itself
+	 */
+	private static final String[] PARSED = {
+		"{\"action\":\"foo\",\"time\":10}",
+		"{'action':'foo', 'time':10}",
+		" \t{ \"action\" :\t\"foo\" ,\r\n \"time\" : 10 } ",
+		"{\"time\":10,\"action\":\"foo\"}",
+		"{\"action\":\"\",\"time\":0}",
+		"{\"action\":\"été 😀\",\"time\":-7}",
+		"{\"action\":\"foo\",\"time\":2147483647}",
+		"{\"action\":\"foo\",\"time\":-2147483648}",
+		"{\"id\":12,\"tags\":[\"a,b\",{\"c\":\"}\"}],\"action\":\"foo\",\"ok\":true,\"time\":3,\"n\":null,\"x\":{\"y\":[1,2.5e3]}}",
+		"{\"action\":'it\"s',\"time\":1}",
+	};
+	
+	/**
+	 * Shapes left to org.json, which either handles them or throws JSONException
+	 */
+	private static final String[] FALLBACK = {
+		"{\"action\":\"fo\\\"o\",\"time\":10}",          // escaped name
+		"{\"action\":\"\\u0066oo\",\"time\":10}",
+		"{\"\\u0061ction\":\"foo\",\"time\":10}",        // escaped key
+		"{action:\"foo\",time:10}",                      // unquoted keys
+		"{\"action\":\"foo\",\"time\":\"10\"}",          // time as a string
+		"{\"action\":\"foo\",\"time\":1.5}",             // a fraction
+		"{\"action\":\"foo\",\"time\":1e2}",             // an exponent
+		"{\"action\":\"foo\",\"time\":2147483648}",      // beyond int range, which org.json narrows
+		"{\"action\":\"foo\",\"time\":-2147483649}",
+		"{\"action\":\"foo\",\"time\":99999999999999999999}",
+		"{\"action\":\"foo\",\"time\":-}",
+		"{\"action\":\"foo\",\"time\":10x}",
+		"{\"action\":\"foo\",\"time\":true}",
+		"{\"action\":\"a\",\"action\":\"b\",\"time\":1}",  // duplicate keys
+		"{\"action\":\"foo\",\"time\":1,\"time\":2}",
+		"{\"action\":5,\"time\":1}",                     // a name that is not a string
+		"{\"action\":\"foo\"}",                          // a field missing
+		"{\"time\":1}",
+		"{}",
+		"[\"foo\",1]",
+		"",
+		"null",
+		"{\"action\":\"foo\",\"time\":10",               // unterminated
+		"{\"action\":\"foo",
+		"{\"action\":\"fo\no\",\"time\":10}",            // a newline in a string
+		"{\"x\":\"a\\\"b\",\"action\":\"foo\",\"time\":1}",  // an escape in a skipped value
+		"{\"x\":,\"action\":\"foo\",\"time\":1}",        // an empty value
+		"{\"action\":\"foo\";\"time\":1}",               // a separator org.json also accepts
+	};
+	
+	
+	@Test
+	void parsesTheCommonShapeAsOrgJsonDoes ()
+	{
+		ActionJsonParser parser = new ActionJsonParser();
+		
+		for ( String json : PARSED )
+		{
+			JSONObject expected = new JSONObject( json );
+			
+			for ( Input input : Input.values() )
+			{
+				assertTrue( input.parse( parser, json ), input + " " + json );
+				assertEquals( expected.getString( AddActionAssignment.ACTION_NAME_JSON_FLD ), parser.getActionName(), input + " " + json );
+				assertEquals( expected.getInt( AddActionAssignment.TIME_JSON_FLD ), parser.time, input + " " + json );
+			}
+		}
+	}
+	
+	@Test
+	void leavesEveryOtherShapeToOrgJson ()
+	{
+		ActionJsonParser parser = new ActionJsonParser();
+		
+		for ( String json : FALLBACK )
+		{
+			for ( Input input : Input.values() )
+			{
+				assertEquals( false, input.parse( parser, json ), input + " " + json );
+			}
+		}
+	}
+	
+	@Test
+	void addsEveryShapeAsOrgJsonDoes ()
+	{
+		for ( String[] shapes : new String[][] { PARSED, FALLBACK } )
+		{
+			for ( String json : shapes )
+			{
+				Map<String, Integer> expected = new HashMap<>();
+				boolean rejected = false;
+				
+				try
+				{
+					JSONObject object = new JSONObject( json );
+					
+					expected.put( object.getString( AddActionAssignment.ACTION_NAME_JSON_FLD ), object.getInt( AddActionAssignment.TIME_JSON_FLD ) );
+				}
+				catch ( JSONException e )
+				{
+					rejected = true;
+				}
+				
+				for ( Input input : Input.values() )
+				{
+					AddActionAssignment tracker = new AddActionAssignment();
+					
+					if ( rejected )
+					{
+						assertThrows( JSONException.class, () -> input.add( tracker, json ), input + " " + json );
+					}
+					else
+					{
+						input.add( tracker, json );
+						assertEquals( expected, tracker.getStatsAsMap(), input + " " + json );
+					}
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * The forms of input a JSON object is parsed from; bytes are surrounded by JSON the parser must not read
+	 */
+	private enum Input
+	{
+		STRING, BYTES, HEAP_BUFFER, DIRECT_BUFFER;
+		
+		
+		boolean parse ( ActionJsonParser parser, String json )
+		{
+			byte[] bytes = padded( json );
+			
+			switch ( this )
+			{
+				case STRING:
+					return parser.parse( json );
+				case BYTES:
+					return parser.parse( bytes, 2, bytes.length - 4 );
+				case HEAP_BUFFER:
+					return parser.parse( ByteBuffer.wrap( bytes ), 2, bytes.length - 4 );
+				default:
+					return parser.parse( direct( bytes ), 2, bytes.length - 4 );
+			}
+		}
+		
+		void add ( AddActionAssignment tracker, String json )
+		{
+			byte[] bytes = padded( json );
+			
+			switch ( this )
+			{
+				case STRING:
+					tracker.addAction( json );
+					break;
+				case BYTES:
+					tracker.addAction( bytes, 2, bytes.length - 4 );
+					break;
+				case HEAP_BUFFER:
+					tracker.addAction( ByteBuffer.wrap( bytes ), 2, bytes.length - 4 );
+					break;
+				default:
+					tracker.addAction( direct( bytes ), 2, bytes.length - 4 );
+			}
+		}
+		
+		private static byte[] padded ( String json )
+		{
+			return ( "{\"" + json + "\"}" ).getBytes( StandardCharsets.UTF_8 );
+		}
+		
+		private static ByteBuffer direct ( byte[] bytes )
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+			
+			buffer.put( bytes ).position( 1 );   // not used by the parser
+			return buffer;
+		}
+	}
+}
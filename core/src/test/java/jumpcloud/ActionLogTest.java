@@ -0,0 +1,191 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ActionLogTest
+{
+	@Test
+	void replaysEveryRecordAppended ( @TempDir Path directory ) throws IOException
+	{
+		Path file = directory.resolve( "actions.log" );
+		Totals expected = new Totals();
+		ActionLog log = new ActionLog( file, 16, 5, 0, new Totals() );
+		
+		for ( int i = 0; i < 1000; ++i )
+		{
+			log.append( "action-" + ( i % 10 ), i - 500, 1 );
+			expected.add( "action-" + ( i % 10 ), i - 500, 1 );
+		}
+		
+		log.append( "été", Long.MIN_VALUE, 3 );   // a multi-byte name, and the largest zigzag varlong
+		expected.add( "été", Long.MIN_VALUE, 3 );
+		log.close();
+		
+		Totals replayed = new Totals();
+		
+		new ActionLog( file, 16, 5, 0, replayed ).close();
+		assertEquals( expected.totals, replayed.totals );
+	}
+	
+	@Test
+	void truncatesATornFinalFrame ( @TempDir Path directory ) throws IOException
+	{
+		Path file = directory.resolve( "actions.log" );
+		ActionLog log = new ActionLog( file, 16, 0, 0, new Totals() );   // each append is forced as its own frame
+		
+		log.append( "foo", 10, 1 );
+		log.append( "bar", 20, 1 );
+		log.close();
+		
+		long whole = Files.size( file );
+		
+		Files.write( file, frame( "baz", 30 ), StandardOpenOption.APPEND );
+		
+		long torn = Files.size( file );
+		
+		truncate( file, torn - 1 );   // the last frame is short
+		assertReplays( file, "{bar=[20, 1], foo=[10, 1]}" );
+		assertEquals( whole, Files.size( file ) );
+		
+		Files.write( file, frame( "baz", 30 ), StandardOpenOption.APPEND );
+		
+		byte[] bytes = Files.readAllBytes( file );
+		
+		bytes[ bytes.length - 1 ] ^= 1;   // the last frame fails its checksum
+		Files.write( file, bytes );
+		assertReplays( file, "{bar=[20, 1], foo=[10, 1]}" );
+		assertEquals( whole, Files.size( file ) );
+		
+		Files.write( file, Arrays.copyOf( frame( "baz", 30 ), 5 ), StandardOpenOption.APPEND );   // a short frame header
+		
+		ActionLog reopened = new ActionLog( file, 16, 0, 0, new Totals() );
+		
+		reopened.append( "baz", 30, 1 );   // appended after the truncated frame, not after its remains
+		reopened.close();
+		assertReplays( file, "{bar=[20, 1], baz=[30, 1], foo=[10, 1]}" );
+		
+		Files.write( file, frame( "baz", 30 ), StandardOpenOption.APPEND );
+		assertReplays( file, "{bar=[20, 1], baz=[60, 2], foo=[10, 1]}" );   // a whole frame is kept
+	}
+	
+	@Test
+	void rejectsAFileThatIsNotALog ( @TempDir Path directory ) throws IOException
+	{
+		Path file = Files.write( directory.resolve( "actions.log" ), "{\"action\":\"foo\",\"time\":10}\n".getBytes( StandardCharsets.UTF_8 ) );
+		
+		assertThrows( IOException.class, () -> new ActionLog( file, 16, 0, 0, new Totals() ) );
+	}
+	
+	@Test
+	void surfacesACompactorThatFailedOnAnUnexpectedException ( @TempDir Path directory ) throws IOException
+	{
+		Path file = directory.resolve( "actions.log" );
+		ActionLog log = new ActionLog( file, 16, 0, 10, new Totals() );
+		
+		log.append( "foo", 10, 1 );
+		Files.createFile( directory.resolve( "actions.log.99999999999999999999" ) );   // a generation too long to parse
+		
+		assertTimeoutPreemptively( Duration.ofSeconds( 10 ), () ->
+		{
+			UncheckedIOException e = assertThrows( UncheckedIOException.class, () ->
+			{
+				while ( true )
+				{
+					log.sync();
+					Thread.sleep( 5 );
+				}
+			} );
+			
+			assertEquals( NumberFormatException.class, e.getCause().getCause().getClass() );
+		} );
+		
+		log.append( "bar", 20, 1 );   // the writer is unaffected
+		assertThrows( UncheckedIOException.class, log::close );
+	}
+	
+	/**
+	 * @return a frame holding one record of a single action, as ActionLog writes it
+	 */
+	static byte[] frame ( String actionName, long time )
+	{
+		byte[] name = actionName.getBytes( StandardCharsets.UTF_8 );
+		byte[] records = new byte[ name.length + 25 ];
+		int length = ActionLog.writeVarLong( records, 0, name.length );
+		
+		System.arraycopy( name, 0, records, length, name.length );
+		length = ActionLog.writeVarLong( records, length + name.length, ( time << 1 ) ^ ( time >> 63 ) );
+		length = ActionLog.writeVarLong( records, length, 1 );
+		
+		CRC32C crc = new CRC32C();
+		
+		crc.update( records, 0, length );
+		
+		return ByteBuffer.allocate( 8 + length ).order( ByteOrder.LITTLE_ENDIAN )
+						.putInt( length ).putInt( (int) crc.getValue() ).put( records, 0, length ).array();
+	}
+	
+	private static void truncate ( Path file, long size ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.WRITE ) )
+		{
+			channel.truncate( size );
+		}
+	}
+	
+	private static void assertReplays ( Path file, String expected ) throws IOException
+	{
+		Totals replayed = new Totals();
+		
+		new ActionLog( file, 16, 0, 0, replayed ).close();
+		assertEquals( expected, replayed.toString() );
+	}
+	
+	
+	/**
+	 * The total time and count of each action name a log replays, in order of name
+	 */
+	static final class Totals implements ActionLog.RecordSink
+	{
+		final Map<String, List<Long>> totals = new TreeMap<>();
+		
+		
+		@Override
+		public void add ( byte[] name, int offset, int length, long total, long count )
+		{
+			this.add( new String( name, offset, length, StandardCharsets.UTF_8 ), total, count );
+		}
+		
+		void add ( String name, long total, long count )
+		{
+			List<Long> sum = this.totals.getOrDefault( name, Arrays.asList( 0L, 0L ) );
+			
+			this.totals.put( name, Arrays.asList( sum.get( 0 ) + total, sum.get( 1 ) + count ) );
+		}
+		
+		@Override
+		public String toString ()
+		{
+			return this.totals.toString();
+		}
+	}
+}
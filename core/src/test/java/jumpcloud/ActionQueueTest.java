@@ -0,0 +1,111 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ActionQueueTest
+{
+	@Test
+	void appliesEveryActionFromManyProducers () throws InterruptedException
+	{
+		for ( boolean histograms : new boolean[] { false, true } )
+		{
+			AddActionOptions options = new AddActionOptions().concurrentMap( true ).histograms( histograms );
+			AddActionAssignment tracker = new AddActionAssignment( options.async( 2, 1024, AddActionOptions.Backpressure.BLOCK ) );
+			AddActionAssignment expected = new AddActionAssignment();
+			Thread[] producers = new Thread[ 4 ];
+			
+			for ( int t = 0; t < producers.length; ++t )
+			{
+				int seed = t;
+				
+				producers[t] = new Thread( () -> {
+					Random random = new Random( seed );
+					
+					for ( int i = 0; i < 20000; ++i )   // more distinct actions per drain than a batch starts with room for
+					{
+						tracker.addAction( "action-" + random.nextInt( 5000 ), random.nextInt( Integer.MAX_VALUE ) );
+					}
+				} );
+				producers[t].start();
+			}
+			
+			for ( int t = 0; t < producers.length; ++t )
+			{
+				Random random = new Random( t );
+				
+				producers[t].join();
+				
+				for ( int i = 0; i < 20000; ++i )
+				{
+					expected.addAction( "action-" + random.nextInt( 5000 ), random.nextInt( Integer.MAX_VALUE ) );
+				}
+			}
+			
+			tracker.flush();
+			
+			assertEquals( ActionStateTest.totals( expected ), ActionStateTest.totals( tracker ) );
+			tracker.close();
+		}
+	}
+	
+	@Test
+	void wakesAConsumerParkedWhileIdle ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().async( 1, 16, AddActionOptions.Backpressure.BLOCK ) );
+		
+		assertTimeoutPreemptively( Duration.ofSeconds( 10 ), () -> {
+			for ( int round = 0; round < 3; ++round )
+			{
+				Thread.sleep( 100 );   // long enough for the consumer to park
+				
+				for ( int i = 0; i < 1000; ++i )   // far more than the queue holds, so each producer waits on the consumer
+				{
+					tracker.addAction( "foo", 2 );
+				}
+				
+				tracker.flush();
+			}
+		} );
+		
+		assertEquals( 3000L, ActionStateTest.totals( tracker ).get( "foo" ).get( 2 ) );
+		tracker.close();
+	}
+	
+	@Test
+	void throwsTheConsumerFailureInsteadOfWaiting ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().async( 2, 16, AddActionOptions.Backpressure.BLOCK ) ) {
+			@Override
+			void addToTotal ( byte[] actionName, long total, long count, int[] times )
+			{
+				throw new UncheckedIOException( new IOException( "disk full" ) );   // as from a failed log
+			}
+		};
+		
+		assertTimeoutPreemptively( Duration.ofSeconds( 10 ), () -> {
+			tracker.addAction( "foo", 1 );
+			
+			IllegalStateException flushed = assertThrows( IllegalStateException.class, tracker::flush );
+			
+			assertEquals( "disk full", flushed.getCause().getCause().getMessage() );
+			
+			// later producers throw too, rather than fill the ring and wait on the stopped consumer
+			assertThrows( IllegalStateException.class, () -> {
+				for ( int i = 0; i < 1000; ++i )
+				{
+					tracker.addAction( "foo", i );
+				}
+			} );
+			
+			assertThrows( IllegalStateException.class, tracker::close );
+		} );
+	}
+}
@@ -0,0 +1,115 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ActionSnapshotTest
+{
+	@Test
+	void recoversFromASnapshotAndTheSegmentsAfterIt ( @TempDir Path directory ) throws Exception
+	{
+		Path file = directory.resolve( "actions.log" );
+		ActionLogTest.Totals expected = new ActionLogTest.Totals();
+		ActionLog log = new ActionLog( file, 16, 0, 10, new ActionLogTest.Totals() );
+		
+		for ( int i = 0; i < 300 || ! Files.exists( directory.resolve( "actions.log.snapshot" ) ); ++i )
+		{
+			log.append( "action-" + ( i % 7 ), i, 1 );
+			expected.add( "action-" + ( i % 7 ), i, 1 );
+			
+			if ( i % 50 == 0 )
+			{
+				Thread.sleep( 5 );   // let the compactor roll and fold segments in between appends
+			}
+		}
+		
+		log.append( "after", -1, 1 );
+		expected.add( "after", -1, 1 );
+		log.close();
+		
+		ActionLogTest.Totals replayed = new ActionLogTest.Totals();
+		
+		new ActionLog( file, 16, 0, 0, replayed ).close();
+		assertEquals( expected.totals, replayed.totals );
+	}
+	
+	@Test
+	void skipsSegmentsAlreadyFoldedIntoTheSnapshot ( @TempDir Path directory ) throws IOException
+	{
+		Path file = directory.resolve( "actions.log" );
+		Path first = closedSegment( file, 1, "foo", 10 );
+		Path second = closedSegment( file, 2, "bar", 20 );
+		Path snapshot = directory.resolve( "actions.log.snapshot" );
+		
+		ActionSnapshot.compact( snapshot, Arrays.asList( first, second ), 2 );
+		Files.write( directory.resolve( "actions.log.snapshot.tmp" ), new byte[] { 1, 2, 3 } );   // a compaction torn later
+		
+		ActionLogTest.Totals folded = new ActionLogTest.Totals();
+		
+		assertEquals( 2, ActionSnapshot.read( snapshot, folded ) );
+		assertEquals( "{bar=[20, 1], foo=[10, 1]}", folded.toString() );
+		
+		Path third = closedSegment( file, 3, "foo", 30 );
+		
+		// as if the compaction crashed before deleting the segments it folded: first and second are still there
+		ActionLogTest.Totals replayed = new ActionLogTest.Totals();
+		ActionLog log = new ActionLog( file, 16, 0, 0, replayed );
+		
+		log.append( "bar", 40, 1 );
+		log.close();
+		
+		assertEquals( "{bar=[20, 1], foo=[40, 2]}", replayed.toString() );
+		assertTrue( Files.notExists( first ) && Files.notExists( second ) && Files.exists( third ) );
+		assertTrue( Files.notExists( directory.resolve( "actions.log.snapshot.tmp" ) ) );
+		
+		replayed = new ActionLogTest.Totals();
+		new ActionLog( file, 16, 0, 0, replayed ).close();
+		assertEquals( "{bar=[60, 2], foo=[40, 2]}", replayed.toString() );
+	}
+	
+	@Test
+	void rejectsACorruptSnapshot ( @TempDir Path directory ) throws IOException
+	{
+		Path file = directory.resolve( "actions.log" );
+		Path snapshot = directory.resolve( "actions.log.snapshot" );
+		
+		ActionSnapshot.compact( snapshot, Arrays.asList( closedSegment( file, 1, "foo", 10 ) ), 1 );
+		
+		byte[] bytes = Files.readAllBytes( snapshot );
+		
+		bytes[ 20 ] ^= 1;
+		Files.write( snapshot, bytes );
+		
+		assertThrows( IOException.class, () -> new ActionLog( file, 16, 0, 0, new ActionLogTest.Totals() ) );
+	}
+	
+	/**
+	 * @return a closed segment of the given generation holding one action, as a log rolls it
+	 */
+	private static Path closedSegment ( Path file, long generation, String actionName, long time ) throws IOException
+	{
+		Path scratch = Files.createTempDirectory( file.getParent(), "segment" ).resolve( file.getFileName() );
+		ActionLog log = new ActionLog( scratch, 16, 0, 0, new ActionLogTest.Totals() );   // the first, generation 1
+		
+		log.append( actionName, time, 1 );
+		log.close();
+		
+		byte[] bytes = Files.readAllBytes( scratch );
+		
+		ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).putLong( 8, generation );
+		Files.write( scratch, bytes );
+		
+		return Files.move( scratch, file.resolveSibling( file.getFileName() + "." + generation ), StandardCopyOption.ATOMIC_MOVE );
+	}
+}
@@ -0,0 +1,247 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+import org.junit.jupiter.api.Test;
+
+class ActionStateTest
+{
+	@Test
+	void roundTripsExactTotals ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		AddActionAssignment huge = new AddActionAssignment();
+		ActionState state = new ActionState();
+		byte[] name = "été".getBytes( StandardCharsets.UTF_8 );
+		
+		tracker.addAction( "foo", 10 );
+		tracker.addAction( "foo", -3 );
+		tracker.addAction( "bar", Integer.MAX_VALUE );
+		
+		state.add( name, 0, name.length, 5, Long.MIN_VALUE, 3 );   // a total beyond the range of a long
+		huge.merge( state.toByteArray() );
+		tracker.merge( huge );
+		
+		AddActionAssignment merged = new AddActionAssignment();
+		
+		merged.merge( tracker.exportState() );
+		
+		assertEquals( "{bar=[0, 2147483647, 1], foo=[0, 7, 2], été=[5, -9223372036854775808, 3]}", totals( merged ).toString() );
+		assertEquals( totals( tracker ), totals( merged ) );
+		assertEquals( tracker.getStatsAsMap(), merged.getStatsAsMap() );
+	}
+	
+	@Test
+	void mergesInAnyOrderOrGrouping ()
+	{
+		Random random = new Random( 4 );
+		AddActionAssignment all = new AddActionAssignment();
+		AddActionAssignment[] parts = { new AddActionAssignment(), new AddActionAssignment(), new AddActionAssignment() };
+		
+		for ( int i = 0; i < 3000; ++i )
+		{
+			String name = "action-" + random.nextInt( 50 );
+			int time = random.nextInt( Integer.MAX_VALUE );
+			
+			all.addAction( name, time );
+			parts[ random.nextInt( parts.length ) ].addAction( name, time );
+		}
+		
+		AddActionAssignment left = new AddActionAssignment();   // (a + b) + c
+		AddActionAssignment ab = new AddActionAssignment();
+		
+		ab.merge( parts[0].exportState() );
+		ab.merge( parts[1].exportState() );
+		left.merge( ab.exportState() );
+		left.merge( parts[2].exportState() );
+		
+		AddActionAssignment right = new AddActionAssignment();   // c + (b + a)
+		AddActionAssignment ba = new AddActionAssignment();
+		
+		ba.merge( parts[1] );
+		ba.merge( parts[0] );
+		right.merge( parts[2].exportState() );
+		right.merge( ba.exportState() );
+		
+		assertEquals( totals( all ), totals( left ) );
+		assertEquals( totals( all ), totals( right ) );
+		assertEquals( all.getStatsAsMap(), right.getStatsAsMap() );
+	}
+	
+	@Test
+	void rejectsACorruptStateWithoutMergingAnyOfIt ()
+	{
+		AddActionAssignment source = new AddActionAssignment();
+		
+		source.addAction( "foo", 10 );
+		source.addAction( "bar", 20 );
+		
+		byte[] state = source.exportState();
+		AddActionAssignment tracker = new AddActionAssignment();
+		
+		tracker.addAction( "foo", 1 );
+		
+		Map<String, List<Long>> before = totals( tracker );
+		
+		for ( int length = 0; length < state.length; ++length )
+		{
+			assertRejected( tracker, Arrays.copyOf( state, length ), before );
+		}
+		
+		for ( int i = 0; i < state.length; ++i )
+		{
+			for ( int bit = 0; bit < 8; ++bit )
+			{
+				byte[] corrupt = state.clone();
+				
+				corrupt[i] ^= 1 << bit;
+				assertRejected( tracker, corrupt, before );
+			}
+		}
+		
+		// well-formed checksums over malformed contents: [magic][version][actions]..., as toByteArray writes them
+		byte[] header = Arrays.copyOf( state, 8 );
+		
+		assertRejected( tracker, withChecksum( header, 1 ), before );                                   // another version
+		assertRejected( tracker, withChecksum( header, 2, 3, 3, 'f', 'o', 'o', 20, 10, 1 ), before );   // an action missing
+		assertRejected( tracker, withChecksum( header, 2, 1, 9, 'f', 'o', 'o', 20, 10, 1 ), before );   // a name too long
+		assertRejected( tracker, withChecksum( header, 2, 1, 3, 'f', 'o', 'o', 20, 10, 0 ), before );   // a zero count
+		assertRejected( tracker, withChecksum( header, 2, 1, 3, 'f', 'o', 'o', 20, 10, 1, 0 ), before ); // a byte left over
+		assertRejected( tracker, withChecksum( header, 2, 1, 3, 'f', 'o', 'o', 20, 10, 0x80 ), before ); // a truncated count
+		
+		tracker.merge( withChecksum( header, 2, 1, 3, 'f', 'o', 'o', 0, 10, 1 ) );   // the form the cases above break
+		assertEquals( "{foo=[0, 11, 2]}", totals( tracker ).toString() );
+	}
+	
+	@Test
+	void exportsOnlyTheChangesSinceTheLastDelta ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().deltas( true ) );
+		AddActionAssignment receiver = new AddActionAssignment();
+		AddActionAssignment other = new AddActionAssignment();
+		
+		tracker.addAction( "foo", 10 );
+		tracker.addAction( "bar", 20 );
+		assertEquals( "{bar=[0, 20, 1], foo=[0, 10, 1]}", read( merge( receiver, tracker.exportDelta() ) ) );
+		
+		tracker.addAction( "foo", 5 );
+		other.addAction( "baz", 7 );
+		tracker.merge( other.exportState() );   // merged actions are changes too
+		assertEquals( "{baz=[0, 7, 1], foo=[0, 5, 1]}", read( merge( receiver, tracker.exportDelta() ) ) );
+		
+		assertEquals( "{}", read( merge( receiver, tracker.exportDelta() ) ) );
+		assertEquals( totals( tracker ), totals( receiver ) );
+	}
+	
+	@Test
+	void deltasTakenDuringAddsSumToTheState () throws InterruptedException
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().deltas( true ).concurrentMap( true ) );
+		AddActionAssignment receiver = new AddActionAssignment();
+		Thread[] adders = new Thread[ 4 ];
+		
+		for ( int t = 0; t < adders.length; ++t )
+		{
+			int seed = t;
+			
+			adders[t] = new Thread( () -> {
+				Random random = new Random( seed );
+				
+				for ( int i = 0; i < 50000; ++i )
+				{
+					tracker.addAction( "action-" + random.nextInt( 100 ), random.nextInt( 1000 ) );
+				}
+			} );
+			adders[t].start();
+		}
+		
+		for ( Thread adder : adders )
+		{
+			while ( adder.isAlive() )
+			{
+				receiver.merge( tracker.exportDelta() );   // each change is in exactly one checkpoint
+			}
+		}
+		
+		receiver.merge( tracker.exportDelta() );
+		
+		assertEquals( totals( tracker ), totals( receiver ) );
+		assertEquals( 200000L, totals( receiver ).values().stream().mapToLong( total -> total.get( 2 ) ).sum() );
+	}
+	
+	@Test
+	void refusesDeltasWhenTheyAreNotTracked ()
+	{
+		assertThrows( IllegalStateException.class, () -> new AddActionAssignment().exportDelta() );
+		assertThrows( IllegalStateException.class, () -> new AddActionAssignment( new AddActionOptions().offHeap( true ) ).exportDelta() );
+	}
+	
+	private static byte[] merge ( AddActionAssignment tracker, byte[] state )
+	{
+		tracker.merge( state );
+		return state;
+	}
+	
+	/**
+	 * @return the totals in a state, as from totals
+	 */
+	private static String read ( byte[] state )
+	{
+		return totals( state ).toString();
+	}
+	
+	private static void assertRejected ( AddActionAssignment tracker, byte[] state, Map<String, List<Long>> before )
+	{
+		assertThrows( IllegalArgumentException.class, () -> tracker.merge( state ) );
+		assertEquals( before, totals( tracker ) );
+	}
+	
+	/**
+	 * @return header followed by the given bytes and their checksum
+	 */
+	private static byte[] withChecksum ( byte[] header, int... bytes )
+	{
+		byte[] state = Arrays.copyOf( header, header.length + bytes.length + 4 );
+		CRC32C crc = new CRC32C();
+		
+		for ( int i = 0; i < bytes.length; ++i )
+		{
+			state[ header.length + i ] = (byte) bytes[i];
+		}
+		
+		crc.update( state, 0, state.length - 4 );
+		
+		for ( int i = 0; i < 4; ++i )
+		{
+			state[ state.length - 4 + i ] = (byte) ( crc.getValue() >>> ( 8 * i ) );
+		}
+		
+		return state;
+	}
+	
+	/**
+	 * @return the high and low bits of the total time and the count of each action in the tracker, in order of name
+	 */
+	static Map<String, List<Long>> totals ( AddActionAssignment tracker )
+	{
+		return totals( tracker.exportState() );
+	}
+	
+	private static Map<String, List<Long>> totals ( byte[] state )
+	{
+		Map<String, List<Long>> totals = new TreeMap<>();
+		
+		ActionState.read( state, ( name, offset, length, high, low, count ) ->
+							totals.put( new String( name, offset, length, StandardCharsets.UTF_8 ), Arrays.asList( high, low, count ) ) );
+		
+		return totals;
+	}
+}
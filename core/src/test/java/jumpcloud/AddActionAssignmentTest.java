@@ -0,0 +1,307 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The checks of AddActionAssignmentDemo, as assertions
+ */
+class AddActionAssignmentTest
+{
+	@Test
+	void averagesOneAction ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		
+		tracker.addAction( "{'action':'foo', 'time':10}" );
+		tracker.addAction( "{'action':'foo', 'time':20}" );
+		
+		JSONArray stats = new JSONArray( tracker.getStats() );
+		
+		assertEquals( 1, stats.length() );
+		assertEquals( "foo", stats.getJSONObject( 0 ).getString( AddActionAssignment.ACTION_NAME_JSON_FLD ) );
+		assertEquals( 15, stats.getJSONObject( 0 ).getInt( AddActionAssignment.AVERAGE_TIME_JSON_FLD ) );
+	}
+	
+	@Test
+	void averagesTwoActionsWithLargeTimes ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		Expected expected = new Expected();
+		Random random = new Random( 1 );
+		
+		for ( int i = 0; i < 1000; ++i )
+		{
+			String json = expected.add( i % 2 == 0 ? "foo" : "bar", random.nextInt( Integer.MAX_VALUE ) );
+			
+			tracker.addAction( json );
+		}
+		
+		assertEquals( expected.averages(), tracker.getStatsAsMap() );
+	}
+	
+	@Test
+	void averagesTwoActionsFromManyThreads () throws InterruptedException
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		Expected expected = new Expected();
+		Random random = new Random( 2 );
+		ExecutorService executor = Executors.newFixedThreadPool( 100 );
+		
+		for ( int i = 0; i < 10000; ++i )
+		{
+			String json = expected.add( i % 2 == 0 ? "foo" : "bar", random.nextInt( Integer.MAX_VALUE ) );
+			
+			executor.execute( () -> tracker.addAction( json ) );
+		}
+		
+		executor.shutdown();
+		executor.awaitTermination( 10, TimeUnit.SECONDS );
+		
+		assertEquals( expected.averages(), tracker.getStatsAsMap() );
+	}
+	
+	@Test
+	void sumsOneHotActionOverStripesExactly () throws InterruptedException
+	{
+		AddActionAssignment tracker = new AddActionAssignment( true, 8 );
+		Thread[] threads = new Thread[ 16 ];
+		BigInteger total = BigInteger.ZERO;
+		
+		for ( int t = 0; t < threads.length; ++t )
+		{
+			int seed = t;
+			
+			threads[t] = new Thread( () -> {
+				Random random = new Random( seed );
+				
+				for ( int i = 0; i < 20000; ++i )
+				{
+					tracker.addAction( "hot", random.nextInt( Integer.MAX_VALUE ) );
+				}
+			} );
+			threads[t].start();
+			
+			Random random = new Random( seed );
+			
+			for ( int i = 0; i < 20000; ++i )
+			{
+				total = total.add( BigInteger.valueOf( random.nextInt( Integer.MAX_VALUE ) ) );
+			}
+		}
+		
+		for ( Thread thread : threads )
+		{
+			thread.join();
+		}
+		
+		long count = threads.length * 20000L;
+		
+		assertEquals( Arrays.asList( total.shiftRight( 64 ).longValue(), total.longValue(), count ), ActionStateTest.totals( tracker ).get( "hot" ) );
+		assertEquals( total.divide( BigInteger.valueOf( count ) ).intValue(), tracker.getStatsAsMap().get( "hot" ) );
+	}
+	
+	@Test
+	void neverReadsATornTotalAndCountOverStripes () throws InterruptedException
+	{
+		AddActionAssignment tracker = new AddActionAssignment( true, 8 );
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] writers = new Thread[ 8 ];
+		
+		tracker.addAction( "hot", 7 );
+		
+		for ( int t = 0; t < writers.length; ++t )
+		{
+			writers[t] = new Thread( () -> {
+				for ( int i = 0; i < 50000 && ! done.get(); ++i )
+				{
+					tracker.addAction( "hot", 7 );
+				}
+			} );
+			writers[t].start();
+		}
+		
+		Thread reader = new Thread( () -> {
+			try
+			{
+				while ( ! done.get() )
+				{
+					// a total read without the last add of its count, or the other way round, is not 7 times the count
+					List<Long> totals = ActionStateTest.totals( tracker ).get( "hot" );
+					
+					assertEquals( 7 * totals.get( 2 ), totals.get( 1 ), "total and count read apart: " + totals );
+					assertEquals( 7, tracker.getStatsAsMap().get( "hot" ) );
+					assertEquals( 7, new JSONArray( tracker.getStats( 0 ) ).getJSONObject( 0 ).getInt( AddActionAssignment.AVERAGE_TIME_JSON_FLD ) );
+				}
+			}
+			catch ( Throwable e )
+			{
+				failure.set( e );
+				done.set( true );
+			}
+		} );
+		
+		reader.start();
+		
+		for ( Thread writer : writers )
+		{
+			writer.join();
+		}
+		
+		done.set( true );
+		reader.join();
+		
+		assertNull( failure.get() );
+		assertEquals( Arrays.asList( 0L, 7 * ( writers.length * 50000L + 1 ), writers.length * 50000L + 1 ), ActionStateTest.totals( tracker ).get( "hot" ) );
+	}
+	
+	@Test
+	void dividesTotalsBeyondLongMaxValue ()
+	{
+		Random random = new Random( 3 );
+		
+		for ( int i = 0; i < 100000; ++i )
+		{
+			long count = 1 + ( random.nextLong() >>> 1 ) % ( 1L << 40 );
+			BigInteger total = BigInteger.valueOf( count ).multiply( BigInteger.valueOf( random.nextInt() ) )
+									.add( BigInteger.valueOf( random.nextLong() ).mod( BigInteger.valueOf( count ) ) );
+			
+			assertEquals( total.divide( BigInteger.valueOf( count ) ).longValue(),
+							AverageCalcData.divide( total.shiftRight( 64 ).longValue(), total.longValue(), count ) );
+		}
+	}
+	
+	@Test
+	void readsStatsWhileNewActionsAreInserted () throws InterruptedException
+	{
+		for ( AddActionOptions options : new AddActionOptions[] { new AddActionOptions().concurrentMap( true ),
+																	new AddActionOptions().concurrentMap( true ).histograms( true ),
+																	new AddActionOptions().offHeap( true ) } )
+		{
+			AddActionAssignment tracker = new AddActionAssignment( options );
+			AtomicBoolean done = new AtomicBoolean();
+			AtomicReference<Throwable> failure = new AtomicReference<>();
+			Thread reader = new Thread( () -> {
+				try
+				{
+					while ( ! done.get() )
+					{
+						tracker.getStatsAsMap();
+						tracker.getStatsAsJSONArray();
+						tracker.getStats( 0 );
+						tracker.writeStats( new StringWriter() );
+						tracker.exportState();
+					}
+				}
+				catch ( Throwable e )
+				{
+					failure.set( e );
+				}
+			} );
+			
+			reader.start();
+			
+			for ( int i = 0; i < 30000 && failure.get() == null; ++i )
+			{
+				tracker.addAction( "action-" + i, i );
+			}
+			
+			done.set( true );
+			reader.join();
+			
+			assertNull( failure.get() );
+			assertEquals( 30000, tracker.getStatsAsMap().size() );
+		}
+	}
+	
+	@Test
+	void rejectsOptionsOutOfRangeOrUnsupportedTogether ()
+	{
+		for ( AddActionOptions options : new AddActionOptions[] { new AddActionOptions().stripes( 0 ),
+																	new AddActionOptions().windows( 60000, 5 ),
+																	new AddActionOptions().ewmaHalfLife( -1 ),
+																	new AddActionOptions().log( Paths.get( "unused" ), 0, 10 ),
+																	new AddActionOptions().log( Paths.get( "unused" ), 10, -1 ),
+																	new AddActionOptions().async( 1, 0, AddActionOptions.Backpressure.BLOCK ),
+																	new AddActionOptions().async( 1, 1024, null ),
+																	new AddActionOptions().threadLocalBuffers( ActionBatch.MAX_ACTIONS + 1, 100 ),
+																	new AddActionOptions().threadLocalBuffers( 1024, 0 ),
+																	new AddActionOptions().offHeap( true ).histograms( true ),
+																	new AddActionOptions().offHeap( true ).windows( 60000 ),
+																	new AddActionOptions().offHeap( true ).ewmaHalfLife( 1000 ),
+																	new AddActionOptions().offHeap( true ).stripes( 4 ),
+																	new AddActionOptions().offHeap( true ).concurrentMap( true ),
+																	new AddActionOptions().offHeap( true ).deltas( true ),
+																	new AddActionOptions().persistent( Paths.get( "unused" ) ).log( Paths.get( "unused" ), 10, 10 ) } )
+		{
+			assertThrows( IllegalArgumentException.class, () -> new AddActionAssignment( options ) );
+		}
+	}
+	
+	@Test
+	void addsToTheShortestWindow ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().windows( TimeWindows.BUCKETS ) );
+		
+		tracker.addAction( "foo", 10 );
+		
+		JSONObject stats = new JSONArray( tracker.getStats() ).getJSONObject( 0 );
+		int windowAverage = stats.getInt( AddActionAssignment.windowAverageJsonField( TimeWindows.BUCKETS ) );
+		
+		assertEquals( 10, stats.getInt( AddActionAssignment.AVERAGE_TIME_JSON_FLD ) );
+		assertTrue( windowAverage == 10 || windowAverage == 0, "the 12ms window holds the action or has moved past it: " + windowAverage );
+	}
+	
+	
+	/**
+	 * Exact totals and counts per action, as a reference
+	 */
+	static final class Expected
+	{
+		private final Map<String, BigInteger> totals = new HashMap<>();
+		private final Map<String, Long> counts = new HashMap<>();
+		
+		
+		/**
+		 * @return the action as JSON, for addAction(String)
+		 */
+		String add ( String actionName, int time )
+		{
+			this.totals.merge( actionName, BigInteger.valueOf( time ), BigInteger::add );
+			this.counts.merge( actionName, 1L, Long::sum );
+			
+			return "{'action':'" + actionName + "', 'time':" + time + "}";
+		}
+		
+		/**
+		 * @return the average of each action, as from getStatsAsMap
+		 */
+		Map<String, Integer> averages ()
+		{
+			Map<String, Integer> averages = new HashMap<>();
+			
+			this.totals.forEach( ( name, total ) -> averages.put( name, total.divide( BigInteger.valueOf( this.counts.get( name ) ) ).intValue() ) );
+			return averages;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class AddActionsTest
+{
+	/**
+	 * Each way of adding a batch of actions, given them as JSON lines
+	 */
+	private enum Input
+	{
+		JSON_ARRAY, ITERABLE, READER, INPUT_STREAM, SMALL_READS;
+		
+		void addActions ( AddActionAssignment tracker, List<String> lines ) throws IOException
+		{
+			String ndjson = String.join( "\n", lines );
+			
+			switch ( this )
+			{
+				case JSON_ARRAY:
+					JSONArray array = new JSONArray();
+					
+					for ( String line : lines )
+					{
+						array.put( new JSONObject( line ) );
+					}
+					
+					tracker.addActions( array );
+					break;
+				case ITERABLE:
+					tracker.addActions( lines );
+					break;
+				case READER:
+					tracker.addActions( new StringReader( ndjson ) );
+					break;
+				case INPUT_STREAM:
+					tracker.addActions( new ByteArrayInputStream( ndjson.getBytes( StandardCharsets.UTF_8 ) ) );
+					break;
+				case SMALL_READS:   // a stream returning at most 7 bytes a read, so lines span reads
+					tracker.addActions( new ByteArrayInputStream( ndjson.getBytes( StandardCharsets.UTF_8 ) ) {
+						@Override
+						public synchronized int read ( byte[] b, int off, int len )
+						{
+							return super.read( b, off, Math.min( len, 7 ) );
+						}
+					} );
+					break;
+			}
+		}
+		
+		/**
+		 * @return true if blank and malformed lines are passed as lines rather than as JSON values
+		 */
+		boolean isLines ()
+		{
+			return this != JSON_ARRAY && this != ITERABLE;
+		}
+	}
+	
+	@Test
+	void addsTheSameTotalsAsAddingEachAction () throws IOException
+	{
+		Random random = new Random( 5 );
+		List<String> lines = new ArrayList<>();
+		AddActionAssignment expected = new AddActionAssignment();
+		
+		for ( int i = 0; i < 5000; ++i )
+		{
+			String name = "action-" + random.nextInt( 50 );
+			int time = random.nextInt();
+			
+			lines.add( i % 2 == 0 ? action( name, time ) : "{'time':" + time + ",'action':'" + name + "'}" );   // the second needs org.json
+			expected.addAction( name, time );
+		}
+		
+		for ( Input input : Input.values() )
+		{
+			AddActionAssignment tracker = new AddActionAssignment();
+			
+			input.addActions( tracker, lines );
+			assertEquals( ActionStateTest.totals( expected ), ActionStateTest.totals( tracker ), input.name() );
+		}
+	}
+	
+	@Test
+	void handlesLongLinesCrlfBlankLinesAndAnUnterminatedLastLine () throws IOException
+	{
+		char[] longName = new char[ 20000 ];   // a line longer than the 8 KB read buffer
+		
+		Arrays.fill( longName, 'x' );
+		
+		String ndjson = action( "foo", 1 ) + "\r\n\r\n  \t\n" + action( new String( longName ), 2 ) + "\n\n" + action( "bar", 3 ) + "\r\n"
+						+ action( "été", 4 ) + "\r\n" + action( "foo", 5 );
+		AddActionAssignment expected = new AddActionAssignment();
+		
+		expected.addAction( "foo", 1 );
+		expected.addAction( new String( longName ), 2 );
+		expected.addAction( "bar", 3 );
+		expected.addAction( "été", 4 );
+		expected.addAction( "foo", 5 );
+		
+		for ( Input input : Input.values() )
+		{
+			if ( input.isLines() )
+			{
+				AddActionAssignment tracker = new AddActionAssignment();
+				
+				input.addActions( tracker, Collections.singletonList( ndjson ) );
+				assertEquals( ActionStateTest.totals( expected ), ActionStateTest.totals( tracker ), input.name() );
+			}
+		}
+	}
+	
+	@Test
+	void mergesEveryMaxActionsAndNoneAfterAMalformedAction () throws IOException
+	{
+		for ( Input input : Input.values() )
+		{
+			for ( int valid : new int[] { 10, ActionBatch.MAX_ACTIONS - 1, ActionBatch.MAX_ACTIONS, ActionBatch.MAX_ACTIONS + 10 } )
+			{
+				List<String> lines = new ArrayList<>();
+				
+				for ( int i = 0; i < valid; ++i )
+				{
+					lines.add( action( "action-" + i % 100, 1 ) );
+				}
+				
+				lines.add( input.isLines() ? "{\"action\":\"bad\"" : "{\"action\":\"bad\"}" );
+				lines.add( action( "after", 1 ) );
+				
+				AddActionAssignment tracker = new AddActionAssignment();
+				
+				assertThrows( JSONException.class, () -> input.addActions( tracker, lines ), input.name() );
+				
+				// the actions of each full batch are merged before the next is read, and the rest are dropped
+				long applied = valid >= ActionBatch.MAX_ACTIONS ? ActionBatch.MAX_ACTIONS : 0;
+				long count = 0;
+				
+				for ( List<Long> totals : ActionStateTest.totals( tracker ).values() )
+				{
+					count += totals.get( 2 );
+				}
+				
+				assertEquals( applied, count, input.name() + " after " + valid + " valid actions" );
+			}
+		}
+	}
+	
+	private static String action ( String name, int time )
+	{
+		return new JSONObject().put( AddActionAssignment.ACTION_NAME_JSON_FLD, name ).put( AddActionAssignment.TIME_JSON_FLD, time ).toString();
+	}
+}
@@ -0,0 +1,129 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OffHeapActionTableTest
+{
+	@Test
+	void recoversTotalsWhenReopenedWithoutClosing ( @TempDir Path directory ) throws IOException
+	{
+		OffHeapActionTable table = new OffHeapActionTable( 4, directory );
+		Map<String, long[]> expected = new HashMap<>();
+		
+		for ( int i = 0; i < 10000; ++i )   // enough to grow every segment's slots and names
+		{
+			String name = "action-" + ( i % 3000 );
+			
+			table.add( name, i, 1 );
+			expected.merge( name, new long[] { i, 1 }, ( a, b ) -> new long[] { a[0] + b[0], a[1] + b[1] } );
+		}
+		
+		// the crashed table is never closed; its mapped files hold every completed update
+		assertTotals( expected, new OffHeapActionTable( 1, directory ) );
+	}
+	
+	@Test
+	void fallsBackToThePreviousCopyOfATornSlot ( @TempDir Path directory ) throws IOException
+	{
+		OffHeapActionTable table = new OffHeapActionTable( 1, directory );
+		
+		table.add( "foo", 10, 1 );   // sequence 1, copy 1
+		table.add( "foo", 5, 1 );    // sequence 2, copy 0
+		table.force();
+		
+		Path slots = directory.resolve( "segment-0.slots" );
+		
+		try ( FileChannel channel = FileChannel.open( slots, StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+		{
+			ByteBuffer file = channel.map( FileChannel.MapMode.READ_WRITE, 0, channel.size() ).order( ByteOrder.nativeOrder() );
+			int base = 0;
+			
+			while ( file.getInt( base ) == 0 )
+			{
+				base += OffHeapActionTable.DURABLE_SLOT_BYTES;
+			}
+			
+			file.putLong( base + 24 + 32, file.getLong( base + 24 + 32 ) ^ 1 );   // copy 0's checksum, as if torn
+		}
+		
+		Map<String, long[]> expected = new HashMap<>();
+		
+		expected.put( "foo", new long[] { 10, 1 } );
+		assertTotals( expected, new OffHeapActionTable( 1, directory ) );
+	}
+	
+	@Test
+	void refusesADirectoryThatDoesNotMatchItsHeader ( @TempDir Path directory ) throws IOException
+	{
+		new OffHeapActionTable( 4, directory ).force();
+		
+		Path header = directory.resolve( "table.header" );
+		byte[] contents = Files.readAllBytes( header );
+		
+		Files.delete( directory.resolve( "segment-3.slots" ) );
+		assertThrows( IOException.class, () -> new OffHeapActionTable( 4, directory ) );
+		
+		Files.copy( directory.resolve( "segment-2.slots" ), directory.resolve( "segment-3.slots" ) );
+		Files.copy( directory.resolve( "segment-2.slots" ), directory.resolve( "segment-4.slots" ) );
+		assertThrows( IOException.class, () -> new OffHeapActionTable( 4, directory ) );
+		
+		Files.delete( directory.resolve( "segment-4.slots" ) );
+		contents[ 12 ] ^= 1;   // the number of segments, failing the checksum
+		Files.write( header, contents );
+		assertThrows( IOException.class, () -> new OffHeapActionTable( 4, directory ) );
+	}
+	
+	@Test
+	void startsAgainAfterAnInterruptedCreation ( @TempDir Path directory ) throws IOException
+	{
+		new OffHeapActionTable( 4, directory ).add( "foo", 10, 1 );
+		
+		Files.delete( directory.resolve( "table.header" ) );
+		Files.delete( directory.resolve( "segment-3.slots" ) );   // as if the crash came before the last segment
+		Files.delete( directory.resolve( "segment-3.names" ) );
+		
+		OffHeapActionTable table = new OffHeapActionTable( 2, directory );
+		
+		assertTotals( new HashMap<>(), table );
+		assertTrue( Files.exists( directory.resolve( "table.header" ) ) );
+		assertTrue( Files.notExists( directory.resolve( "segment-2.slots" ) ) );
+		
+		table.add( "foo", 10, 1 );
+		assertEquals( 1, count( new OffHeapActionTable( 8, directory ) ) );   // 2 segments, as the header now records
+	}
+	
+	private static void assertTotals ( Map<String, long[]> expected, OffHeapActionTable table )
+	{
+		Map<String, long[]> actual = new HashMap<>();
+		
+		table.forEach( new TimeTotal(), ( action, total ) -> actual.put( action.getActionName(), new long[] { total.low, total.count } ) );
+		
+		assertEquals( expected.keySet(), actual.keySet() );
+		expected.forEach( ( name, totals ) -> {
+			assertEquals( totals[0], actual.get( name )[0], name );
+			assertEquals( totals[1], actual.get( name )[1], name );
+		} );
+	}
+	
+	private static int count ( OffHeapActionTable table )
+	{
+		int[] count = new int[ 1 ];
+		
+		table.forEach( new TimeTotal(), ( action, total ) -> ++count[0] );
+		return count[0];
+	}
+}
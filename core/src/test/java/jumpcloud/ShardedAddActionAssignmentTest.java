@@ -0,0 +1,124 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class ShardedAddActionAssignmentTest
+{
+	@Test
+	void hashesANameTheSameFromCharsBytesAndJson ()
+	{
+		ActionJsonParser parser = new ActionJsonParser();
+		
+		for ( String name : names() )
+		{
+			byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+			int hash = ShardedAddActionAssignment.hash( bytes, 0, bytes.length );
+			
+			assertEquals( hash, ShardedAddActionAssignment.hash( "<" + name + ">", 1, name.length() + 1 ), name );
+			
+			if ( name.indexOf( '\uD800' ) >= 0 )
+			{
+				continue;   // an unpaired surrogate cannot be written as JSON the parser reads itself
+			}
+			
+			String json = "{\"action\":\"" + name + "\",\"time\":1}";
+			byte[] jsonBytes = json.getBytes( StandardCharsets.UTF_8 );
+			ByteBuffer direct = ByteBuffer.allocateDirect( jsonBytes.length ).put( jsonBytes );
+			ByteBuffer slice = ByteBuffer.wrap( ( "xx" + json ).getBytes( StandardCharsets.UTF_8 ) ).position( 2 ).slice();   // a non-zero array offset
+			
+			assertTrue( parser.parse( json ) );
+			assertEquals( hash, parser.hashActionName(), name );
+			assertTrue( parser.parse( jsonBytes, 0, jsonBytes.length ) );
+			assertEquals( hash, parser.hashActionName(), name );
+			assertTrue( parser.parse( direct, 0, jsonBytes.length ) );
+			assertEquals( hash, parser.hashActionName(), name );
+			assertTrue( parser.parse( slice, 0, jsonBytes.length ) );
+			assertEquals( hash, parser.hashActionName(), name );
+		}
+	}
+	
+	@Test
+	void routesANameToOneShardWhateverItsInputForm ()
+	{
+		ShardedAddActionAssignment tracker = new ShardedAddActionAssignment( new AddActionOptions(), 16 );
+		Map<String, Integer> expected = new HashMap<>();
+		List<Object> batch = new ArrayList<>();
+		int form = 0;
+		
+		for ( String name : names() )
+		{
+			if ( name.indexOf( '\uD800' ) >= 0 )
+			{
+				continue;   // encoded as '?', so a different name as bytes
+			}
+			
+			String json = new JSONObject().put( "action", name ).put( "time", 8 ).toString();
+			byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+			byte[] jsonBytes = json.getBytes( StandardCharsets.UTF_8 );
+			
+			tracker.addAction( name, 8 );
+			tracker.addAction( bytes, 0, bytes.length, 8 );
+			tracker.addAction( json );
+			tracker.addAction( jsonBytes, 0, jsonBytes.length );
+			tracker.addAction( ByteBuffer.wrap( jsonBytes ), 0, jsonBytes.length );
+			tracker.addAction( ByteBuffer.allocateDirect( jsonBytes.length ).put( jsonBytes ), 0, jsonBytes.length );
+			tracker.addAction( "{\"action\":" + JSONObject.quote( name ) + ",\"time\":8.0}" );   // left to org.json
+			tracker.addAction( new JSONObject( json ) );
+			batch.add( ++form % 2 == 0 ? json : new JSONObject( json ) );
+			
+			expected.put( name, 8 );
+		}
+		
+		tracker.addActions( batch );
+		
+		JSONArray stats = tracker.getStatsAsJSONArray();
+		
+		assertEquals( expected.size(), stats.length() );   // a name added to two shards would be listed twice
+		assertEquals( expected, tracker.getStatsAsMap() );
+	}
+	
+	@Test
+	void rejectsANumberOfShardsThatIsNotPositive ()
+	{
+		assertThrows( IllegalArgumentException.class, () -> new ShardedAddActionAssignment( new AddActionOptions(), 0 ) );
+		assertThrows( IllegalArgumentException.class, () -> new ShardedAddActionAssignment( new AddActionOptions(), -1 ) );
+		assertEquals( 1, new ShardedAddActionAssignment( new AddActionOptions(), 1 ).getShardCount() );
+	}
+	
+	/**
+	 * @return action names of one to four bytes per char, many enough to cover every shard
+	 */
+	private static List<String> names ()
+	{
+		List<String> names = new ArrayList<>();
+		Random random = new Random( 5 );
+		String[] parts = { "a", "/api/v1/", "é", "ß", "日本", "€", "😀", "\uD800" };
+		
+		for ( int i = 0; i < 500; ++i )
+		{
+			StringBuilder name = new StringBuilder( "n" + i );
+			
+			for ( int p = random.nextInt( 4 ); p > 0; --p )
+			{
+				name.append( parts[ random.nextInt( parts.length ) ] );
+			}
+			
+			names.add( name.toString() );
+		}
+		
+		return names;
+	}
+}
@@ -0,0 +1,218 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class StatsOutputTest
+{
+	/**
+	 * Trackers with each set of stats fields and each store
+	 */
+	private static AddActionOptions[] options ()
+	{
+		return new AddActionOptions[] { new AddActionOptions(),
+										new AddActionOptions().concurrentMap( true ).stripes( 4 ),
+										new AddActionOptions().histograms( true ).windows( 60000, 3600000 ).ewmaHalfLife( 60000 ),
+										new AddActionOptions().offHeap( true ) };
+	}
+	
+	@Test
+	void returnsTheCachedStatsWithinTheStalenessBound ()
+	{
+		for ( AddActionOptions options : options() )
+		{
+			AddActionAssignment tracker = new AddActionAssignment( options );
+			
+			tracker.addAction( "foo", 10 );
+			
+			String cached = tracker.getStats( 0 );
+			
+			tracker.addAction( "bar", 20 );
+			
+			assertSame( cached, tracker.getStats( 60000 ) );
+			assertEquals( byName( "[{\"action\":\"foo\",\"avg\":10}]" ).keySet(), byName( cached ).keySet() );
+			
+			String rebuilt = tracker.getStats( 0 );
+			
+			assertNotSame( cached, rebuilt );
+			assertEquals( byName( tracker.getStats() ), byName( rebuilt ) );
+			assertSame( rebuilt, tracker.getStats( 60000 ) );
+		}
+	}
+	
+	@Test
+	void rebuildsTheSameStatsAsGetStats ()
+	{
+		for ( AddActionOptions options : options() )
+		{
+			AddActionAssignment tracker = new AddActionAssignment( options );
+			
+			for ( int i = 0; i < 3000; ++i )
+			{
+				tracker.addAction( "action-" + i % 300, i * 7919 );
+				
+				if ( i % 1000 == 999 )   // only some actions have changed since the last rebuild
+				{
+					String stats = tracker.getStats( 0 );
+					
+					assertEquals( byName( tracker.getStats() ), byName( stats ) );
+					assertEquals( tracker.getStatsAsJSONArray().length(), new JSONArray( stats ).length() );
+				}
+			}
+			
+			tracker.addAction( "action-0", Integer.MAX_VALUE );
+			
+			assertEquals( byName( tracker.getStats() ), byName( tracker.getStats( 0 ) ) );
+		}
+	}
+	
+	@Test
+	void writesEachActionExactlyAsGetStatsDoes () throws IOException
+	{
+		String[] names = { "plain", "quote\"d", "back\\slash", "slash</script>", "tab\tnew\nline\r", "control\u0001\u001f\u007f",
+							"\u2028separators\u2029", "été", "雪", "emoji\uD83D\uDE00", "" };
+		
+		for ( AddActionOptions options : options() )
+		{
+			AddActionAssignment tracker = new AddActionAssignment( options );
+			
+			for ( int i = 0; i < names.length; ++i )
+			{
+				tracker.addAction( names[i], i * 1000 - 3 );
+			}
+			
+			String expected = tracker.getStats();
+			
+			assertEquals( names.length, byName( expected ).size() );
+			
+			TrackingWriter writer = new TrackingWriter();
+			
+			tracker.writeStats( writer );
+			
+			assertSameStats( expected, writer.toString() );
+			assertTrue( writer.flushed );
+			assertFalse( writer.closed );
+			
+			TrackingOutputStream out = new TrackingOutputStream();
+			
+			tracker.writeStats( out );
+			
+			assertSameStats( expected, new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+			assertTrue( out.flushed );
+			assertFalse( out.closed );
+		}
+	}
+	
+	@Test
+	void writesAnEmptyArrayWithNoActions () throws IOException
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		StringWriter writer = new StringWriter();
+		
+		tracker.writeStats( writer );
+		
+		assertEquals( tracker.getStats(), writer.toString() );
+		assertEquals( "[]", tracker.getStats( 0 ) );
+	}
+	
+	/**
+	 * Asserts that two stats outputs hold the same JSON objects, each formatted identically, in any order, in arrays 
+	 * formatted identically
+	 */
+	private static void assertSameStats ( String expected, String actual )
+	{
+		assertEquals( byName( expected ), byName( actual ) );
+		assertEquals( expected.length(), actual.length(), actual );
+	}
+	
+	/**
+	 * @return each action's JSON object in stats output, by name, exactly as formatted there
+	 */
+	private static Map<String, String> byName ( String stats )
+	{
+		Map<String, String> actions = new HashMap<>();
+		boolean inString = false;
+		int start = -1;
+		
+		for ( int i = 0; i < stats.length(); ++i )
+		{
+			char c = stats.charAt( i );
+			
+			if ( c == '\\' )   // only in a string: skip the escaped character
+			{
+				++i;
+			}
+			else if ( inString )
+			{
+				inString = c != '"';
+			}
+			else if ( c == '"' )
+			{
+				inString = true;
+			}
+			else if ( c == '{' )
+			{
+				start = i;
+			}
+			else if ( c == '}' )
+			{
+				String action = stats.substring( start, i + 1 );
+				
+				actions.put( new JSONObject( action ).getString( AddActionAssignment.ACTION_NAME_JSON_FLD ), action );
+			}
+		}
+		
+		assertEquals( new JSONArray( stats ).length(), actions.size() );
+		return actions;
+	}
+	
+	
+	private static final class TrackingWriter extends StringWriter
+	{
+		boolean flushed;
+		boolean closed;
+		
+		@Override
+		public void flush ()
+		{
+			this.flushed = true;
+		}
+		
+		@Override
+		public void close ()
+		{
+			this.closed = true;
+		}
+	}
+	
+	private static final class TrackingOutputStream extends ByteArrayOutputStream
+	{
+		boolean flushed;
+		boolean closed;
+		
+		@Override
+		public void flush ()
+		{
+			this.flushed = true;
+		}
+		
+		@Override
+		public void close ()
+		{
+			this.closed = true;
+		}
+	}
+}
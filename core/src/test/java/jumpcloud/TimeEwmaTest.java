@@ -0,0 +1,111 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+
+class TimeEwmaTest
+{
+	/**
+	 * The half-life, 1024 ticks of 1ms
+	 */
+	private static final long HALF_LIFE = 1024;
+	
+	@Test
+	void convergesToAConstantStream ()
+	{
+		TimeEwma.Cell ewma = new TimeEwma( HALF_LIFE ).newCell();
+		
+		ewma.add( 0, 5000, 1 );
+		
+		for ( long now = 1; now <= 20 * HALF_LIFE; ++now )
+		{
+			ewma.add( now, 100, 1 );
+		}
+		
+		assertEquals( 100, read( ewma, 20 * HALF_LIFE ), 0.01 );
+	}
+	
+	@Test
+	void reachesTheMidpointOfAStepAfterOneHalfLife ()
+	{
+		TimeEwma.Cell ewma = new TimeEwma( HALF_LIFE ).newCell();
+		long now = 0;
+		
+		for ( ; now < 20 * HALF_LIFE; ++now )
+		{
+			ewma.add( now, 3 * 1000, 3 );   // several actions per tick: each counts
+			ewma.add( now, 0, 1 );
+		}
+		
+		assertEquals( 750, read( ewma, now - 1 ), 0.01 );
+		
+		for ( long step = now; now < step + HALF_LIFE; ++now )
+		{
+			ewma.add( now, 4 * 2000, 4 );
+		}
+		
+		assertEquals( 1375, read( ewma, now - 1 ), 0.1 );
+		assertEquals( 1375, read( ewma, now + 100 * HALF_LIFE ), 0.1 );   // unchanged while idle
+	}
+	
+	@Test
+	void averagesTimesAddedInTheSameTick ()
+	{
+		TimeEwma.Cell ewma = new TimeEwma( HALF_LIFE ).newCell();
+		
+		ewma.add( 7, Integer.MAX_VALUE, 1 );
+		ewma.add( 7, Integer.MAX_VALUE - 2, 1 );
+		ewma.add( 7, 2L * ( Integer.MAX_VALUE - 4 ), 2 );
+		
+		assertEquals( Integer.MAX_VALUE - 2.5, read( ewma, 7 ), 1e-6 );
+	}
+	
+	@Test
+	void combinesCellsAsOne ()
+	{
+		TimeEwma clock = new TimeEwma( HALF_LIFE );
+		TimeEwma.Cell one = clock.newCell();
+		TimeEwma.Cell[] striped = { clock.newCell(), clock.newCell() };
+		
+		for ( int i = 0; i < 5000; ++i )
+		{
+			one.add( i, i % 7, 1 );
+			striped[ i % 3 == 0 ? 0 : 1 ].add( i, i % 7, 1 );
+		}
+		
+		TimeTotal total = new TimeTotal();
+		
+		for ( TimeEwma.Cell cell : striped )
+		{
+			cell.read( 6000, total );
+			total.ewmaSum += total.readEwmaSum;
+			total.ewmaWeight += total.readEwmaWeight;
+		}
+		
+		assertEquals( read( one, 6000 ), total.ewmaSum / total.ewmaWeight, 1e-9 );
+	}
+	
+	@Test
+	void reportsTheEwmaInStats ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().ewmaHalfLife( 60000 ).stripes( 4 ) );
+		
+		tracker.addAction( "foo", Integer.MAX_VALUE );
+		tracker.addAction( "foo", Integer.MAX_VALUE - 10 );
+		
+		assertEquals( Integer.MAX_VALUE - 5, new JSONArray( tracker.getStats() ).getJSONObject( 0 ).getInt( AddActionAssignment.EWMA_TIME_JSON_FLD ) );
+	}
+	
+	/**
+	 * @return the EWMA of a cell as of the given time
+	 */
+	private static double read ( TimeEwma.Cell ewma, long nowMillis )
+	{
+		TimeTotal total = new TimeTotal();
+		
+		ewma.read( nowMillis, total );
+		return total.readEwmaSum / total.readEwmaWeight;
+	}
+}
@@ -0,0 +1,148 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class TimeHistogramTest
+{
+	@Test
+	void bucketsEveryValueBelow64Exactly ()
+	{
+		for ( int value = 0; value < 64; ++value )
+		{
+			assertEquals( value, TimeHistogram.bucketIndex( value ) );
+			assertEquals( value, TimeHistogram.highestValueInBucket( value ) );
+		}
+		
+		assertEquals( 64, TimeHistogram.bucketIndex( 64 ) );
+		assertEquals( 64, TimeHistogram.bucketIndex( 65 ) );
+		assertEquals( 65, TimeHistogram.highestValueInBucket( 64 ) );
+	}
+	
+	@Test
+	void bucketsAreContiguousAndNarrowAtPowersOfTwo ()
+	{
+		for ( int bit = 6; bit <= 31; ++bit )
+		{
+			int power = (int) Math.min( Integer.MAX_VALUE, 1L << bit );
+			
+			for ( int value : new int[] { power - 1, power, power + 1 } )
+			{
+				if ( value < 0 )
+				{
+					continue;
+				}
+				
+				int index = TimeHistogram.bucketIndex( value );
+				int highest = TimeHistogram.highestValueInBucket( index );
+				
+				assertTrue( value <= highest, value + " above its bucket's highest value " + highest );
+				assertTrue( TimeHistogram.highestValueInBucket( index - 1 ) < value, value + " in an earlier bucket" );
+				assertTrue( highest - TimeHistogram.highestValueInBucket( index - 1 ) <= Math.max( 1, value / 32 ), value + " in too wide a bucket" );
+			}
+		}
+		
+		assertEquals( 127, TimeHistogram.highestValueInBucket( TimeHistogram.bucketIndex( 126 ) ) );
+		assertEquals( 131, TimeHistogram.highestValueInBucket( TimeHistogram.bucketIndex( 128 ) ) );
+		assertEquals( TimeHistogram.BUCKET_COUNT - 1, TimeHistogram.bucketIndex( Integer.MAX_VALUE ) );
+		assertEquals( Integer.MAX_VALUE, TimeHistogram.highestValueInBucket( TimeHistogram.BUCKET_COUNT - 1 ) );
+		
+		for ( int value = 0, previous = 0; value >= 0 && value < Integer.MAX_VALUE - 1000; value += 1 + value / 1000 )
+		{
+			int index = TimeHistogram.bucketIndex( value );
+			
+			assertTrue( index >= previous && index <= previous + 1, "bucket of " + value );
+			previous = index;
+		}
+	}
+	
+	@Test
+	void recordsNegativeTimesAsZero ()
+	{
+		TimeHistogram histogram = new TimeHistogram();
+		int[] values = new int[ 2 ];
+		
+		histogram.record( -5 );
+		histogram.record( Integer.MIN_VALUE );
+		histogram.getPercentiles( new double[] { 50, 100 }, values, 0 );
+		
+		assertEquals( 0, values[0] );
+		assertEquals( 0, values[1] );
+		assertEquals( 0, histogram.getMax() );
+	}
+	
+	@Test
+	void reportsEachPercentileAsTheHighestValueInItsBucket ()
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().histograms( true ) );
+		
+		for ( int time = 1000; time >= 1; --time )
+		{
+			tracker.addAction( "foo", time );
+		}
+		
+		JSONObject stats = new JSONArray( tracker.getStats() ).getJSONObject( 0 );
+		
+		assertEquals( 500, stats.getInt( AddActionAssignment.AVERAGE_TIME_JSON_FLD ) );
+		assertEquals( 503, stats.getInt( AddActionAssignment.P50_TIME_JSON_FLD ) );    // 500 is in [496, 503]
+		assertEquals( 911, stats.getInt( AddActionAssignment.P90_TIME_JSON_FLD ) );    // 900 is in [896, 911]
+		assertEquals( 991, stats.getInt( AddActionAssignment.P99_TIME_JSON_FLD ) );    // 990 is in [976, 991]
+		assertEquals( 1000, stats.getInt( AddActionAssignment.P999_TIME_JSON_FLD ) );  // 999 is in [992, 1007], capped at the max
+		assertEquals( 1000, stats.getInt( AddActionAssignment.MAX_TIME_JSON_FLD ) );
+	}
+	
+	@Test
+	void recordsBatchedBufferedAndAsyncActions () throws Exception
+	{
+		AddActionAssignment expected = new AddActionAssignment( new AddActionOptions().histograms( true ) );
+		AddActionAssignment batched = new AddActionAssignment( new AddActionOptions().histograms( true ) );
+		AddActionAssignment buffered = new AddActionAssignment( new AddActionOptions().histograms( true ).threadLocalBuffers( 100, 60000 ) );
+		AddActionAssignment async = new AddActionAssignment( new AddActionOptions().histograms( true ).async( 2, 1024, AddActionOptions.Backpressure.BLOCK ) );
+		JSONArray batch = new JSONArray();
+		Random random = new Random( 11 );
+		
+		for ( int i = 0; i < 10000; ++i )
+		{
+			String name = "action-" + random.nextInt( 20 );
+			int time = random.nextInt( 1 << random.nextInt( 31 ) );
+			
+			expected.addAction( name, time );
+			batch.put( new JSONObject().put( AddActionAssignment.ACTION_NAME_JSON_FLD, name ).put( AddActionAssignment.TIME_JSON_FLD, time ) );
+			buffered.addAction( name, time );
+			async.addAction( name, time );
+		}
+		
+		batched.addActions( batch );
+		async.flush();
+		
+		for ( AddActionAssignment tracker : new AddActionAssignment[] { batched, buffered, async } )
+		{
+			assertEquals( statsByName( expected ), statsByName( tracker ) );
+		}
+		
+		buffered.close();
+		async.close();
+	}
+	
+	/**
+	 * @return each action's stats, by name
+	 */
+	private static Map<String, Map<String, Object>> statsByName ( AddActionAssignment tracker )
+	{
+		Map<String, Map<String, Object>> stats = new HashMap<>();
+		
+		for ( Object action : new JSONArray( tracker.getStats() ) )
+		{
+			stats.put( ( (JSONObject) action ).getString( AddActionAssignment.ACTION_NAME_JSON_FLD ), ( (JSONObject) action ).toMap() );
+		}
+		
+		return stats;
+	}
+}
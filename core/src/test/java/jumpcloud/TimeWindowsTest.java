@@ -0,0 +1,104 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class TimeWindowsTest
+{
+	/**
+	 * A 120ms window, of 10ms buckets, and the shortest window allowed, of 1ms buckets
+	 */
+	private static final long[] WINDOWS = { 120, TimeWindows.BUCKETS };
+	
+	@Test
+	void coversBetweenElevenAndTwelveBuckets ()
+	{
+		TimeWindows windows = new TimeWindows( WINDOWS );
+		
+		windows.add( 1000, 10, 1 );
+		windows.add( 1009, 20, 1 );
+		
+		assertRead( windows, 1009, new long[] { 30, 30 }, new long[] { 2, 2 } );
+		assertRead( windows, 1011, new long[] { 30, 30 }, new long[] { 2, 2 } );
+		assertRead( windows, 1012, new long[] { 30, 20 }, new long[] { 2, 1 } );   // the 1ms bucket of 1000 has left its window
+		assertRead( windows, 1021, new long[] { 30, 0 }, new long[] { 2, 0 } );
+		assertRead( windows, 1119, new long[] { 30, 0 }, new long[] { 2, 0 } );
+		assertRead( windows, 1120, new long[] { 0, 0 }, new long[] { 0, 0 } );     // the 10ms bucket of 1000 and 1009 has left its window
+	}
+	
+	@Test
+	void resetsABucketWhenItRotatesToALaterInterval ()
+	{
+		TimeWindows windows = new TimeWindows( WINDOWS );
+		
+		windows.add( 1000, 10, 1 );
+		windows.add( 1060, 30, 2 );
+		windows.add( 1120, 5, 1 );   // the same buckets as 1000, twelve intervals on
+		
+		assertRead( windows, 1120, new long[] { 35, 5 }, new long[] { 3, 1 } );
+		assertRead( windows, 1180, new long[] { 5, 0 }, new long[] { 1, 0 } );
+		assertRead( windows, 100000, new long[] { 0, 0 }, new long[] { 0, 0 } );   // idle
+		
+		windows.add( 100000, 7, 1 );
+		
+		assertRead( windows, 100000, new long[] { 7, 7 }, new long[] { 1, 1 } );
+	}
+	
+	@Test
+	void reportsEachWindowAverageAndZeroOnceIdle () throws InterruptedException
+	{
+		long window = 600;   // long enough that the reads just after adding are inside it
+		String field = AddActionAssignment.windowAverageJsonField( window );
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().windows( window, 3600000 ) );
+		
+		tracker.addAction( "foo", 10 );
+		tracker.addAction( "foo", 30 );
+		
+		JSONObject stats = new JSONArray( tracker.getStats() ).getJSONObject( 0 );
+		String cached = tracker.getStats( 0 );
+		
+		assertEquals( "avg_600ms", field );
+		assertEquals( 20, stats.getInt( field ) );
+		assertEquals( 20, stats.getInt( "avg_1h" ) );
+		assertEquals( 20, new JSONArray( cached ).getJSONObject( 0 ).getInt( field ) );
+		
+		Thread.sleep( window + window / TimeWindows.BUCKETS + 50 );
+		
+		stats = new JSONArray( tracker.getStats() ).getJSONObject( 0 );
+		
+		assertEquals( 0, stats.getInt( field ) );
+		assertEquals( 20, stats.getInt( "avg_1h" ) );
+		assertEquals( 20, stats.getInt( AddActionAssignment.AVERAGE_TIME_JSON_FLD ) );
+		
+		// no action has been added since, but the rotation alone re-serializes the cached object
+		String rebuilt = tracker.getStats( 0 );
+		
+		assertNotEquals( cached, rebuilt );
+		assertEquals( 0, new JSONArray( rebuilt ).getJSONObject( 0 ).getInt( field ) );
+		assertSame( rebuilt, tracker.getStats( 60000 ) );
+		
+		tracker.addAction( "foo", 50 );
+		
+		stats = new JSONArray( tracker.getStats( 0 ) ).getJSONObject( 0 );
+		
+		assertEquals( 50, stats.getInt( field ) );
+		assertEquals( 30, stats.getInt( "avg_1h" ) );
+	}
+	
+	private static void assertRead ( TimeWindows windows, long nowMillis, long[] totals, long[] counts )
+	{
+		long[] readTotals = new long[ totals.length ];
+		long[] readCounts = new long[ counts.length ];
+		
+		windows.read( nowMillis, readTotals, readCounts );
+		
+		assertArrayEquals( totals, readTotals, "totals at " + nowMillis );
+		assertArrayEquals( counts, readCounts, "counts at " + nowMillis );
+	}
+}
@@ -1 +0,0 @@
-java -cp lib/*:bin jumpcloud.AddActionAssignment
@@ -0,0 +1,282 @@
+package jumpcloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A lightweight HTTP front end for an AddActionAssignment, built on the JDK's HttpServer:
+ * 
+ * 	POST /actions	adds the actions in the request body, which is either a JSON array of action objects, added as a
+ * 					batch by addActions(JSONArray), or one or more action objects one per line (NDJSON), added by
+ * 					addActions(InputStream); a single action is just a one-line body. Responds 204 once added, or 400
+ * 					if the body is not valid. Every element of an array is checked before any is added, so a 400 for
+ * 					an array means none of its actions have been added; the lines of NDJSON before an invalid one may
+ * 					have been.
+ * 	GET /stats		responds 200 with the output of getStats(), streamed by writeStats.
+ * 
+ * Each exchange is handled on its own virtual thread when the runtime has them (Java 21 or later), so concurrent
+ * producers are not capped by a pool of platform threads blocked on slow clients; on an earlier runtime a cached
+ * thread pool is used instead. The library is still built for Java 11, so virtual threads are found by reflection.
+ * 
+ * HttpServer keeps at most 200 idle keep-alive connections by default and closes the rest, which clients see as
+ * failed requests once there are more concurrent producers than that, and does not set TCP_NODELAY; both are set by
+ * system properties, e.g. -Dsun.net.httpserver.maxIdleConnections=10000 -Dsun.net.httpserver.nodelay=true
+ * 
+ * Usage: AddActionServer [port]
+ * 	serves a new tracker (with AddActionOptions.concurrentMap) on the port, 8080 by default, until killed
+ */
+public class AddActionServer
+{
+	public static final String ACTIONS_PATH = "/actions";
+	public static final String STATS_PATH = "/stats";
+	
+	/**
+	 * The largest request body accepted, to bound the memory a single request can take
+	 */
+	public static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+	
+	private static final int DEFAULT_PORT = 8080;
+	
+	private final AddActionAssignment tracker;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+	
+	
+	/**
+	 * Binds the server; it does not accept requests until start is called
+	 * 
+	 * @param tracker : a non-null tracker to add actions to and read stats from
+	 * @param address : the address to listen on; port 0 picks a free port, see getPort
+	 * @param backlog : the maximum number of pending connections, or 0 for the system default
+	 * @throws IOException if the address cannot be bound
+	 */
+	public AddActionServer ( AddActionAssignment tracker, InetSocketAddress address, int backlog ) throws IOException
+	{
+		ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+		
+		this.tracker = tracker;
+		this.server = HttpServer.create( address, backlog );
+		this.virtualThreads = virtualThreadExecutor != null;
+		this.executor = this.virtualThreads ? virtualThreadExecutor : Executors.newCachedThreadPool();
+		
+		this.server.setExecutor( this.executor );
+		this.server.createContext( ACTIONS_PATH, this::handleActions );
+		this.server.createContext( STATS_PATH, this::handleStats );
+	}
+	
+	/**
+	 * @return an executor running each task on a new virtual thread, or null if the runtime has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor ()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			
+			return (ExecutorService) factory.invoke( null );
+		}
+		catch ( ReflectiveOperationException | UnsupportedOperationException e )   // before Java 21
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * @return true if requests are handled on virtual threads
+	 */
+	public boolean isUsingVirtualThreads ()
+	{
+		return this.virtualThreads;
+	}
+	
+	/**
+	 * @return the port the server is bound to
+	 */
+	public int getPort ()
+	{
+		return this.server.getAddress().getPort();
+	}
+	
+	/**
+	 * Starts accepting requests, on a background thread
+	 */
+	public void start ()
+	{
+		this.server.start();
+	}
+	
+	/**
+	 * Stops accepting requests, waits for those in progress to finish, and shuts down the executor. The tracker is not
+	 * closed.
+	 * 
+	 * @param delaySeconds : the most time to wait for requests in progress
+	 */
+	public void stop ( int delaySeconds )
+	{
+		this.server.stop( delaySeconds );
+		this.executor.shutdown();
+	}
+	
+	private void handleActions ( HttpExchange exchange ) throws IOException
+	{
+		try
+		{
+			if ( ! "POST".equals( exchange.getRequestMethod() ) )
+			{
+				exchange.getResponseHeaders().set( "Allow", "POST" );
+				exchange.sendResponseHeaders( 405, -1 );
+				return;
+			}
+			
+			byte[] body = readBody( exchange.getRequestBody() );
+			
+			if ( body == null )
+			{
+				exchange.sendResponseHeaders( 413, -1 );
+				return;
+			}
+			
+			try
+			{
+				if ( isArray( body ) )
+				{
+					JSONArray actions = new JSONArray( new String( body, StandardCharsets.UTF_8 ) );
+					
+					checkActions( actions );   // addActions merges every ActionBatch.MAX_ACTIONS, so may fail part-way
+					this.tracker.addActions( actions );
+				}
+				else
+				{
+					this.tracker.addActions( new ByteArrayInputStream( body ) );
+				}
+			}
+			catch ( JSONException e )
+			{
+				byte[] message = ( e.getMessage() + "\n" ).getBytes( StandardCharsets.UTF_8 );
+				
+				exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+				exchange.sendResponseHeaders( 400, message.length );
+				exchange.getResponseBody().write( message );
+				return;
+			}
+			
+			exchange.sendResponseHeaders( 204, -1 );
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+	
+	private void handleStats ( HttpExchange exchange ) throws IOException
+	{
+		try
+		{
+			if ( ! "GET".equals( exchange.getRequestMethod() ) )
+			{
+				exchange.getResponseHeaders().set( "Allow", "GET" );
+				exchange.sendResponseHeaders( 405, -1 );
+				return;
+			}
+			
+			exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+			exchange.sendResponseHeaders( 200, 0 );   // chunked, as the length is not known until written
+			
+			this.tracker.writeStats( exchange.getResponseBody() );
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Reads a request body, drained so the connection can be reused
+	 * 
+	 * @return the body, or null if it is longer than MAX_BODY_BYTES
+	 */
+	private static byte[] readBody ( InputStream in ) throws IOException
+	{
+		byte[] body = new byte[ 4096 ];
+		int length = 0;
+		boolean tooLong = false;
+		
+		for ( int read; ( read = in.read( body, length, body.length - length ) ) >= 0; )
+		{
+			length += read;
+			
+			if ( length == body.length )
+			{
+				if ( body.length >= MAX_BODY_BYTES )
+				{
+					tooLong = true;
+					length = 0;   // keep draining into the same buffer
+				}
+				else
+				{
+					body = Arrays.copyOf( body, Math.min( body.length * 2, MAX_BODY_BYTES ) );
+				}
+			}
+		}
+		
+		return tooLong ? null : Arrays.copyOf( body, length );
+	}
+	
+	/**
+	 * Checks that every element of an array is an action object that addActions(JSONArray) can add
+	 * 
+	 * @throws JSONException if an element is not an object, or lacks a valid action name or time
+	 */
+	private static void checkActions ( JSONArray actions )
+	{
+		for ( int i = 0; i < actions.length(); ++i )
+		{
+			JSONObject action = actions.getJSONObject( i );
+			
+			action.getString( AddActionAssignment.ACTION_NAME_JSON_FLD );
+			action.getInt( AddActionAssignment.TIME_JSON_FLD );
+		}
+	}
+	
+	/**
+	 * @return true if the first character of the body that is not white space opens a JSON array
+	 */
+	private static boolean isArray ( byte[] body )
+	{
+		for ( byte b : body )
+		{
+			if ( b != ' ' && b != '\t' && b != '\r' && b != '\n' )
+			{
+				return b == '[';
+			}
+		}
+		
+		return false;
+	}
+	
+	public static void main ( String[] args ) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt( args[0] ) : DEFAULT_PORT;
+		AddActionServer server = new AddActionServer( new AddActionAssignment( new AddActionOptions().concurrentMap( true ) ),
+														new InetSocketAddress( port ), 0 );
+		
+		server.start();
+		System.out.println( "serving POST " + ACTIONS_PATH + " and GET " + STATS_PATH + " on port " + server.getPort()
+							+ ( server.isUsingVirtualThreads() ? " (virtual threads)" : " (cached thread pool)" ) );
+	}
+}
@@ -0,0 +1,662 @@
+package jumpcloud;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A statsd-style ingestion server for an AddActionAssignment: reads newline-delimited action records over TCP and UDP
+ * and adds each as for addAction(String, int). A record is
+ * 
+ * 	<action name>:<time>[|<anything>]
+ * 
+ * e.g. "/api/v1/users:42" or "/api/v1/users:42|ms". The name is everything before the last ':' preceding any '|', and
+ * the time a decimal int; text after '|' (a statsd type or sample rate) is ignored, as is a trailing '\r' and any
+ * blank line. Records that do not parse are counted by getMalformedRecords and otherwise skipped, as is a record longer
+ * than READ_BUFFER_BYTES. A UDP datagram holds one or more records, the last of which need not end with a newline, as
+ * does the last record of a TCP connection.
+ * 
+ * Connections are spread round robin over a configurable number of reactor threads, each running a selector over its
+ * connections and reading them into one direct buffer it owns, so memory does not grow with the number of idle
+ * connections: a connection only holds a heap buffer while it has a partial record waiting for the rest. Records are
+ * parsed in place in the direct buffer, and each name is copied into a reused array and added with
+ * AddActionAssignment.addAction(byte[], int, int, int), so no String or other object is created per record. The UDP
+ * channel, if any, is read by the first reactor. A separate thread accepts TCP connections.
+ * 
+ * Serving many connections takes a file descriptor limit (ulimit -n) above the number of connections.
+ * 
+ * Usage: LineProtocolServer [tcp port] [udp port] [reactors]
+ * 	serves a new tracker (with AddActionOptions.concurrentMap) on the ports, 8125 by default, with one reactor per
+ * 	processor by default, until killed
+ */
+public class LineProtocolServer implements AutoCloseable
+{
+	/**
+	 * The size of each reactor's read buffer, which is also the longest record and the largest datagram accepted
+	 */
+	public static final int READ_BUFFER_BYTES = 64 * 1024;
+	
+	private static final int DEFAULT_PORT = 8125;
+	
+	private static final int ACCEPT_BACKLOG = 4096;
+	
+	/**
+	 * The most datagrams read per wake-up of the first reactor, so a flood of UDP does not starve its TCP connections
+	 */
+	private static final int MAX_DATAGRAMS_PER_SELECT = 64;
+	
+	private final AddActionAssignment tracker;
+	private final ServerSocketChannel tcp;
+	private final DatagramChannel udp;
+	private final Reactor[] reactors;
+	private final Thread acceptor;
+	private volatile boolean closed;
+	
+	
+	/**
+	 * Binds the server; it does not accept records until start is called
+	 * 
+	 * @param tracker : a non-null tracker to add actions to
+	 * @param tcpAddress : the address to accept TCP connections on, or null for none; port 0 picks a free port
+	 * @param udpAddress : the address to receive UDP datagrams on, or null for none; port 0 picks a free port
+	 * @param numReactors : the positive number of reactor threads
+	 * @throws IOException if an address cannot be bound or a selector opened
+	 */
+	public LineProtocolServer ( AddActionAssignment tracker, InetSocketAddress tcpAddress, InetSocketAddress udpAddress,
+								int numReactors ) throws IOException
+	{
+		this.tracker = tracker;
+		this.reactors = new Reactor[ numReactors ];
+		
+		try
+		{
+			for ( int i = 0; i < numReactors; ++i )
+			{
+				this.reactors[i] = new Reactor( i );
+			}
+			
+			this.tcp = tcpAddress == null ? null : ServerSocketChannel.open().bind( tcpAddress, ACCEPT_BACKLOG );
+			this.udp = udpAddress == null ? null : DatagramChannel.open().bind( udpAddress );
+			
+			if ( this.udp != null )
+			{
+				this.udp.setOption( StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024 );   // rides out bursts between selects
+				this.udp.configureBlocking( false );
+				this.udp.register( this.reactors[0].selector, SelectionKey.OP_READ );
+			}
+		}
+		catch ( IOException e )
+		{
+			this.close();
+			throw e;
+		}
+		
+		this.acceptor = new Thread( this::accept, "line-protocol-acceptor" );
+	}
+	
+	/**
+	 * Starts the acceptor and reactor threads
+	 */
+	public void start ()
+	{
+		for ( Reactor reactor : this.reactors )
+		{
+			reactor.thread.start();
+		}
+		
+		if ( this.tcp != null )
+		{
+			this.acceptor.start();
+		}
+	}
+	
+	/**
+	 * @return the port TCP connections are accepted on, or -1 if none
+	 */
+	public int getTcpPort ()
+	{
+		return this.tcp == null ? -1 : this.tcp.socket().getLocalPort();
+	}
+	
+	/**
+	 * @return the port UDP datagrams are received on, or -1 if none
+	 */
+	public int getUdpPort ()
+	{
+		return this.udp == null ? -1 : this.udp.socket().getLocalPort();
+	}
+	
+	/**
+	 * @return the number of records added since the server started; read without synchronization, so it may lag
+	 */
+	public long getRecords ()
+	{
+		long records = 0;
+		
+		for ( Reactor reactor : this.reactors )
+		{
+			records += reactor.records;
+		}
+		
+		return records;
+	}
+	
+	/**
+	 * @return the number of records skipped as malformed or too long since the server started
+	 */
+	public long getMalformedRecords ()
+	{
+		long malformed = 0;
+		
+		for ( Reactor reactor : this.reactors )
+		{
+			malformed += reactor.malformedRecords;
+		}
+		
+		return malformed;
+	}
+	
+	/**
+	 * @return the number of TCP connections currently open
+	 */
+	public int getConnections ()
+	{
+		int connections = 0;
+		
+		for ( Reactor reactor : this.reactors )
+		{
+			connections += reactor.connections;
+		}
+		
+		return connections;
+	}
+	
+	/**
+	 * Stops accepting connections and records, closes every connection and waits for the threads to finish. Records
+	 * already read have been added; partial records are discarded. The tracker is not closed.
+	 */
+	@Override
+	public void close ()
+	{
+		this.closed = true;
+		
+		closeQuietly( this.tcp );
+		
+		for ( Reactor reactor : this.reactors )
+		{
+			if ( reactor != null )
+			{
+				reactor.selector.wakeup();
+				
+				if ( reactor.thread.isAlive() )
+				{
+					join( reactor.thread );
+				}
+				else
+				{
+					reactor.closeAll();
+				}
+			}
+		}
+		
+		closeQuietly( this.udp );
+		
+		if ( this.acceptor != null && this.acceptor.isAlive() )
+		{
+			join( this.acceptor );
+		}
+	}
+	
+	/**
+	 * The acceptor thread: hands each new connection to the next reactor in turn
+	 */
+	private void accept ()
+	{
+		int next = 0;
+		
+		while ( ! this.closed )
+		{
+			try
+			{
+				SocketChannel channel = this.tcp.accept();
+				
+				channel.configureBlocking( false );
+				
+				Reactor reactor = this.reactors[ next ];
+				
+				next = next + 1 == this.reactors.length ? 0 : next + 1;
+				reactor.pending.add( channel );
+				reactor.selector.wakeup();
+			}
+			catch ( ClosedChannelException e )   // closed by close()
+			{
+				return;
+			}
+			catch ( IOException e )   // e.g. out of file descriptors; keep serving the open connections
+			{
+				if ( ! this.closed )
+				{
+					System.err.println( "line protocol server: accept failed: " + e );
+					pause();
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * The state of a TCP connection between reads
+	 */
+	private static class Connection
+	{
+		/**
+		 * The start of a record whose end has not been read yet, in partial[0 .. partialLength)
+		 */
+		byte[] partial;
+		int partialLength;
+		
+		/**
+		 * True while skipping the rest of a record longer than READ_BUFFER_BYTES
+		 */
+		boolean skipping;
+	}
+	
+	
+	/**
+	 * A selector thread serving a share of the connections
+	 */
+	private class Reactor
+	{
+		final Selector selector;
+		final Thread thread;
+		final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+		
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( READ_BUFFER_BYTES );
+		
+		/**
+		 * The action name of the record being added, copied out of buffer
+		 */
+		byte[] name = new byte[ 256 ];
+		
+		/**
+		 * Counts of records, kept by the thread and published to the volatile fields after each select
+		 */
+		long recordCount;
+		long malformedCount;
+		
+		volatile long records;
+		volatile long malformedRecords;
+		volatile int connections;
+		
+		
+		Reactor ( int index ) throws IOException
+		{
+			this.selector = Selector.open();
+			this.thread = new Thread( this::run, "line-protocol-reactor-" + index );
+		}
+		
+		private void run ()
+		{
+			try
+			{
+				while ( ! LineProtocolServer.this.closed )
+				{
+					this.selector.select();
+					this.register();
+					
+					Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+					
+					while ( keys.hasNext() )
+					{
+						SelectionKey key = keys.next();
+						
+						keys.remove();
+						
+						if ( key.channel() == LineProtocolServer.this.udp )
+						{
+							this.receive();
+						}
+						else
+						{
+							this.read( key );
+						}
+					}
+					
+					this.records = this.recordCount;
+					this.malformedRecords = this.malformedCount;
+				}
+			}
+			catch ( IOException e )   // the selector failed; nothing more can be served
+			{
+				System.err.println( "line protocol server: " + this.thread.getName() + " failed: " + e );
+			}
+			finally
+			{
+				this.closeAll();
+			}
+		}
+		
+		/**
+		 * Registers the connections handed over by the acceptor
+		 */
+		private void register ()
+		{
+			for ( SocketChannel channel; ( channel = this.pending.poll() ) != null; )
+			{
+				try
+				{
+					channel.register( this.selector, SelectionKey.OP_READ, new Connection() );
+					++this.connections;
+				}
+				catch ( ClosedChannelException e )
+				{
+					// closed before it was registered
+				}
+			}
+		}
+		
+		/**
+		 * Reads what is available on a TCP connection and adds the complete records
+		 */
+		private void read ( SelectionKey key )
+		{
+			SocketChannel channel = (SocketChannel) key.channel();
+			Connection connection = (Connection) key.attachment();
+			ByteBuffer buffer = this.buffer;
+			boolean reset = false;
+			int read;
+			
+			buffer.clear();
+			
+			if ( connection.partialLength > 0 )
+			{
+				buffer.put( connection.partial, 0, connection.partialLength );
+			}
+			
+			try
+			{
+				read = channel.read( buffer );
+			}
+			catch ( IOException e )   // e.g. reset by the peer
+			{
+				read = -1;
+				reset = true;
+			}
+			
+			int end = buffer.position();
+			int start = this.addRecords( connection, end );
+			
+			if ( read < 0 )
+			{
+				if ( start < end && ! connection.skipping && ! reset )
+				{
+					this.addRecord( start, end );   // the last record of a closed connection need not end with a newline
+				}
+				
+				key.cancel();
+				closeQuietly( channel );
+				--this.connections;
+				return;
+			}
+			
+			if ( start == 0 && end == buffer.capacity() )   // a record that does not fit: skip to its newline
+			{
+				connection.skipping = true;
+				++this.malformedCount;
+				start = end;
+			}
+			
+			connection.partialLength = end - start;
+			
+			if ( connection.partialLength > 0 )
+			{
+				if ( connection.partial == null || connection.partial.length < connection.partialLength )
+				{
+					connection.partial = new byte[ Math.max( 64, Integer.highestOneBit( connection.partialLength ) << 1 ) ];
+				}
+				
+				buffer.position( start );
+				buffer.get( connection.partial, 0, connection.partialLength );
+			}
+		}
+		
+		/**
+		 * Adds each newline-terminated record in buffer[0 .. end)
+		 * 
+		 * @return the index after the last newline, where a partial record starts
+		 */
+		private int addRecords ( Connection connection, int end )
+		{
+			ByteBuffer buffer = this.buffer;
+			int start = 0;
+			
+			for ( int i = 0; i < end; ++i )
+			{
+				if ( buffer.get( i ) == '\n' )
+				{
+					if ( connection != null && connection.skipping )
+					{
+						connection.skipping = false;
+					}
+					else
+					{
+						this.addRecord( start, i );
+					}
+					
+					start = i + 1;
+				}
+			}
+			
+			if ( connection != null && connection.skipping )
+			{
+				return end;   // still skipping: nothing to keep
+			}
+			
+			return start;
+		}
+		
+		/**
+		 * Receives the waiting datagrams and adds their records
+		 */
+		private void receive ()
+		{
+			ByteBuffer buffer = this.buffer;
+			
+			for ( int i = 0; i < MAX_DATAGRAMS_PER_SELECT; ++i )
+			{
+				buffer.clear();
+				
+				try
+				{
+					if ( LineProtocolServer.this.udp.receive( buffer ) == null )
+					{
+						return;
+					}
+				}
+				catch ( IOException e )
+				{
+					return;
+				}
+				
+				int end = buffer.position();
+				int start = this.addRecords( null, end );
+				
+				if ( start < end )
+				{
+					this.addRecord( start, end );
+				}
+			}
+		}
+		
+		/**
+		 * Parses the record in buffer[start .. end), without its newline, and adds it
+		 */
+		private void addRecord ( int start, int end )
+		{
+			ByteBuffer buffer = this.buffer;
+			
+			if ( end > start && buffer.get( end - 1 ) == '\r' )
+			{
+				--end;
+			}
+			
+			if ( end == start )
+			{
+				return;   // blank line
+			}
+			
+			int valueEnd = start;
+			
+			while ( valueEnd < end && buffer.get( valueEnd ) != '|' )
+			{
+				++valueEnd;
+			}
+			
+			int colon = valueEnd - 1;
+			
+			while ( colon >= start && buffer.get( colon ) != ':' )
+			{
+				--colon;
+			}
+			
+			long time = 0;
+			int i = colon + 1;
+			boolean negative = i < valueEnd && buffer.get( i ) == '-';
+			
+			if ( negative )
+			{
+				++i;
+			}
+			
+			if ( colon <= start || i == valueEnd || valueEnd - i > 10 )
+			{
+				++this.malformedCount;
+				return;
+			}
+			
+			for ( ; i < valueEnd; ++i )
+			{
+				int digit = buffer.get( i ) - '0';
+				
+				if ( digit < 0 || digit > 9 )
+				{
+					++this.malformedCount;
+					return;
+				}
+				
+				time = time * 10 + digit;
+			}
+			
+			time = negative ? -time : time;
+			
+			if ( time != (int) time )
+			{
+				++this.malformedCount;
+				return;
+			}
+			
+			int nameLength = colon - start;
+			
+			if ( this.name.length < nameLength )
+			{
+				this.name = new byte[ Math.max( nameLength, this.name.length * 2 ) ];
+			}
+			
+			buffer.position( start );
+			buffer.get( this.name, 0, nameLength );
+			
+			LineProtocolServer.this.tracker.addAction( this.name, 0, nameLength, (int) time );
+			++this.recordCount;
+		}
+		
+		/**
+		 * Closes the selector and every connection registered with it or waiting to be
+		 */
+		private void closeAll ()
+		{
+			if ( ! this.selector.isOpen() )
+			{
+				return;
+			}
+			
+			for ( SelectionKey key : this.selector.keys() )
+			{
+				if ( key.channel() != LineProtocolServer.this.udp )
+				{
+					closeQuietly( key.channel() );
+				}
+			}
+			
+			for ( SocketChannel channel; ( channel = this.pending.poll() ) != null; )
+			{
+				closeQuietly( channel );
+			}
+			
+			this.connections = 0;
+			closeQuietly( this.selector );
+		}
+	}
+	
+	
+	private static void closeQuietly ( AutoCloseable closeable )
+	{
+		if ( closeable != null )
+		{
+			try
+			{
+				closeable.close();
+			}
+			catch ( Exception e )
+			{
+				// nothing more to do with it
+			}
+		}
+	}
+	
+	private static void join ( Thread thread )
+	{
+		try
+		{
+			thread.join();
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void pause ()
+	{
+		try
+		{
+			Thread.sleep( 100 );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	public static void main ( String[] args ) throws IOException
+	{
+		int tcpPort = args.length > 0 ? Integer.parseInt( args[0] ) : DEFAULT_PORT;
+		int udpPort = args.length > 1 ? Integer.parseInt( args[1] ) : DEFAULT_PORT;
+		int numReactors = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+		LineProtocolServer server = new LineProtocolServer( new AddActionAssignment( new AddActionOptions().concurrentMap( true ) ),
+															new InetSocketAddress( tcpPort ), new InetSocketAddress( udpPort ), numReactors );
+		
+		server.start();
+		System.out.println( "serving action records on TCP port " + server.getTcpPort() + " and UDP port " + server.getUdpPort()
+							+ " with " + numReactors + " reactors" );
+	}
+}
@@ -0,0 +1,130 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class AddActionServerTest
+{
+	private final HttpClient client = HttpClient.newHttpClient();
+	
+	@Test
+	void addsSingleActionsNdjsonAndArrays () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().concurrentMap( true ) );
+		AddActionAssignment expected = new AddActionAssignment();
+		AddActionServer server = start( tracker );
+		
+		try
+		{
+			assertEquals( 204, this.post( server, "{\"action\":\"foo\",\"time\":10}" ).statusCode() );
+			assertEquals( 204, this.post( server, "{\"action\":\"foo\",\"time\":20}\r\n\n{\"action\":\"bar\",\"time\":1}" ).statusCode() );
+			assertEquals( 204, this.post( server, " [{\"action\":\"bar\",\"time\":3},{\"action\":\"baz\",\"time\":-4}]" ).statusCode() );
+			
+			expected.addAction( "foo", 10 );
+			expected.addAction( "foo", 20 );
+			expected.addAction( "bar", 1 );
+			expected.addAction( "bar", 3 );
+			expected.addAction( "baz", -4 );
+			assertEquals( expected.getStatsAsMap(), tracker.getStatsAsMap() );
+			
+			HttpResponse<String> stats = this.send( HttpRequest.newBuilder( uri( server, AddActionServer.STATS_PATH ) ).GET() );
+			
+			assertEquals( 200, stats.statusCode() );
+			assertEquals( tracker.getStats(), stats.body() );
+		}
+		finally
+		{
+			server.stop( 0 );
+		}
+	}
+	
+	@Test
+	void rejectsMalformedBodies () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().concurrentMap( true ) );
+		AddActionServer server = start( tracker );
+		
+		try
+		{
+			for ( String body : new String[] { "{\"action\":\"foo\"", "{\"action\":\"foo\",\"time\":\"ten\"}", "[{\"action\":\"foo\",\"time\":1},",
+												"[{\"action\":\"foo\",\"time\":1},2]", "[{\"action\":\"foo\",\"time\":1},\"{}\"]",
+												"[{\"action\":\"foo\",\"time\":1},{\"action\":\"foo\"}]" } )
+			{
+				HttpResponse<String> response = this.post( server, body );
+				
+				assertEquals( 400, response.statusCode(), body );
+				assertFalse( response.body().isEmpty() );
+			}
+			
+			assertEquals( Collections.emptyMap(), tracker.getStatsAsMap() );
+			
+			HttpResponse<String> response = this.send( HttpRequest.newBuilder( uri( server, AddActionServer.ACTIONS_PATH ) ).GET() );
+			
+			assertEquals( 405, response.statusCode() );
+			assertEquals( "POST", response.headers().firstValue( "Allow" ).orElse( null ) );
+		}
+		finally
+		{
+			server.stop( 0 );
+		}
+	}
+	
+	@Test
+	void addsNoneOfAnArrayLongerThanABatchWithAnInvalidLastElement () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().concurrentMap( true ) );
+		AddActionServer server = start( tracker );
+		JSONArray actions = new JSONArray();
+		
+		for ( int i = 0; i < ActionBatch.MAX_ACTIONS + 10; ++i )
+		{
+			actions.put( new JSONObject().put( "action", "foo" ).put( "time", i ) );
+		}
+		
+		actions.put( new JSONObject().put( "action", "foo" ) );
+		
+		try
+		{
+			assertEquals( 400, this.post( server, actions.toString() ).statusCode() );
+			assertEquals( Collections.emptyMap(), tracker.getStatsAsMap() );
+		}
+		finally
+		{
+			server.stop( 0 );
+		}
+	}
+	
+	private static AddActionServer start ( AddActionAssignment tracker ) throws Exception
+	{
+		AddActionServer server = new AddActionServer( tracker, new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+		
+		server.start();
+		return server;
+	}
+	
+	private static URI uri ( AddActionServer server, String path )
+	{
+		return URI.create( "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort() + path );
+	}
+	
+	private HttpResponse<String> post ( AddActionServer server, String body ) throws Exception
+	{
+		return this.send( HttpRequest.newBuilder( uri( server, AddActionServer.ACTIONS_PATH ) ).POST( HttpRequest.BodyPublishers.ofString( body ) ) );
+	}
+	
+	private HttpResponse<String> send ( HttpRequest.Builder request ) throws Exception
+	{
+		return this.client.send( request.build(), HttpResponse.BodyHandlers.ofString() );
+	}
+}
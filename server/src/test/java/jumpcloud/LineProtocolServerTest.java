@@ -0,0 +1,189 @@
+package jumpcloud;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class LineProtocolServerTest
+{
+	private static final InetSocketAddress ANY_PORT = new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 );
+	
+	
+	@Test
+	void parsesRecordsAndSkipsMalformedOnes () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		
+		try ( LineProtocolServer server = start( tracker, 1 ) )
+		{
+			send( server, "/api/v1/users:42\n"
+							+ "/api/v1/users:-2|ms\r\n"      // a statsd type and a CRLF
+							+ "\n\r\n"                       // blank lines
+							+ "a:b:3|@0.5|#tag:1\n"           // the name ends at the last ':' before any '|'
+							+ "big:2147483647\n"
+							+ "small:-2147483648\n"
+							+ "no colon\n"
+							+ ":5\n"                         // no name
+							+ "x:\n"                         // no time
+							+ "x:-\n"
+							+ "x:1.5\n"
+							+ "x:12a\n"
+							+ "x:2147483648\n"               // beyond int range
+							+ "x:99999999999\n"
+							+ "x|y:1\n"                      // the ':' is after the '|'
+							+ "last:7" );                    // the last record of a connection needs no newline
+			
+			awaitRecords( server, 6, 9 );
+		}
+		
+		Map<String, Integer> expected = new HashMap<>();
+		
+		expected.put( "/api/v1/users", 20 );
+		expected.put( "a:b", 3 );
+		expected.put( "big", Integer.MAX_VALUE );
+		expected.put( "small", Integer.MIN_VALUE );
+		expected.put( "last", 7 );
+		assertEquals( expected, tracker.getStatsAsMap() );
+	}
+	
+	@Test
+	void joinsRecordsSplitAcrossReads () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		
+		try ( LineProtocolServer server = start( tracker, 1 );
+				Socket socket = new Socket( InetAddress.getLoopbackAddress(), server.getTcpPort() ) )
+		{
+			OutputStream out = socket.getOutputStream();
+			
+			socket.setTcpNoDelay( true );
+			
+			for ( byte b : "split:1\nsplit:3\n".getBytes( StandardCharsets.UTF_8 ) )
+			{
+				out.write( b );
+				out.flush();
+				Thread.sleep( 1 );
+			}
+			
+			awaitRecords( server, 2, 0 );
+		}
+		
+		assertEquals( 2, tracker.getStatsAsMap().get( "split" ) );
+	}
+	
+	@Test
+	void skipsARecordLongerThanTheReadBuffer () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment();
+		char[] longName = new char[ 3 * LineProtocolServer.READ_BUFFER_BYTES ];
+		
+		Arrays.fill( longName, 'n' );
+		
+		try ( LineProtocolServer server = start( tracker, 1 ) )
+		{
+			send( server, "before:1\n" + new String( longName ) + ":1\nafter:2\n" );
+			awaitRecords( server, 2, 1 );
+		}
+		
+		assertEquals( 2, tracker.getStatsAsMap().size() );
+		assertEquals( 2, tracker.getStatsAsMap().get( "after" ) );
+	}
+	
+	@Test
+	void addsRecordsFromDatagramsAndManyConnections () throws Exception
+	{
+		AddActionAssignment tracker = new AddActionAssignment( new AddActionOptions().concurrentMap( true ) );
+		
+		try ( LineProtocolServer server = start( tracker, 4 );
+				DatagramChannel udp = DatagramChannel.open() )
+		{
+			udp.send( ByteBuffer.wrap( "udp:10\nudp:20|ms\nudp:30".getBytes( StandardCharsets.UTF_8 ) ),
+						new InetSocketAddress( InetAddress.getLoopbackAddress(), server.getUdpPort() ) );
+			
+			Thread[] clients = new Thread[ 8 ];
+			
+			for ( int c = 0; c < clients.length; ++c )
+			{
+				String records = String.join( "", Collections.nCopies( 1000, "tcp-" + c + ":" + c + "\n" ) );
+				
+				clients[c] = new Thread( () -> {
+					try
+					{
+						send( server, records );
+					}
+					catch ( IOException e )
+					{
+						throw new UncheckedIOException( e );
+					}
+				} );
+				clients[c].start();
+			}
+			
+			for ( Thread client : clients )
+			{
+				client.join();
+			}
+			
+			awaitRecords( server, 3 + 8 * 1000, 0 );
+		}
+		
+		Map<String, Integer> stats = tracker.getStatsAsMap();
+		
+		assertEquals( 9, stats.size() );
+		assertEquals( 20, stats.get( "udp" ) );
+		
+		for ( int c = 0; c < 8; ++c )
+		{
+			assertEquals( c, stats.get( "tcp-" + c ) );
+		}
+	}
+	
+	private static LineProtocolServer start ( AddActionAssignment tracker, int reactors ) throws IOException
+	{
+		LineProtocolServer server = new LineProtocolServer( tracker, ANY_PORT, ANY_PORT, reactors );
+		
+		server.start();
+		return server;
+	}
+	
+	/**
+	 * Sends text over a new TCP connection, then closes it
+	 */
+	private static void send ( LineProtocolServer server, String text ) throws IOException
+	{
+		try ( Socket socket = new Socket( InetAddress.getLoopbackAddress(), server.getTcpPort() ) )
+		{
+			socket.getOutputStream().write( text.getBytes( StandardCharsets.UTF_8 ) );
+		}
+	}
+	
+	/**
+	 * Waits up to 10 seconds for the server to have added and skipped the given numbers of records
+	 */
+	private static void awaitRecords ( LineProtocolServer server, long records, long malformed ) throws InterruptedException
+	{
+		for ( long deadline = System.nanoTime() + 10_000_000_000L; System.nanoTime() < deadline; Thread.sleep( 5 ) )
+		{
+			if ( server.getRecords() >= records && server.getMalformedRecords() >= malformed )
+			{
+				break;
+			}
+		}
+		
+		assertEquals( records, server.getRecords() );
+		assertEquals( malformed, server.getMalformedRecords() );
+	}
+}